@@ -0,0 +1,83 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic.benchmarks;
+
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultFileSystem;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.component.ResourcePerspectives;
+import org.sonar.api.resources.File;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Minimal stand-ins for the batch components used by {@code ReportParser}: a file system indexing the generated
+ * files, a sensor context which knows all of them and discards measures, and perspectives without test plans.
+ */
+final class BenchmarkProject {
+
+  private final DefaultFileSystem fileSystem;
+  private final SensorContext context;
+  private final ResourcePerspectives perspectives;
+
+  BenchmarkProject(java.io.File baseDir, int files) {
+    fileSystem = new DefaultFileSystem().setBaseDir(baseDir);
+    for (int i = 0; i < files; i++) {
+      String path = ReportGenerator.filePath(i);
+      fileSystem.add(new DefaultInputFile(path)
+        .setAbsolutePath(new java.io.File(baseDir, path).getAbsolutePath())
+        .setLanguage("java")
+        .setType(InputFile.Type.TEST));
+    }
+    final File resource = File.create("benchmark");
+    context = proxy(SensorContext.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return "getResource".equals(method.getName()) ? resource : null;
+      }
+    });
+    perspectives = proxy(ResourcePerspectives.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return null;
+      }
+    });
+  }
+
+  DefaultFileSystem fileSystem() {
+    return fileSystem;
+  }
+
+  SensorContext context() {
+    return context;
+  }
+
+  ResourcePerspectives perspectives() {
+    return perspectives;
+  }
+
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(BenchmarkProject.class.getClassLoader(), new Class<?>[] {type}, handler));
+  }
+
+}
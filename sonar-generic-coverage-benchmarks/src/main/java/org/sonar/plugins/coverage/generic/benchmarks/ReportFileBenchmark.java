@@ -0,0 +1,161 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonar.plugins.coverage.generic.BinaryReportConverter;
+import org.sonar.plugins.coverage.generic.ReportParser;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Measures {@link ReportParser#parse(File, String)} over a generated coverage report, which is how the sensor reads
+ * reports, for each way of reading it:
+ * <ul>
+ * <li>{@code XML}: the report is read with the scanner, from a memory mapped file beyond 16 MB</li>
+ * <li>{@code GZIP}: the same report, gzip compressed</li>
+ * <li>{@code BINARY}: the report converted to the binary format</li>
+ * <li>{@code PIPELINE}: the report is tokenized while {@code pipelineWorkers} threads resolve paths and fill builders</li>
+ * <li>{@code INDEX}: the "file" elements are read through the index of the report, built before the trial</li>
+ * </ul>
+ * The default report is about 64 MB, {@code -p files=1000} gives a report read without memory mapping.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ReportFileBenchmark {
+
+  public enum Variant {
+    XML, GZIP, BINARY, PIPELINE, INDEX
+  }
+
+  @State(Scope.Benchmark)
+  public static class Report {
+
+    @Param({"XML", "GZIP", "BINARY", "PIPELINE", "INDEX"})
+    public Variant variant;
+
+    @Param({"10000"})
+    public int files;
+
+    @Param({"100"})
+    public int linesPerFile;
+
+    @Param({"4"})
+    public int pipelineWorkers;
+
+    File baseDir;
+    File reportFile;
+    File indexDirectory;
+    BenchmarkProject project;
+    long elementsPerReport;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException, XMLStreamException {
+      baseDir = Files.createTempDirectory("generic-coverage-benchmark").toFile();
+      File xmlReport = new File(baseDir, "report.xml");
+      ReportGenerator.writeCoverageReport(xmlReport, files, linesPerFile);
+      elementsPerReport = (long) files * linesPerFile;
+      project = new BenchmarkProject(baseDir, files);
+      reportFile = xmlReport;
+      if (variant == Variant.GZIP) {
+        reportFile = new File(baseDir, "report.xml.gz");
+        try (OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(reportFile))) {
+          Files.copy(xmlReport.toPath(), outputStream);
+        }
+      } else if (variant == Variant.BINARY) {
+        reportFile = new File(baseDir, "report.bin");
+        BinaryReportConverter.convert(xmlReport, reportFile);
+      } else if (variant == Variant.INDEX) {
+        indexDirectory = new File(baseDir, "indexes");
+        // the first parse builds the index
+        newParser().parse(reportFile, reportFile.getName());
+      }
+    }
+
+    ReportParser newParser() {
+      ReportParser parser = new ReportParser(project.fileSystem(), project.context(), project.perspectives(), ReportParser.Mode.COVERAGE);
+      if (variant == Variant.PIPELINE) {
+        parser.enablePipeline(pipelineWorkers);
+      } else if (variant == Variant.INDEX) {
+        parser.enableReportIndexes(indexDirectory);
+      }
+      return parser;
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+      System.out.printf("%n%s: %d bytes in report%n", variant, reportFile.length());
+      delete(baseDir);
+    }
+
+    private static void delete(File file) throws IOException {
+      File[] children = file.listFiles();
+      if (children != null) {
+        for (File child : children) {
+          delete(child);
+        }
+      }
+      Files.delete(file.toPath());
+    }
+  }
+
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Counters {
+    public long elements;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      elements = 0;
+    }
+  }
+
+  @Benchmark
+  public ReportParser parse(Report report, Counters counters) throws XMLStreamException {
+    ReportParser parser = report.newParser();
+    parser.parse(report.reportFile, report.reportFile.getName());
+    counters.elements += report.elementsPerReport;
+    return parser;
+  }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes synthetic generic coverage and unit test reports. Paths are named after {@link #filePath(int)}
+ * so that the benchmark file system can index exactly the files referenced by the report.
+ */
+public final class ReportGenerator {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private ReportGenerator() {
+    // only static methods
+  }
+
+  public static String filePath(int index) {
+    return "src/main/java/com/example/module" + (index % 100) + "/GeneratedClass" + index + ".java";
+  }
+
+  /**
+   * Every fourth line carries branches, every third line is uncovered.
+   */
+  public static void writeCoverageReport(File output, int files, int linesPerFile) throws IOException {
+    try (Writer writer = newWriter(output)) {
+      writer.write("<coverage version=\"1\">\n");
+      for (int file = 0; file < files; file++) {
+        writer.write("  <file path=\"");
+        writer.write(filePath(file));
+        writer.write("\">\n");
+        for (int line = 1; line <= linesPerFile; line++) {
+          writer.write("    <lineToCover lineNumber=\"");
+          writer.write(Integer.toString(line));
+          writer.write("\" covered=\"");
+          writer.write(line % 3 == 0 ? "false" : "true");
+          if (line % 4 == 0) {
+            writer.write("\" branchesToCover=\"4\" coveredBranches=\"");
+            writer.write(Integer.toString(line % 5 == 0 ? 4 : 2));
+          }
+          writer.write("\"/>\n");
+        }
+        writer.write("  </file>\n");
+      }
+      writer.write("</coverage>\n");
+    }
+  }
+
+  /**
+   * Every tenth test fails with a stack trace of {@code stackTraceDepth} frames, every fiftieth is skipped.
+   */
+  public static void writeUnitTestReport(File output, int files, int testsPerFile, int stackTraceDepth) throws IOException {
+    try (Writer writer = newWriter(output)) {
+      writer.write("<unitTest version=\"1\">\n");
+      for (int file = 0; file < files; file++) {
+        writer.write("  <file path=\"");
+        writer.write(filePath(file));
+        writer.write("\">\n");
+        for (int test = 0; test < testsPerFile; test++) {
+          writer.write("    <testCase name=\"com.example.module");
+          writer.write(Integer.toString(file % 100));
+          writer.write(".GeneratedClass");
+          writer.write(Integer.toString(file));
+          writer.write("Test.test");
+          writer.write(Integer.toString(test));
+          writer.write("\" duration=\"");
+          writer.write(Integer.toString(test % 250));
+          if (test % 50 == 0) {
+            writer.write("\">\n      <skipped message=\"not run\"/>\n    </testCase>\n");
+          } else if (test % 10 == 0) {
+            writer.write("\">\n      <failure message=\"expected:&lt;1&gt; but was:&lt;2&gt;\">");
+            writeStackTrace(writer, file, test, stackTraceDepth);
+            writer.write("</failure>\n    </testCase>\n");
+          } else {
+            writer.write("\"/>\n");
+          }
+        }
+        writer.write("  </file>\n");
+      }
+      writer.write("</unitTest>\n");
+    }
+  }
+
+  private static void writeStackTrace(Writer writer, int file, int test, int depth) throws IOException {
+    writer.write("java.lang.AssertionError: expected:&lt;1&gt; but was:&lt;2&gt;\n");
+    for (int frame = 0; frame < depth; frame++) {
+      writer.write("\tat com.example.module");
+      writer.write(Integer.toString(file % 100));
+      writer.write(".GeneratedClass");
+      writer.write(Integer.toString(file));
+      writer.write("Test.frame");
+      writer.write(Integer.toString(frame));
+      writer.write("(GeneratedClass");
+      writer.write(Integer.toString(file));
+      writer.write("Test.java:");
+      writer.write(Integer.toString(test + frame));
+      writer.write(")\n");
+    }
+  }
+
+  private static Writer newWriter(File output) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8), BUFFER_SIZE);
+  }
+
+}
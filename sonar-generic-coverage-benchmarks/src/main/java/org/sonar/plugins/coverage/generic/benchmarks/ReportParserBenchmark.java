@@ -0,0 +1,157 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonar.plugins.coverage.generic.ReportParser;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ReportParser#parse(InputStream)} for each {@link ReportParser.Mode} over a generated report.
+ * <p>
+ * Primary score is reports per second; the {@code elements} secondary score gives parsed {@code lineToCover}
+ * (or {@code testCase}) elements per second. Bytes allocated per element are printed at the end of each trial.
+ * Report shape is controlled with {@code -p files=... -p linesPerFile=...}, e.g. {@code -p files=100000 -p linesPerFile=300}
+ * generates a report of thirty million lines.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ReportParserBenchmark {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  @State(Scope.Benchmark)
+  public static class Report {
+
+    @Param({"COVERAGE", "IT_COVERAGE", "OVERALL_COVERAGE", "UNITTEST"})
+    public ReportParser.Mode mode;
+
+    @Param({"10000"})
+    public int files;
+
+    @Param({"100"})
+    public int linesPerFile;
+
+    @Param({"20"})
+    public int testsPerFile;
+
+    @Param({"60"})
+    public int stackTraceDepth;
+
+    File baseDir;
+    File reportFile;
+    BenchmarkProject project;
+    long elementsPerReport;
+
+    private final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private long allocatedBytes;
+    private long parsedElements;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+      baseDir = File.createTempFile("generic-coverage-benchmark", "");
+      if (!baseDir.delete() || !baseDir.mkdir()) {
+        throw new IOException("Cannot create " + baseDir);
+      }
+      reportFile = new File(baseDir, "report.xml");
+      if (mode == ReportParser.Mode.UNITTEST) {
+        ReportGenerator.writeUnitTestReport(reportFile, files, testsPerFile, stackTraceDepth);
+        elementsPerReport = (long) files * testsPerFile;
+      } else {
+        ReportGenerator.writeCoverageReport(reportFile, files, linesPerFile);
+        elementsPerReport = (long) files * linesPerFile;
+      }
+      project = new BenchmarkProject(baseDir, files);
+    }
+
+    void recordAllocation(long bytes) {
+      allocatedBytes += bytes;
+      parsedElements += elementsPerReport;
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() {
+      if (parsedElements > 0) {
+        System.out.printf("%n%s: %d bytes in report, %.1f bytes allocated per element%n",
+          mode, reportFile.length(), (double) allocatedBytes / parsedElements);
+      }
+      if (!reportFile.delete() || !baseDir.delete()) {
+        System.out.println("Cannot delete " + baseDir);
+      }
+    }
+
+    long currentThreadAllocatedBytes() {
+      if (threads instanceof com.sun.management.ThreadMXBean) {
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+      return 0L;
+    }
+  }
+
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Counters {
+    public long elements;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      elements = 0;
+    }
+  }
+
+  @Benchmark
+  public ReportParser parse(Report report, Counters counters) throws IOException, XMLStreamException {
+    BenchmarkProject project = report.project;
+    ReportParser parser = new ReportParser(project.fileSystem(), project.context(), project.perspectives(), report.mode);
+    long allocatedBefore = report.currentThreadAllocatedBytes();
+    try (InputStream inputStream = new BufferedInputStream(new FileInputStream(report.reportFile), BUFFER_SIZE)) {
+      parser.parse(inputStream);
+    }
+    report.recordAllocation(report.currentThreadAllocatedBytes() - allocatedBefore);
+    counters.elements += report.elementsPerReport;
+    return parser;
+  }
+
+}
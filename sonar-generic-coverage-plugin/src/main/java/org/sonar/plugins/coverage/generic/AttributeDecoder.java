@@ -0,0 +1,159 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import org.codehaus.stax2.typed.TypedValueDecoder;
+import org.codehaus.staxmate.in.SMInputCursor;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Decodes integer and boolean attribute values straight from the character buffer of the StAX parser, without creating
+ * a String nor a boxed value for each of them.
+ * <p>
+ * The parser trims values before handing them to a {@link TypedValueDecoder}, while {@link Integer#valueOf(String)}
+ * rejects surrounding whitespace. A value is therefore only decoded here when no whitespace surrounds it and when it is
+ * plain ASCII: everything else is reported as not decoded, and the caller reads the value as a String to apply the
+ * usual validation and error messages.
+ */
+final class AttributeDecoder {
+
+  private final IntDecoder intDecoder = new IntDecoder();
+  private final BooleanDecoder booleanDecoder = new BooleanDecoder();
+
+  /**
+   * @return true if the value of the attribute at {@code index} was decoded, it is then returned by {@link #intValue()}
+   */
+  boolean decodeInt(SMInputCursor cursor, int index) throws XMLStreamException {
+    intDecoder.decoded = false;
+    cursor.getStreamReader().getAttributeAs(index, intDecoder);
+    return intDecoder.decoded;
+  }
+
+  int intValue() {
+    return intDecoder.value;
+  }
+
+  /**
+   * @return true if the value of the attribute at {@code index} was decoded, it is then returned by {@link #booleanValue()}
+   */
+  boolean decodeBoolean(SMInputCursor cursor, int index) throws XMLStreamException {
+    booleanDecoder.decoded = false;
+    cursor.getStreamReader().getAttributeAs(index, booleanDecoder);
+    return booleanDecoder.decoded;
+  }
+
+  boolean booleanValue() {
+    return booleanDecoder.value;
+  }
+
+  private static boolean isTrimmed(char[] buffer, int start, int end) {
+    return (start == 0 || buffer[start - 1] > ' ') && (end == buffer.length || buffer[end] > ' ');
+  }
+
+  private static boolean equalsIgnoreAsciiCase(char[] buffer, int start, int end, String lowerCaseValue) {
+    if (end - start != lowerCaseValue.length()) {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      char c = buffer[i];
+      if (c >= 'A' && c <= 'Z') {
+        c = (char) (c + ('a' - 'A'));
+      }
+      if (c != lowerCaseValue.charAt(i - start)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static class IntDecoder extends TypedValueDecoder {
+
+    // at most 9 digits, so that no overflow can happen
+    private static final int MAX_DIGITS = 9;
+
+    private boolean decoded;
+    private int value;
+
+    @Override
+    public void decode(String input) {
+      // the parser did not expose its buffer: let the caller read the value
+      decoded = false;
+    }
+
+    @Override
+    public void decode(char[] buffer, int start, int end) {
+      if (!isTrimmed(buffer, start, end)) {
+        return;
+      }
+      boolean negative = buffer[start] == '-';
+      int firstDigit = negative ? (start + 1) : start;
+      if (firstDigit == end || end - firstDigit > MAX_DIGITS) {
+        return;
+      }
+      int result = 0;
+      for (int i = firstDigit; i < end; i++) {
+        char c = buffer[i];
+        if (c < '0' || c > '9') {
+          return;
+        }
+        result = result * 10 + (c - '0');
+      }
+      value = negative ? -result : result;
+      decoded = true;
+    }
+
+    @Override
+    public void handleEmptyValue() {
+      decoded = false;
+    }
+  }
+
+  private static class BooleanDecoder extends TypedValueDecoder {
+
+    private boolean decoded;
+    private boolean value;
+
+    @Override
+    public void decode(String input) {
+      decoded = false;
+    }
+
+    @Override
+    public void decode(char[] buffer, int start, int end) {
+      if (!isTrimmed(buffer, start, end)) {
+        return;
+      }
+      if (equalsIgnoreAsciiCase(buffer, start, end, "true")) {
+        value = true;
+        decoded = true;
+      } else if (equalsIgnoreAsciiCase(buffer, start, end, "false")) {
+        value = false;
+        decoded = true;
+      }
+    }
+
+    @Override
+    public void handleEmptyValue() {
+      decoded = false;
+    }
+  }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Converts XML coverage reports to binary coverage reports, see {@link BinaryReportFormat}. The XML report is validated
+ * as when it is imported, and all its files are kept. From the command line, with the plugin and the SonarQube plugin
+ * API in the classpath:
+ * <pre>
+ * java org.sonar.plugins.coverage.generic.BinaryReportConverter report.xml report.bin
+ * </pre>
+ */
+public final class BinaryReportConverter {
+
+  private BinaryReportConverter() {
+    // only static methods
+  }
+
+  public static void main(String[] args) throws IOException, XMLStreamException {
+    if (args.length != 2) {
+      System.err.println("Usage: BinaryReportConverter <XML coverage report> <binary coverage report>");
+      System.exit(1);
+    }
+    convert(new File(args[0]), new File(args[1]));
+  }
+
+  public static void convert(File xmlReport, File binaryReport) throws IOException, XMLStreamException {
+    try (BinaryReportWriter writer = new BinaryReportWriter(new FileOutputStream(binaryReport))) {
+      new ReportParser(ReportParser.Mode.COVERAGE, new BinaryReportSink(writer)).parse(xmlReport, xmlReport.getPath());
+    }
+  }
+
+}
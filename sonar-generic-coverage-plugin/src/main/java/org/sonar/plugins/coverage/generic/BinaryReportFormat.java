@@ -0,0 +1,76 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Binary coverage reports, an order of magnitude smaller than XML reports for the same data:
+ * <pre>
+ * report := magic version file* 0
+ * magic := 0x89 'G' 'C' 'B'
+ * version := varint (1)
+ * file := path lineCount line{lineCount}
+ * path := varint k, k &gt; 0, referring to the k-th distinct path of the report; when k is the number of paths seen so
+ *         far plus one, it is followed by the new path: varint length + UTF-8 bytes
+ * line := varint (zigzag(lineNumber - previous lineNumber of the file, or 0) &lt;&lt; 2 | hasBranches &lt;&lt; 1 | covered)
+ *         [varint branchesToCover varint coveredBranches], if hasBranches
+ * </pre>
+ * Varints are unsigned LEB128 values. Binary reports only hold coverage data, not unit test results.
+ */
+final class BinaryReportFormat {
+
+  static final byte[] MAGIC = {(byte) 0x89, 'G', 'C', 'B'};
+  static final int VERSION = 1;
+  static final int COVERED_FLAG = 1;
+  static final int BRANCHES_FLAG = 2;
+  static final int FLAGS_BITS = 2;
+
+  private BinaryReportFormat() {
+    // only static methods
+  }
+
+  /**
+   * Checks the first bytes of a stream which supports {@link InputStream#mark}, without consuming them.
+   */
+  static boolean isBinary(InputStream inputStream) throws IOException {
+    inputStream.mark(MAGIC.length);
+    try {
+      for (byte b : MAGIC) {
+        if (inputStream.read() != (b & 0xFF)) {
+          return false;
+        }
+      }
+      return true;
+    } finally {
+      inputStream.reset();
+    }
+  }
+
+  static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+}
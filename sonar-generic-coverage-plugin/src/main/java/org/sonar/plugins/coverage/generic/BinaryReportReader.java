@@ -0,0 +1,163 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads binary coverage reports, see {@link BinaryReportFormat}, into a {@link ReportSink}. As there are no lines in
+ * binary reports, errors refer to the number of the record (file or line) in the report instead.
+ */
+final class BinaryReportReader {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final ReportSink sink;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private final List<String> paths = new ArrayList<>();
+  private InputStream inputStream;
+  private int position;
+  private int limit;
+  private int record;
+
+  BinaryReportReader(ReportSink sink) {
+    this.sink = sink;
+  }
+
+  void read(InputStream inputStream) throws IOException {
+    this.inputStream = inputStream;
+    for (int i = 0; i < BinaryReportFormat.MAGIC.length; i++) {
+      readByte();
+    }
+    long version = readVarint();
+    if (version != BinaryReportFormat.VERSION) {
+      throw new ReportParsingException("Unknown binary coverage version: " + version + ". This parser only handles version 1.", record);
+    }
+    long pathReference = readVarint();
+    while (pathReference != 0) {
+      record++;
+      String path = readPath(pathReference);
+      boolean wanted = sink.startFile(path, record);
+      long lineCount = readVarint();
+      long lineNumber = 0;
+      for (long i = 0; i < lineCount; i++) {
+        record++;
+        long header = readVarint();
+        lineNumber += BinaryReportFormat.unzigzag(header >>> BinaryReportFormat.FLAGS_BITS);
+        readLineToCover(wanted, lineNumber, header);
+      }
+      if (wanted) {
+        sink.endFile();
+      }
+      pathReference = readVarint();
+    }
+    if (position < limit || fill()) {
+      throw corrupted("Unexpected data after the end of the report");
+    }
+  }
+
+  private void readLineToCover(boolean wanted, long lineNumber, long header) throws IOException {
+    if (lineNumber < 1) {
+      String message = "Value of attribute \"lineNumber\" is \"" + lineNumber + "\" but it should be greater than or equal to 1";
+      throw new ReportParsingException(message, record);
+    }
+    if (lineNumber > Integer.MAX_VALUE) {
+      throw corrupted("Line number out of range");
+    }
+    int branchesToCover = -1;
+    int coveredBranches = 0;
+    if ((header & BinaryReportFormat.BRANCHES_FLAG) != 0) {
+      branchesToCover = readInt();
+      coveredBranches = readInt();
+      if (coveredBranches > branchesToCover) {
+        throw new ReportParsingException("\"coveredBranches\" should not be greater than \"branchesToCover\"", record);
+      }
+    }
+    if (wanted) {
+      boolean covered = (header & BinaryReportFormat.COVERED_FLAG) != 0;
+      sink.lineToCover((int) lineNumber, covered, branchesToCover, coveredBranches, record);
+    }
+  }
+
+  private String readPath(long reference) throws IOException {
+    if (reference <= paths.size()) {
+      return paths.get((int) reference - 1);
+    }
+    if (reference != paths.size() + 1) {
+      throw corrupted("Unknown path reference " + reference);
+    }
+    byte[] bytes = new byte[readInt()];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) readByte();
+    }
+    String path = new String(bytes, Charsets.UTF_8);
+    paths.add(path);
+    return path;
+  }
+
+  private int readInt() throws IOException {
+    long value = readVarint();
+    if (value > Integer.MAX_VALUE) {
+      throw corrupted("Value out of range");
+    }
+    return (int) value;
+  }
+
+  private long readVarint() throws IOException {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = readByte();
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw corrupted("Malformed varint");
+  }
+
+  private int readByte() throws IOException {
+    if (position == limit && !fill()) {
+      throw corrupted("Unexpected end of the report");
+    }
+    int b = buffer[position] & 0xFF;
+    position++;
+    return b;
+  }
+
+  private boolean fill() throws IOException {
+    int read = inputStream.read(buffer, 0, buffer.length);
+    if (read <= 0) {
+      return false;
+    }
+    position = 0;
+    limit = read;
+    return true;
+  }
+
+  private ReportParsingException corrupted(String message) {
+    return new ReportParsingException("Corrupted binary report: " + message, record);
+  }
+
+}
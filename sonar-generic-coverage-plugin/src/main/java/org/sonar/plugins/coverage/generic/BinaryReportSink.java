@@ -0,0 +1,71 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * Writes all the files of the reports it is given to a binary coverage report, see {@link BinaryReportWriter}.
+ */
+final class BinaryReportSink implements ReportSink {
+
+  private final BinaryReportWriter writer;
+
+  BinaryReportSink(BinaryReportWriter writer) {
+    this.writer = writer;
+  }
+
+  @Override
+  public boolean isUnknownFile(String path) {
+    return false;
+  }
+
+  @Override
+  public boolean startFile(String path, int lineNumber) {
+    try {
+      writer.startFile(path);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return true;
+  }
+
+  @Override
+  public void lineToCover(int lineNumber, boolean covered, int branchesToCover, int coveredBranches, int elementLineNumber) {
+    if (branchesToCover < 0) {
+      writer.addLineToCover(lineNumber, covered);
+    } else {
+      writer.addLineToCover(lineNumber, covered, branchesToCover, coveredBranches);
+    }
+  }
+
+  @Override
+  public void testCase(String name, TestCase.Status status, long duration, @Nullable TestCaseText message, @Nullable TestCaseText stackTrace,
+    int elementLineNumber) {
+    throw new UnsupportedOperationException("Binary reports only hold coverage");
+  }
+
+  @Override
+  public void endFile() {
+    // lines are written when the next file is started
+  }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes binary coverage reports, see {@link BinaryReportFormat}. Lines of a file are written when the next file is
+ * started, or when the writer is closed.
+ */
+public class BinaryReportWriter implements Closeable {
+
+  private final OutputStream outputStream;
+  private final Map<String, Integer> pathIndexes = new HashMap<>();
+  private byte[] lines = new byte[4096];
+  private int linesLength;
+  private int lineCount;
+  private int previousLineNumber;
+  private boolean inFile;
+
+  public BinaryReportWriter(OutputStream outputStream) throws IOException {
+    this.outputStream = new BufferedOutputStream(outputStream, 64 * 1024);
+    this.outputStream.write(BinaryReportFormat.MAGIC);
+    writeVarint(this.outputStream, BinaryReportFormat.VERSION);
+  }
+
+  public BinaryReportWriter startFile(String path) throws IOException {
+    endFile();
+    Integer index = pathIndexes.get(path);
+    if (index == null) {
+      index = pathIndexes.size() + 1;
+      pathIndexes.put(path, index);
+      writeVarint(outputStream, index);
+      byte[] bytes = path.getBytes(Charsets.UTF_8);
+      writeVarint(outputStream, bytes.length);
+      outputStream.write(bytes);
+    } else {
+      writeVarint(outputStream, index);
+    }
+    inFile = true;
+    return this;
+  }
+
+  public BinaryReportWriter addLineToCover(int lineNumber, boolean covered) {
+    return addLine(lineNumber, covered ? BinaryReportFormat.COVERED_FLAG : 0);
+  }
+
+  public BinaryReportWriter addLineToCover(int lineNumber, boolean covered, int branchesToCover, int coveredBranches) {
+    Preconditions.checkArgument(branchesToCover >= 0 && coveredBranches >= 0, "Numbers of branches should not be negative");
+    addLine(lineNumber, (covered ? BinaryReportFormat.COVERED_FLAG : 0) | BinaryReportFormat.BRANCHES_FLAG);
+    addLineVarint(branchesToCover);
+    addLineVarint(coveredBranches);
+    return this;
+  }
+
+  private BinaryReportWriter addLine(int lineNumber, int flags) {
+    Preconditions.checkState(inFile, "A file should be started before adding lines");
+    long delta = BinaryReportFormat.zigzag((long) lineNumber - previousLineNumber);
+    addLineVarint((delta << BinaryReportFormat.FLAGS_BITS) | flags);
+    previousLineNumber = lineNumber;
+    lineCount++;
+    return this;
+  }
+
+  private void addLineVarint(long value) {
+    if (linesLength + 10 > lines.length) {
+      lines = Arrays.copyOf(lines, lines.length * 2);
+    }
+    long remaining = value;
+    while ((remaining & ~0x7FL) != 0) {
+      lines[linesLength] = (byte) ((remaining & 0x7F) | 0x80);
+      linesLength++;
+      remaining >>>= 7;
+    }
+    lines[linesLength] = (byte) remaining;
+    linesLength++;
+  }
+
+  private void endFile() throws IOException {
+    if (inFile) {
+      writeVarint(outputStream, lineCount);
+      outputStream.write(lines, 0, linesLength);
+      linesLength = 0;
+      lineCount = 0;
+      previousLineNumber = 0;
+      inFile = false;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    endFile();
+    writeVarint(outputStream, 0);
+    outputStream.close();
+  }
+
+  private static void writeVarint(OutputStream outputStream, long value) throws IOException {
+    long remaining = value;
+    while ((remaining & ~0x7FL) != 0) {
+      outputStream.write((int) ((remaining & 0x7F) | 0x80));
+      remaining >>>= 7;
+    }
+    outputStream.write((int) remaining);
+  }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Adds the bytes read from a report file to the {@link ImportMetrics} of the parser reading it, so that the metrics
+ * show what was actually read rather than the size of the report.
+ */
+final class CountingInputStream extends FilterInputStream {
+
+  private final ImportMetrics metrics;
+  private long bytesRead;
+  private long markedBytes;
+
+  /**
+   * @param metrics counters of the parser reading the stream, which are only written from the parsing thread
+   */
+  CountingInputStream(InputStream in, ImportMetrics metrics) {
+    super(in);
+    this.metrics = metrics;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = in.read();
+    if (b >= 0) {
+      consumed(1);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int read = in.read(b, off, len);
+    if (read > 0) {
+      consumed(read);
+    }
+    return read;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = in.skip(n);
+    if (skipped > 0) {
+      consumed(skipped);
+    }
+    return skipped;
+  }
+
+  @Override
+  public synchronized void mark(int readlimit) {
+    in.mark(readlimit);
+    markedBytes = bytesRead;
+  }
+
+  /**
+   * Bytes read again after a reset were already counted.
+   */
+  @Override
+  public synchronized void reset() throws IOException {
+    in.reset();
+    consumed(markedBytes - bytesRead);
+  }
+
+  private void consumed(long bytes) {
+    bytesRead += bytes;
+    metrics.bytesRead(bytes);
+  }
+
+}
@@ -0,0 +1,620 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Reads coverage reports by scanning their UTF-8 bytes, for the canonical subset of the format only: an optional XML
+ * declaration, then "coverage", "file" and "lineToCover" elements with their known attributes, separated by whitespace.
+ * <p>
+ * As soon as a report goes beyond that subset (comments, entities, CDATA, namespaces, other encodings, unknown
+ * attributes...) or holds an invalid value, {@link #scan} stops and returns false. The report must then be parsed again
+ * with StaxMate, which handles the whole XML syntax and reports errors, skipping the {@link #committedFiles()} first
+ * "file" elements: the data of a "file" element is only given to the {@link ReportSink} once its end tag is read.
+ */
+final class CoverageReportScanner {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_DIGITS = 9;
+  private static final int INVALID_VALUE = Integer.MIN_VALUE;
+
+  // lineNumber, covered, branchesToCover (-1 when missing), coveredBranches, line of the element in the report
+  private static final int RECORD_SIZE = 5;
+
+  private static final byte[] XML = ascii("xml");
+  private static final byte[] COVERAGE = ascii("coverage");
+  private static final byte[] FILE = ascii("file");
+  private static final byte[] LINE_TO_COVER = ascii("lineToCover");
+
+  private static final byte[] VERSION = ascii("version");
+  private static final byte[] ENCODING = ascii("encoding");
+  private static final byte[] STANDALONE = ascii("standalone");
+  private static final byte[] PATH = ascii("path");
+  private static final byte[] TRUE = ascii("true");
+  private static final byte[] FALSE = ascii("false");
+  private static final byte[][] LINE_TO_COVER_ATTRIBUTES = {
+    ascii("lineNumber"), ascii("covered"), ascii("branchesToCover"), ascii("coveredBranches")
+  };
+
+  private static final UnsupportedSyntaxException UNSUPPORTED = new UnsupportedSyntaxException();
+
+  private final ReportSink sink;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private InputStream inputStream;
+  private int position;
+  private int limit;
+  // bytes of the stream before the buffer
+  private long bufferOffset;
+  private int line = 1;
+  private long fileStart;
+  private String expectedPath;
+
+  private byte[] value = new byte[256];
+  private int valueLength;
+  private final int[] attributeValues = new int[LINE_TO_COVER_ATTRIBUTES.length];
+  private int[] records = new int[RECORD_SIZE * 1024];
+  private int recordsLength;
+  private int committedFiles;
+
+  CoverageReportScanner(ReportSink sink) {
+    this.sink = sink;
+  }
+
+  /**
+   * @return false if the report is not in the canonical subset of the format
+   */
+  boolean scan(InputStream inputStream) throws IOException {
+    this.inputStream = inputStream;
+    try {
+      scanDocument();
+      return true;
+    } catch (UnsupportedSyntaxException e) {
+      return false;
+    }
+  }
+
+  int committedFiles() {
+    return committedFiles;
+  }
+
+  /**
+   * Scans a single "file" element, the stream being positioned at its start tag.
+   *
+   * @param line of the start tag in the report
+   * @param path expected path of the element
+   * @return false if the element is not in the canonical subset of the format or has another path, in which case no
+   * data was given to the sink
+   */
+  boolean scanFileElement(InputStream inputStream, int line, String path) throws IOException {
+    this.inputStream = inputStream;
+    this.expectedPath = path;
+    this.position = 0;
+    this.limit = 0;
+    this.bufferOffset = 0;
+    this.line = line;
+    try {
+      expect('<');
+      scanFile();
+      return true;
+    } catch (UnsupportedSyntaxException e) {
+      return false;
+    } finally {
+      expectedPath = null;
+    }
+  }
+
+  /**
+   * Offset in the stream of the start tag of the last "file" element, valid while its data is given to the sink.
+   */
+  long fileStart() {
+    return fileStart;
+  }
+
+  /**
+   * Offset in the stream of the next byte to scan: the byte after the end of a "file" element while its data is given
+   * to the sink.
+   */
+  long offset() {
+    return bufferOffset + position;
+  }
+
+  private void scanDocument() throws IOException, UnsupportedSyntaxException {
+    if (peek() == 0xEF) {
+      expect(0xEF);
+      expect(0xBB);
+      expect(0xBF);
+    }
+    expect('<');
+    if (peek() == '?') {
+      scanDeclaration();
+      skipWhitespace();
+      expect('<');
+    }
+    expectName(COVERAGE);
+    boolean empty = scanRootAttributes();
+    if (!empty) {
+      skipWhitespace();
+      expect('<');
+      while (peek() != '/') {
+        scanFile();
+        skipWhitespace();
+        expect('<');
+      }
+      scanEndTag(COVERAGE);
+    }
+    skipWhitespace();
+    if (read() != -1) {
+      throw UNSUPPORTED;
+    }
+  }
+
+  private void scanDeclaration() throws IOException, UnsupportedSyntaxException {
+    expect('?');
+    expectName(XML);
+    requireWhitespace();
+    expectName(VERSION);
+    if (!"1.0".equals(attributeValueAsString())) {
+      throw UNSUPPORTED;
+    }
+    boolean whitespace = skipWhitespace();
+    if (whitespace && peek() == 'e') {
+      expectName(ENCODING);
+      if (!"UTF-8".equalsIgnoreCase(attributeValueAsString())) {
+        throw UNSUPPORTED;
+      }
+      whitespace = skipWhitespace();
+    }
+    if (whitespace && peek() == 's') {
+      expectName(STANDALONE);
+      String standalone = attributeValueAsString();
+      if (!"yes".equals(standalone) && !"no".equals(standalone)) {
+        throw UNSUPPORTED;
+      }
+      skipWhitespace();
+    }
+    expect('?');
+    expect('>');
+  }
+
+  /**
+   * @return true for an empty element
+   */
+  private boolean scanRootAttributes() throws IOException, UnsupportedSyntaxException {
+    requireWhitespace();
+    expectName(VERSION);
+    if (!"1".equals(attributeValueAsString())) {
+      throw UNSUPPORTED;
+    }
+    return endOfStartTag();
+  }
+
+  private void scanFile() throws IOException, UnsupportedSyntaxException {
+    long start = offset() - 1;
+    int fileLine = line;
+    expectName(FILE);
+    requireWhitespace();
+    expectName(PATH);
+    String path = attributeValueAsString();
+    if (expectedPath != null && !expectedPath.equals(path)) {
+      throw UNSUPPORTED;
+    }
+    recordsLength = 0;
+    if (sink.isUnknownFile(path)) {
+      if (!endOfStartTag()) {
+        skipFileContent();
+      }
+    } else if (!endOfStartTag()) {
+      skipWhitespace();
+      expect('<');
+      while (peek() != '/') {
+        scanLineToCover();
+        skipWhitespace();
+        expect('<');
+      }
+      scanEndTag(FILE);
+    }
+    fileStart = start;
+    commitFile(path, fileLine);
+  }
+
+  /**
+   * Skips the "lineToCover" elements of an unknown file up to the end tag of the file, without reading the values of
+   * their attributes, which StaxMate would not read either.
+   */
+  private void skipFileContent() throws IOException, UnsupportedSyntaxException {
+    skipWhitespace();
+    expect('<');
+    while (peek() != '/') {
+      expectName(LINE_TO_COVER);
+      if (!skipAttributes()) {
+        skipWhitespace();
+        expect('<');
+        scanEndTag(LINE_TO_COVER);
+      }
+      skipWhitespace();
+      expect('<');
+    }
+    scanEndTag(FILE);
+  }
+
+  /**
+   * @return true for an empty element
+   */
+  private boolean skipAttributes() throws IOException, UnsupportedSyntaxException {
+    while (true) {
+      boolean whitespace = skipWhitespace();
+      int c = peek();
+      if (c == '/' || c == '>') {
+        return endOfStartTag();
+      }
+      if (!whitespace || !isNameCharacter(c)) {
+        throw UNSUPPORTED;
+      }
+      while (isNameCharacter(c)) {
+        read();
+        c = peek();
+      }
+      int quote = startOfValue();
+      c = read();
+      while (c != quote) {
+        if (c < ' ' || c == '&' || c == '<') {
+          throw UNSUPPORTED;
+        }
+        c = read();
+      }
+    }
+  }
+
+  private static boolean isNameCharacter(int c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private void scanLineToCover() throws IOException, UnsupportedSyntaxException {
+    int elementLine = line;
+    expectName(LINE_TO_COVER);
+    int[] values = attributeValues;
+    values[0] = INVALID_VALUE;
+    values[1] = INVALID_VALUE;
+    values[2] = 0;
+    values[3] = 0;
+    int seen = 0;
+    while (true) {
+      boolean whitespace = skipWhitespace();
+      int c = peek();
+      if (c == '/' || c == '>') {
+        break;
+      }
+      if (!whitespace) {
+        throw UNSUPPORTED;
+      }
+      int attribute = attributeName(LINE_TO_COVER_ATTRIBUTES);
+      if ((seen & (1 << attribute)) != 0) {
+        throw UNSUPPORTED;
+      }
+      seen |= 1 << attribute;
+      values[attribute] = attribute == 1 ? booleanValue() : intValue();
+    }
+    int lineNumber = values[0];
+    int covered = values[1];
+    int branchesToCover = values[2];
+    int coveredBranches = values[3];
+    if (lineNumber < 1 || covered == INVALID_VALUE) {
+      throw UNSUPPORTED;
+    }
+    if ((seen & (1 << 2)) == 0) {
+      // like ReportParser, ignore "coveredBranches" without "branchesToCover"
+      branchesToCover = -1;
+    } else if (branchesToCover < 0 || coveredBranches < 0 || coveredBranches > branchesToCover) {
+      throw UNSUPPORTED;
+    }
+    if (!endOfStartTag()) {
+      skipWhitespace();
+      expect('<');
+      scanEndTag(LINE_TO_COVER);
+    }
+    addRecord(lineNumber, covered, branchesToCover, coveredBranches, elementLine);
+  }
+
+  private void addRecord(int lineNumber, int covered, int branchesToCover, int coveredBranches, int elementLine) {
+    if (recordsLength + RECORD_SIZE > records.length) {
+      records = Arrays.copyOf(records, records.length * 2);
+    }
+    records[recordsLength] = lineNumber;
+    records[recordsLength + 1] = covered;
+    records[recordsLength + 2] = branchesToCover;
+    records[recordsLength + 3] = coveredBranches;
+    records[recordsLength + 4] = elementLine;
+    recordsLength += RECORD_SIZE;
+  }
+
+  private void commitFile(String path, int fileLine) {
+    committedFiles++;
+    if (!sink.startFile(path, fileLine)) {
+      return;
+    }
+    for (int i = 0; i < recordsLength; i += RECORD_SIZE) {
+      sink.lineToCover(records[i], records[i + 1] == 1, records[i + 2], records[i + 3], records[i + 4]);
+    }
+    sink.endFile();
+  }
+
+  private void scanEndTag(byte[] name) throws IOException, UnsupportedSyntaxException {
+    expect('/');
+    expectName(name);
+    skipWhitespace();
+    expect('>');
+  }
+
+  /**
+   * @return true for an empty element
+   */
+  private boolean endOfStartTag() throws IOException, UnsupportedSyntaxException {
+    skipWhitespace();
+    if (peek() == '/') {
+      read();
+      expect('>');
+      return true;
+    }
+    expect('>');
+    return false;
+  }
+
+  private void expectName(byte[] name) throws IOException, UnsupportedSyntaxException {
+    for (byte b : name) {
+      expect(b);
+    }
+    int c = peek();
+    if (!isWhitespace(c) && c != '/' && c != '>' && c != '=' && c != '?') {
+      throw UNSUPPORTED;
+    }
+  }
+
+  private int attributeName(byte[][] names) throws IOException, UnsupportedSyntaxException {
+    valueLength = 0;
+    int c = peek();
+    while (isNameCharacter(c)) {
+      if (valueLength == value.length) {
+        throw UNSUPPORTED;
+      }
+      value[valueLength] = (byte) read();
+      valueLength++;
+      c = peek();
+    }
+    for (int i = 0; i < names.length; i++) {
+      if (valueEquals(names[i])) {
+        return i;
+      }
+    }
+    throw UNSUPPORTED;
+  }
+
+  private boolean valueEquals(byte[] bytes) {
+    if (bytes.length != valueLength) {
+      return false;
+    }
+    for (int i = 0; i < valueLength; i++) {
+      if (bytes[i] != value[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int intValue() throws IOException, UnsupportedSyntaxException {
+    int quote = startOfValue();
+    boolean negative = peek() == '-';
+    if (negative) {
+      read();
+    }
+    int result = 0;
+    int digits = 0;
+    int c = read();
+    while (c >= '0' && c <= '9') {
+      digits++;
+      result = result * 10 + (c - '0');
+      c = read();
+    }
+    if (c != quote || digits == 0 || digits > MAX_DIGITS) {
+      throw UNSUPPORTED;
+    }
+    return negative ? -result : result;
+  }
+
+  private int booleanValue() throws IOException, UnsupportedSyntaxException {
+    int quote = startOfValue();
+    readValue(quote);
+    if (valueEqualsIgnoreCase(TRUE)) {
+      return 1;
+    } else if (valueEqualsIgnoreCase(FALSE)) {
+      return 0;
+    }
+    throw UNSUPPORTED;
+  }
+
+  /**
+   * Compares in place, without creating a String: setting the 0x20 bit only turns upper case ASCII letters into the
+   * lower case letter, so bytes match letters whatever their case, and nothing else.
+   *
+   * @param lowerCaseLetters lower case ASCII letters
+   */
+  private boolean valueEqualsIgnoreCase(byte[] lowerCaseLetters) {
+    if (valueLength != lowerCaseLetters.length) {
+      return false;
+    }
+    for (int i = 0; i < valueLength; i++) {
+      if ((value[i] | 0x20) != lowerCaseLetters[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String attributeValueAsString() throws IOException, UnsupportedSyntaxException {
+    int quote = startOfValue();
+    boolean ascii = readValue(quote);
+    if (ascii) {
+      return new String(value, 0, valueLength, Charsets.US_ASCII);
+    }
+    String string;
+    try {
+      string = Charsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT)
+        .decode(ByteBuffer.wrap(value, 0, valueLength))
+        .toString();
+    } catch (CharacterCodingException e) {
+      throw UNSUPPORTED;
+    }
+    if (string.indexOf('\uFFFE') >= 0 || string.indexOf('\uFFFF') >= 0) {
+      throw UNSUPPORTED;
+    }
+    return string;
+  }
+
+  /**
+   * Reads the bytes of an attribute value up to the closing quote. Values with characters that XML transforms
+   * (references, tabulations, line breaks) are not supported.
+   *
+   * @return true if all bytes are ASCII
+   */
+  private boolean readValue(int quote) throws IOException, UnsupportedSyntaxException {
+    boolean ascii = true;
+    valueLength = 0;
+    int c = read();
+    while (c != quote) {
+      if (c < ' ' || c == '&' || c == '<') {
+        throw UNSUPPORTED;
+      }
+      if (c >= 0x80) {
+        ascii = false;
+      }
+      if (valueLength == value.length) {
+        value = Arrays.copyOf(value, value.length * 2);
+      }
+      value[valueLength] = (byte) c;
+      valueLength++;
+      c = read();
+    }
+    return ascii;
+  }
+
+  /**
+   * Reads the equal sign and the opening quote of an attribute value.
+   *
+   * @return the quote
+   */
+  private int startOfValue() throws IOException, UnsupportedSyntaxException {
+    skipWhitespace();
+    expect('=');
+    skipWhitespace();
+    int quote = read();
+    if (quote != '"' && quote != '\'') {
+      throw UNSUPPORTED;
+    }
+    return quote;
+  }
+
+  private void requireWhitespace() throws IOException, UnsupportedSyntaxException {
+    if (!skipWhitespace()) {
+      throw UNSUPPORTED;
+    }
+  }
+
+  /**
+   * @return true if at least one whitespace character was skipped
+   */
+  private boolean skipWhitespace() throws IOException {
+    boolean skipped = false;
+    int c = peek();
+    while (isWhitespace(c)) {
+      read();
+      if (c == '\n') {
+        line++;
+      } else if (c == '\r') {
+        line++;
+        if (peek() == '\n') {
+          read();
+        }
+      }
+      skipped = true;
+      c = peek();
+    }
+    return skipped;
+  }
+
+  private static boolean isWhitespace(int c) {
+    return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+  }
+
+  private void expect(int expected) throws IOException, UnsupportedSyntaxException {
+    if (read() != expected) {
+      throw UNSUPPORTED;
+    }
+  }
+
+  private int peek() throws IOException {
+    if (position == limit && !fill()) {
+      return -1;
+    }
+    return buffer[position] & 0xFF;
+  }
+
+  private int read() throws IOException {
+    if (position == limit && !fill()) {
+      return -1;
+    }
+    int c = buffer[position] & 0xFF;
+    position++;
+    return c;
+  }
+
+  private boolean fill() throws IOException {
+    int read = inputStream.read(buffer, 0, buffer.length);
+    if (read <= 0) {
+      return false;
+    }
+    bufferOffset += limit;
+    position = 0;
+    limit = read;
+    return true;
+  }
+
+  private static byte[] ascii(String string) {
+    return string.getBytes(Charsets.US_ASCII);
+  }
+
+  private static class UnsupportedSyntaxException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    UnsupportedSyntaxException() {
+      super(null, null, false, false);
+    }
+  }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import org.sonar.api.batch.fs.InputFile;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Append-only log of the coverage builders evicted from memory, written to a temporary file through memory mapped
+ * windows. The data of a file can be spilled several times: all its records are merged back when it is taken. The file
+ * is deleted when the log is closed, which its {@link ReportParser} does whether its measures are saved or not.
+ */
+final class CoverageSpillLog implements Closeable {
+
+  static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+  private final File file;
+  private final RandomAccessFile randomAccessFile;
+  private final FileChannel channel;
+  private final int windowSize;
+  private final List<MappedByteBuffer> windows = new ArrayList<>();
+  private long mappedSize;
+  // a record is addressed by the index of its window in the high bits, and its position in the window in the low bits
+  private final Map<InputFile, List<Long>> records = new HashMap<>();
+
+  CoverageSpillLog(@Nullable File directory) {
+    this(directory, DEFAULT_WINDOW_SIZE);
+  }
+
+  CoverageSpillLog(@Nullable File directory, int windowSize) {
+    this.windowSize = windowSize;
+    try {
+      if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException("Cannot create directory " + directory);
+      }
+      file = File.createTempFile("coverage", ".spill", directory);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot create a coverage spill file", e);
+    }
+    try {
+      randomAccessFile = new RandomAccessFile(file, "rw");
+      channel = randomAccessFile.getChannel();
+    } catch (IOException e) {
+      file.delete();
+      throw new IllegalStateException("Cannot create a coverage spill file", e);
+    }
+  }
+
+  void spill(InputFile inputFile, CustomCoverageMeasuresBuilder measuresBuilder) {
+    measuresBuilder.writeTo(append(inputFile, measuresBuilder.serializedSize()));
+  }
+
+  /**
+   * Merges the records of the file into the builder, and forgets them.
+   *
+   * @return null if the records disagree with the builder on the number of conditions of a line
+   */
+  @CheckForNull
+  CustomCoverageMeasuresBuilder mergeInto(InputFile inputFile, CustomCoverageMeasuresBuilder measuresBuilder) {
+    List<Long> fileRecords = records.remove(inputFile);
+    if (fileRecords != null) {
+      for (long record : fileRecords) {
+        if (measuresBuilder.merge(record(record)) == null) {
+          return null;
+        }
+      }
+    }
+    return measuresBuilder;
+  }
+
+  /**
+   * Copies all the records of another log into this one.
+   */
+  void appendAll(CoverageSpillLog other) {
+    for (Map.Entry<InputFile, List<Long>> entry : other.records.entrySet()) {
+      for (long record : entry.getValue()) {
+        ByteBuffer source = other.record(record);
+        source.limit(source.position() + 4 + 16 * source.getInt(source.position()));
+        append(entry.getKey(), source.remaining()).put(source);
+      }
+    }
+  }
+
+  /**
+   * @return the files having records in this log
+   */
+  Set<InputFile> files() {
+    return new HashSet<>(records.keySet());
+  }
+
+  File file() {
+    return file;
+  }
+
+  private ByteBuffer record(long record) {
+    ByteBuffer buffer = windows.get((int) (record >>> 32)).duplicate();
+    buffer.position((int) record);
+    return buffer;
+  }
+
+  /**
+   * @return the window to write the record to, positioned at the start of the record
+   */
+  private ByteBuffer append(InputFile inputFile, int length) {
+    MappedByteBuffer window = windows.isEmpty() ? null : windows.get(windows.size() - 1);
+    if (window == null || window.remaining() < length) {
+      int size = Math.max(windowSize, length);
+      try {
+        window = channel.map(FileChannel.MapMode.READ_WRITE, mappedSize, size);
+      } catch (IOException e) {
+        throw new IllegalStateException("Cannot write to coverage spill file " + file, e);
+      }
+      windows.add(window);
+      mappedSize += size;
+    }
+    List<Long> fileRecords = records.get(inputFile);
+    if (fileRecords == null) {
+      fileRecords = new ArrayList<>();
+      records.put(inputFile, fileRecords);
+    }
+    fileRecords.add(((long) (windows.size() - 1) << 32) | window.position());
+    ByteBuffer recordBuffer = window.duplicate();
+    window.position(window.position() + length);
+    return recordBuffer;
+  }
+
+  @Override
+  public void close() {
+    for (MappedByteBuffer window : windows) {
+      MappedFileInputStream.unmap(window);
+    }
+    windows.clear();
+    records.clear();
+    try {
+      randomAccessFile.close();
+    } catch (IOException e) {
+      // nothing more can be done
+    } finally {
+      file.delete();
+    }
+  }
+
+}
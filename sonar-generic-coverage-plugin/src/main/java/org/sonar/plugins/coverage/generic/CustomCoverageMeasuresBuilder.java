@@ -24,9 +24,10 @@ import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.measures.Measure;
 import org.sonar.api.measures.Metric;
 import org.sonar.api.measures.PersistenceMode;
-import org.sonar.api.utils.KeyValueFormat;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
@@ -66,12 +67,22 @@ public final class CustomCoverageMeasuresBuilder {
     .put(METRIC.COVERED_CONDITIONS_BY_LINE, CoreMetrics.OVERALL_COVERED_CONDITIONS_BY_LINE)
     .put(METRIC.CONDITIONS_BY_LINE, CoreMetrics.OVERALL_CONDITIONS_BY_LINE).build();
 
+  private static final int NO_HITS = Integer.MIN_VALUE;
+  private static final int INITIAL_CAPACITY = 16;
+  // object headers, fields and array headers
+  private static final int BASE_MEMORY_SIZE = 128;
+
   private int totalCoveredLines = 0;
   private int totalConditions = 0;
   private int totalCoveredConditions = 0;
-  private final SortedMap<Integer, Integer> hitsByLine = new TreeMap<>();
-  private final SortedMap<Integer, Integer> conditionsByLine = new TreeMap<>();
-  private final SortedMap<Integer, Integer> coveredConditionsByLine = new TreeMap<>();
+  private int linesToCover = 0;
+
+  // one entry per line, sorted by line number: NO_HITS when only conditions are set, 0 conditions when only hits are set
+  private int size = 0;
+  private int[] lines = new int[INITIAL_CAPACITY];
+  private int[] hits = new int[INITIAL_CAPACITY];
+  private int[] conditions = new int[INITIAL_CAPACITY];
+  private int[] coveredConditions = new int[INITIAL_CAPACITY];
   private Map<METRIC, Metric> metrics = DEFAULT_KEYS;
 
   private CustomCoverageMeasuresBuilder() {
@@ -79,14 +90,16 @@ public final class CustomCoverageMeasuresBuilder {
   }
 
   public CustomCoverageMeasuresBuilder setHits(int lineId, int hits) {
-    if (hitsByLine.containsKey(lineId)) {
-      int oldValue = hitsByLine.get(lineId);
-      hitsByLine.put(lineId, Math.max(oldValue, hits));
+    int index = index(lineId);
+    int oldValue = this.hits[index];
+    if (oldValue != NO_HITS) {
+      this.hits[index] = Math.max(oldValue, hits);
       if (oldValue == 0 && hits > 0) {
         totalCoveredLines += 1;
       }
     } else {
-      hitsByLine.put(lineId, hits);
+      this.hits[index] = hits;
+      linesToCover++;
       if (hits > 0) {
         totalCoveredLines += 1;
       }
@@ -96,27 +109,154 @@ public final class CustomCoverageMeasuresBuilder {
 
   public CustomCoverageMeasuresBuilder setConditions(int lineId, int conditions, int coveredConditions) {
     if (conditions > 0) {
+      int index = index(lineId);
       int coveredNewValue;
       int totalCoveredDiff;
-      if (conditionsByLine.containsKey(lineId)) {
-        if (conditions != conditionsByLine.get(lineId)) {
+      if (this.conditions[index] > 0) {
+        if (conditions != this.conditions[index]) {
           return null;
         }
-        int oldValue = coveredConditionsByLine.get(lineId);
+        int oldValue = this.coveredConditions[index];
         coveredNewValue = Math.max(oldValue, coveredConditions);
         totalCoveredDiff = Math.abs(oldValue - coveredNewValue);
       } else {
         totalConditions += conditions;
         totalCoveredDiff = coveredConditions;
-        conditionsByLine.put(lineId, conditions);
+        this.conditions[index] = conditions;
         coveredNewValue = coveredConditions;
       }
-      coveredConditionsByLine.put(lineId, coveredNewValue);
+      this.coveredConditions[index] = coveredNewValue;
       totalCoveredConditions += totalCoveredDiff;
     }
     return this;
   }
 
+  /**
+   * @return the index of the entry of the line, which is created if needed
+   */
+  private int index(int lineId) {
+    if (size == 0 || lines[size - 1] < lineId) {
+      // lines are usually reported in order
+      return insert(size, lineId);
+    }
+    int index = Arrays.binarySearch(lines, 0, size, lineId);
+    if (index >= 0) {
+      return index;
+    }
+    return insert(-index - 1, lineId);
+  }
+
+  private int insert(int index, int lineId) {
+    if (size == lines.length) {
+      int capacity = size * 2;
+      lines = Arrays.copyOf(lines, capacity);
+      hits = Arrays.copyOf(hits, capacity);
+      conditions = Arrays.copyOf(conditions, capacity);
+      coveredConditions = Arrays.copyOf(coveredConditions, capacity);
+    }
+    int moved = size - index;
+    if (moved > 0) {
+      System.arraycopy(lines, index, lines, index + 1, moved);
+      System.arraycopy(hits, index, hits, index + 1, moved);
+      System.arraycopy(conditions, index, conditions, index + 1, moved);
+      System.arraycopy(coveredConditions, index, coveredConditions, index + 1, moved);
+    }
+    lines[index] = lineId;
+    hits[index] = NO_HITS;
+    conditions[index] = 0;
+    coveredConditions[index] = 0;
+    size++;
+    return index;
+  }
+
+  /**
+   * Adds the data of another builder of the same file, with the same rules as {@link #setHits(int, int)}
+   * and {@link #setConditions(int, int, int)}.
+   *
+   * @return null if both builders disagree on the number of conditions of a line
+   */
+  public CustomCoverageMeasuresBuilder merge(CustomCoverageMeasuresBuilder other) {
+    for (int i = 0; i < other.size; i++) {
+      if (other.hits[i] != NO_HITS) {
+        setHits(other.lines[i], other.hits[i]);
+      }
+      if (setConditions(other.lines[i], other.conditions[i], other.coveredConditions[i]) == null) {
+        return null;
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Same as {@link #merge(CustomCoverageMeasuresBuilder)}, with the data of a builder written by {@link #writeTo(ByteBuffer)}.
+   */
+  CustomCoverageMeasuresBuilder merge(ByteBuffer buffer) {
+    int otherSize = buffer.getInt();
+    for (int i = 0; i < otherSize; i++) {
+      int line = buffer.getInt();
+      int otherHits = buffer.getInt();
+      int otherConditions = buffer.getInt();
+      int otherCoveredConditions = buffer.getInt();
+      if (otherHits != NO_HITS) {
+        setHits(line, otherHits);
+      }
+      if (setConditions(line, otherConditions, otherCoveredConditions) == null) {
+        return null;
+      }
+    }
+    return this;
+  }
+
+  void writeTo(ByteBuffer buffer) {
+    buffer.putInt(size);
+    for (int i = 0; i < size; i++) {
+      buffer.putInt(lines[i]);
+      buffer.putInt(hits[i]);
+      buffer.putInt(conditions[i]);
+      buffer.putInt(coveredConditions[i]);
+    }
+  }
+
+  /**
+   * @return number of bytes written by {@link #writeTo(ByteBuffer)}
+   */
+  int serializedSize() {
+    return 4 + 16 * size;
+  }
+
+  /**
+   * @return approximate number of bytes used by this builder on the heap
+   */
+  long memorySize() {
+    return BASE_MEMORY_SIZE + 16L * lines.length;
+  }
+
+  /**
+   * @return number of lines with hits or conditions, which are then read by index in the order of their numbers
+   */
+  int lineCount() {
+    return size;
+  }
+
+  int lineAt(int index) {
+    return lines[index];
+  }
+
+  /**
+   * @return -1 if the line only has conditions
+   */
+  int hitsAt(int index) {
+    return hits[index] == NO_HITS ? -1 : hits[index];
+  }
+
+  int conditionsAt(int index) {
+    return conditions[index];
+  }
+
+  int coveredConditionsAt(int index) {
+    return coveredConditions[index];
+  }
+
   public int getCoveredConditions() {
     return totalCoveredConditions;
   }
@@ -126,23 +266,50 @@ public final class CustomCoverageMeasuresBuilder {
   }
 
   public int getLinesToCover() {
-    return hitsByLine.size();
+    return linesToCover;
   }
 
   public int getCoveredLines() {
     return totalCoveredLines;
   }
 
+  /**
+   * @return a snapshot of the number of covered conditions of each line with conditions
+   */
   public SortedMap<Integer, Integer> getCoveredConditionsByLine() {
-    return Collections.unmodifiableSortedMap(coveredConditionsByLine);
+    SortedMap<Integer, Integer> result = new TreeMap<>();
+    for (int i = 0; i < size; i++) {
+      if (conditions[i] > 0) {
+        result.put(lines[i], coveredConditions[i]);
+      }
+    }
+    return Collections.unmodifiableSortedMap(result);
   }
 
+  /**
+   * @return a snapshot of the number of conditions of each line with conditions
+   */
   public SortedMap<Integer, Integer> getConditionsByLine() {
-    return Collections.unmodifiableSortedMap(conditionsByLine);
+    SortedMap<Integer, Integer> result = new TreeMap<>();
+    for (int i = 0; i < size; i++) {
+      if (conditions[i] > 0) {
+        result.put(lines[i], conditions[i]);
+      }
+    }
+    return Collections.unmodifiableSortedMap(result);
   }
 
+  /**
+   * @return a snapshot of the hits of each line to cover
+   */
   public SortedMap<Integer, Integer> getHitsByLine() {
-    return Collections.unmodifiableSortedMap(hitsByLine);
+    SortedMap<Integer, Integer> result = new TreeMap<>();
+    for (int i = 0; i < size; i++) {
+      if (hits[i] != NO_HITS) {
+        result.put(lines[i], hits[i]);
+      }
+    }
+    return Collections.unmodifiableSortedMap(result);
   }
 
   public Collection<Measure> createMeasures() {
@@ -150,23 +317,60 @@ public final class CustomCoverageMeasuresBuilder {
     if (getLinesToCover() > 0) {
       measures.add(new Measure(metrics.get(METRIC.LINES_TO_COVER), (double) getLinesToCover()));
       measures.add(new Measure(metrics.get(METRIC.UNCOVERED_LINES), (double) (getLinesToCover() - getCoveredLines())));
-      measures.add(new Measure(metrics.get(METRIC.COVERAGE_LINE_HITS_DATA)).setData(KeyValueFormat.format(hitsByLine)).setPersistenceMode(PersistenceMode.DATABASE));
+      measures.add(new Measure(metrics.get(METRIC.COVERAGE_LINE_HITS_DATA)).setData(formatByLine(hits, false)).setPersistenceMode(PersistenceMode.DATABASE));
     }
     if (getConditions() > 0) {
       measures.add(new Measure(metrics.get(METRIC.CONDITIONS_TO_COVER), (double) getConditions()));
       measures.add(new Measure(metrics.get(METRIC.UNCOVERED_CONDITIONS), (double) (getConditions() - getCoveredConditions())));
-      measures.add(createMeasureByLine(conditionsByLine, METRIC.CONDITIONS_BY_LINE));
-      measures.add(createMeasureByLine(coveredConditionsByLine, METRIC.COVERED_CONDITIONS_BY_LINE));
+      measures.add(createMeasureByLine(conditions, METRIC.CONDITIONS_BY_LINE));
+      measures.add(createMeasureByLine(coveredConditions, METRIC.COVERED_CONDITIONS_BY_LINE));
     }
     return measures;
   }
 
-  private Measure createMeasureByLine(SortedMap<Integer, Integer> lines, METRIC metric) {
+  private Measure createMeasureByLine(int[] values, METRIC metric) {
     return new Measure(metrics.get(metric))
-      .setData(KeyValueFormat.format(lines))
+      .setData(formatByLine(values, true))
       .setPersistenceMode(PersistenceMode.DATABASE);
   }
 
+  /**
+   * Same format as {@link org.sonar.api.utils.KeyValueFormat#format(java.util.Map)}, written straight from the arrays
+   * into a buffer of the exact size.
+   *
+   * @param values hits, conditions or covered conditions
+   * @param linesWithConditions true to format the lines with conditions, false to format the lines to cover
+   */
+  private String formatByLine(int[] values, boolean linesWithConditions) {
+    int length = 0;
+    for (int i = 0; i < size; i++) {
+      if (linesWithConditions ? (conditions[i] > 0) : (hits[i] != NO_HITS)) {
+        length += stringSize(lines[i]) + stringSize(values[i]) + 2;
+      }
+    }
+    StringBuilder data = new StringBuilder(length);
+    for (int i = 0; i < size; i++) {
+      if (linesWithConditions ? (conditions[i] > 0) : (hits[i] != NO_HITS)) {
+        if (data.length() > 0) {
+          data.append(';');
+        }
+        data.append(lines[i]).append('=').append(values[i]);
+      }
+    }
+    return data.toString();
+  }
+
+  private static int stringSize(int value) {
+    if (value < 0) {
+      return value == Integer.MIN_VALUE ? 11 : (stringSize(-value) + 1);
+    }
+    int digits = 1;
+    for (int remaining = value; remaining >= 10; remaining /= 10) {
+      digits++;
+    }
+    return digits;
+  }
+
   public static CustomCoverageMeasuresBuilder create() {
     return new CustomCoverageMeasuresBuilder();
   }
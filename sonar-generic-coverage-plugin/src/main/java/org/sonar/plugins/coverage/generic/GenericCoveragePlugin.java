@@ -20,6 +20,7 @@
 package org.sonar.plugins.coverage.generic;
 
 import com.google.common.collect.ImmutableList;
+import org.sonar.api.PropertyType;
 import org.sonar.api.SonarPlugin;
 import org.sonar.api.config.PropertyDefinition;
 import org.sonar.api.resources.Qualifiers;
@@ -34,11 +35,25 @@ public class GenericCoveragePlugin extends SonarPlugin {
   public static final String IT_COVERAGE_REPORT_PATHS_PROPERTY_KEY = "sonar.genericcoverage.itReportPaths";
   public static final String OVERALL_COVERAGE_REPORT_PATHS_PROPERTY_KEY = "sonar.genericcoverage.overallReportPaths";
   public static final String UNIT_TEST_REPORT_PATHS_PROPERTY_KEY = "sonar.genericcoverage.unitTestReportPaths";
+  public static final String PARSING_THREADS_PROPERTY_KEY = "sonar.genericcoverage.parsingThreads";
+  public static final String CONCURRENT_MODES_PROPERTY_KEY = "sonar.genericcoverage.concurrentModes";
+  public static final String DISJOINT_REPORTS_PROPERTY_KEY = "sonar.genericcoverage.disjointReports";
+  public static final String MEMORY_BUDGET_PROPERTY_KEY = "sonar.genericcoverage.memoryBudget";
+  public static final String MAX_TEST_CASE_TEXT_LENGTH_PROPERTY_KEY = "sonar.genericcoverage.maxTestCaseTextLength";
+  public static final String COMPRESS_TEST_CASE_TEXTS_PROPERTY_KEY = "sonar.genericcoverage.compressTestCaseTexts";
+  public static final String LAZY_STACK_TRACES_PROPERTY_KEY = "sonar.genericcoverage.lazyStackTraces";
+  public static final String REPORT_CACHE_PROPERTY_KEY = "sonar.genericcoverage.reportCache";
+  public static final String PROGRESS_INTERVAL_PROPERTY_KEY = "sonar.genericcoverage.progressInterval";
+  public static final String SHARED_REPORTS_PROPERTY_KEY = "sonar.genericcoverage.sharedReports";
+  public static final String REPORT_INDEX_PROPERTY_KEY = "sonar.genericcoverage.reportIndex";
+  public static final String PIPELINE_WORKERS_PROPERTY_KEY = "sonar.genericcoverage.pipelineWorkers";
 
   @Override
   public List getExtensions() {
     ImmutableList.Builder<Object> builder = ImmutableList.builder();
     builder.add(GenericCoverageSensor.class);
+    builder.add(SharedReportStore.class);
+    builder.add(SharedReportIndexes.class);
     builder.addAll(pluginProperties());
     return builder.build();
   }
@@ -48,28 +63,155 @@ public class GenericCoveragePlugin extends SonarPlugin {
 
       PropertyDefinition.builder(COVERAGE_REPORT_PATHS_PROPERTY_KEY)
         .name("Coverage report paths")
-        .description("List of comma-separated paths (absolute or relative) containing coverage report.")
+        .description("List of comma-separated paths (absolute or relative) containing coverage report. "
+          + "A path can also be a directory or a glob pattern like build/coverage/**/*.xml.")
         .category(CATEGORY)
         .onQualifiers(Qualifiers.PROJECT)
         .build(),
 
       PropertyDefinition.builder(IT_COVERAGE_REPORT_PATHS_PROPERTY_KEY)
         .name("Integration tests coverage report paths")
-        .description("List of comma-separated paths (absolute or relative) containing integration tests coverage report.")
+        .description("List of comma-separated paths (absolute or relative) containing integration tests coverage report. "
+          + "A path can also be a directory or a glob pattern like build/coverage/**/*.xml.")
         .category(CATEGORY)
         .onQualifiers(Qualifiers.PROJECT)
         .build(),
 
       PropertyDefinition.builder(OVERALL_COVERAGE_REPORT_PATHS_PROPERTY_KEY)
         .name("Overall tests coverage report paths")
-        .description("List of comma-separated paths (absolute or relative) containing overall tests coverage report.")
+        .description("List of comma-separated paths (absolute or relative) containing overall tests coverage report. "
+          + "A path can also be a directory or a glob pattern like build/coverage/**/*.xml.")
         .category(CATEGORY)
         .onQualifiers(Qualifiers.PROJECT)
         .build(),
 
       PropertyDefinition.builder(UNIT_TEST_REPORT_PATHS_PROPERTY_KEY)
         .name("Unit tests results report paths")
-        .description("List of comma-separated paths (absolute or relative) containing unit tests results report.")
+        .description("List of comma-separated paths (absolute or relative) containing unit tests results report. "
+          + "A path can also be a directory or a glob pattern like build/coverage/**/*.xml.")
+        .category(CATEGORY)
+        .onQualifiers(Qualifiers.PROJECT)
+        .build(),
+
+      PropertyDefinition.builder(PARSING_THREADS_PROPERTY_KEY)
+        .name("Report parsing threads")
+        .description("Number of threads parsing the reports of a same kind (coverage, integration tests coverage, overall coverage or unit tests results) "
+          + "when several reports are provided.")
+        .type(PropertyType.INTEGER)
+        .defaultValue("1")
+        .category(CATEGORY)
+        .onQualifiers(Qualifiers.PROJECT)
+        .build(),
+
+      PropertyDefinition.builder(CONCURRENT_MODES_PROPERTY_KEY)
+        .name("Parse report kinds concurrently")
+        .description("Parse coverage, integration tests coverage, overall coverage and unit tests results reports on separate threads. "
+          + "Ignored when reports are declared disjoint, as their measures are then saved while parsing.")
+        .type(PropertyType.BOOLEAN)
+        .defaultValue("false")
+        .category(CATEGORY)
+        .onQualifiers(Qualifiers.PROJECT)
+        .build(),
+
+      PropertyDefinition.builder(DISJOINT_REPORTS_PROPERTY_KEY)
+        .name("Disjoint reports")
+        .description("Each file is reported at most once by the reports of a same kind. Measures of a file are then saved as soon as it is parsed, "
+          + "which lowers memory usage on large reports. Reports are parsed one after the other on the analysis thread: "
+          + "parsing threads, pipeline workers and concurrent report kinds are ignored.")
+        .type(PropertyType.BOOLEAN)
+        .defaultValue("false")
+        .category(CATEGORY)
+        .onQualifiers(Qualifiers.PROJECT)
+        .build(),
+
+      PropertyDefinition.builder(MEMORY_BUDGET_PROPERTY_KEY)
+        .name("Coverage memory budget")
+        .description("Approximate memory, in megabytes, used by the coverage data of the reports of a same kind. Beyond it, the data of the least recently "
+          + "reported files is moved to a temporary file until measures are saved. 0 means no budget.")
+        .type(PropertyType.INTEGER)
+        .defaultValue("0")
+        .category(CATEGORY)
+        .onQualifiers(Qualifiers.PROJECT)
+        .build(),
+
+      PropertyDefinition.builder(MAX_TEST_CASE_TEXT_LENGTH_PROPERTY_KEY)
+        .name("Maximum length of test messages and stack traces")
+        .description("Maximum number of characters kept from the message and the stack trace of each failed, erroneous or skipped test. "
+          + "0 means no maximum.")
+        .type(PropertyType.INTEGER)
+        .defaultValue("0")
+        .category(CATEGORY)
+        .onQualifiers(Qualifiers.PROJECT)
+        .build(),
+
+      PropertyDefinition.builder(COMPRESS_TEST_CASE_TEXTS_PROPERTY_KEY)
+        .name("Compress test messages and stack traces")
+        .description("Keep the messages and stack traces of tests compressed in memory until they are saved.")
+        .type(PropertyType.BOOLEAN)
+        .defaultValue("false")
+        .category(CATEGORY)
+        .onQualifiers(Qualifiers.PROJECT)
+        .build(),
+
+      PropertyDefinition.builder(LAZY_STACK_TRACES_PROPERTY_KEY)
+        .name("Read stack traces lazily")
+        .description("Only keep where the stack traces of tests are in uncompressed UTF-8 reports, and read them back from the reports when they are saved. "
+          + "The reports must not change during the analysis.")
+        .type(PropertyType.BOOLEAN)
+        .defaultValue("false")
+        .category(CATEGORY)
+        .onQualifiers(Qualifiers.PROJECT)
+        .build(),
+
+      PropertyDefinition.builder(REPORT_CACHE_PROPERTY_KEY)
+        .name("Cache coverage reports")
+        .description("Keep a binary snapshot of each XML coverage report in the working directory, and read an unchanged report from its snapshot "
+          + "during the next analysis. Errors found while reading a snapshot refer to its records instead of the lines of the report.")
+        .type(PropertyType.BOOLEAN)
+        .defaultValue("false")
+        .category(CATEGORY)
+        .onQualifiers(Qualifiers.PROJECT)
+        .build(),
+
+      PropertyDefinition.builder(PROGRESS_INTERVAL_PROPERTY_KEY)
+        .name("Progress interval")
+        .description("Number of seconds between two progress messages while a report is parsed, giving the bytes read, the files and "
+          + "elements processed, the throughput and the remaining time. 0 disables progress messages.")
+        .type(PropertyType.INTEGER)
+        .defaultValue("10")
+        .category(CATEGORY)
+        .onQualifiers(Qualifiers.PROJECT)
+        .build(),
+
+      PropertyDefinition.builder(SHARED_REPORTS_PROPERTY_KEY)
+        .name("Share coverage reports between modules")
+        .description("Parse each coverage report once for the whole analysis and keep a compact copy of its data in memory, from which each module "
+          + "only takes the data of its own files. A report is then rejected as a whole when any of its files holds invalid data. The copies are limited to "
+          + "the memory budget, or to 256 megabytes without budget: the least recently used reports are released first, and larger reports are parsed "
+          + "by each module.")
+        .type(PropertyType.BOOLEAN)
+        .defaultValue("false")
+        .category(CATEGORY)
+        .onQualifiers(Qualifiers.PROJECT)
+        .build(),
+
+      PropertyDefinition.builder(REPORT_INDEX_PROPERTY_KEY)
+        .name("Index coverage reports")
+        .description("Keep an index of the \"file\" elements of each uncompressed XML coverage report in the working directory, "
+          + "so that each module only reads the elements referring to its own files. "
+          + "The index is built the first time a report is parsed, and again when the report changes.")
+        .type(PropertyType.BOOLEAN)
+        .defaultValue("false")
+        .category(CATEGORY)
+        .onQualifiers(Qualifiers.PROJECT)
+        .build(),
+
+      PropertyDefinition.builder(PIPELINE_WORKERS_PROPERTY_KEY)
+        .name("Report pipeline workers")
+        .description("Number of threads resolving paths and aggregating coverage data while the parsing thread reads each coverage report. "
+          + "0 to read and aggregate on the parsing thread. Ignored for disjoint reports and with a memory budget.")
+        .type(PropertyType.INTEGER)
+        .defaultValue("0")
         .category(CATEGORY)
         .onQualifiers(Qualifiers.PROJECT)
         .build(),
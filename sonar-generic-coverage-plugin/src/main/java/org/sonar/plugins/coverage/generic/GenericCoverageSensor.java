@@ -19,10 +19,13 @@
  */
 package org.sonar.plugins.coverage.generic;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.io.Files;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,21 +36,59 @@ import org.sonar.api.component.ResourcePerspectives;
 import org.sonar.api.config.Settings;
 import org.sonar.api.resources.Project;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 import javax.xml.stream.XMLStreamException;
 import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class GenericCoverageSensor implements Sensor {
 
+  static final String METRICS_FILE = "genericcoverage-metrics.json";
+  static final String INDEX_DIRECTORY = "genericcoverage-indexes";
+
   private final Settings settings;
   private final FileSystem fs;
   private final ResourcePerspectives perspectives;
+  private final SharedReportStore sharedReportStore;
+  private final SharedReportIndexes sharedReportIndexes;
+  private InputFileIndex inputFileIndex;
+  private ReportCache reportCache;
+  private Map<String, ImportMetrics> importMetrics;
+  private ReportProgress.Listener progressListener;
 
   public GenericCoverageSensor(Settings settings, FileSystem fs, ResourcePerspectives perspectives) {
+    this(settings, fs, perspectives, null);
+  }
+
+  /**
+   * @param sharedReportStore shared by the sensors of all modules
+   */
+  public GenericCoverageSensor(Settings settings, FileSystem fs, ResourcePerspectives perspectives, @Nullable SharedReportStore sharedReportStore) {
+    this(settings, fs, perspectives, sharedReportStore, new SharedReportIndexes());
+  }
+
+  /**
+   * @param sharedReportStore shared by the sensors of all modules
+   * @param sharedReportIndexes shared by the sensors of all modules
+   */
+  public GenericCoverageSensor(Settings settings, FileSystem fs, ResourcePerspectives perspectives, @Nullable SharedReportStore sharedReportStore,
+    SharedReportIndexes sharedReportIndexes) {
     this.settings = settings;
     this.fs = fs;
     this.perspectives = perspectives;
+    this.sharedReportStore = sharedReportStore;
+    this.sharedReportIndexes = sharedReportIndexes;
   }
 
   @Override
@@ -70,6 +111,20 @@ public class GenericCoverageSensor implements Sensor {
     logger.warn("Use the new property \"" + newPropertyKey + "\" instead of the deprecated \"" + oldProperty + "\"");
   }
 
+  @CheckForNull
+  private String reportPath(ReportParser.Mode mode, Logger logger) {
+    switch (mode) {
+      case COVERAGE:
+        return coverageReportPath(logger);
+      case IT_COVERAGE:
+        return itReportPath();
+      case OVERALL_COVERAGE:
+        return overallReportPath();
+      default:
+        return unitTestReportPath();
+    }
+  }
+
   private String itReportPath() {
     return settings.getString(GenericCoveragePlugin.IT_COVERAGE_REPORT_PATHS_PROPERTY_KEY);
   }
@@ -82,16 +137,116 @@ public class GenericCoverageSensor implements Sensor {
     return settings.getString(GenericCoveragePlugin.UNIT_TEST_REPORT_PATHS_PROPERTY_KEY);
   }
 
+  private int parsingThreads() {
+    return Math.max(1, settings.getInt(GenericCoveragePlugin.PARSING_THREADS_PROPERTY_KEY));
+  }
+
+  private int pipelineWorkers() {
+    return Math.max(0, settings.getInt(GenericCoveragePlugin.PIPELINE_WORKERS_PROPERTY_KEY));
+  }
+
+  private long memoryBudget() {
+    return Math.max(0, settings.getInt(GenericCoveragePlugin.MEMORY_BUDGET_PROPERTY_KEY)) * 1024L * 1024L;
+  }
+
+  private int maxTestCaseTextLength() {
+    return Math.max(0, settings.getInt(GenericCoveragePlugin.MAX_TEST_CASE_TEXT_LENGTH_PROPERTY_KEY));
+  }
+
+  private boolean compressTestCaseTexts() {
+    return settings.getBoolean(GenericCoveragePlugin.COMPRESS_TEST_CASE_TEXTS_PROPERTY_KEY);
+  }
+
+  @CheckForNull
+  private SharedReportStore sharedReportStore() {
+    return settings.getBoolean(GenericCoveragePlugin.SHARED_REPORTS_PROPERTY_KEY) ? sharedReportStore : null;
+  }
+
+  private long progressIntervalMillis() {
+    return Math.max(0, settings.getInt(GenericCoveragePlugin.PROGRESS_INTERVAL_PROPERTY_KEY)) * 1000L;
+  }
+
+  private File indexDirectory() {
+    return new File(fs.workDir(), INDEX_DIRECTORY);
+  }
+
+  private boolean lazyStackTraces() {
+    return settings.getBoolean(GenericCoveragePlugin.LAZY_STACK_TRACES_PROPERTY_KEY);
+  }
+
   private static List<String> getList(@Nullable String string) {
     return string == null ? ImmutableList.<String>of() : Lists.newArrayList(Splitter.on(",").trimResults().omitEmptyStrings().split(string));
   }
 
+  /**
+   * @return the paths of the property, where directories and glob patterns are replaced by the files they hold
+   */
+  private List<String> reportPaths(@Nullable String property) {
+    return ReportPathPatterns.expand(fs.baseDir(), getList(property));
+  }
+
   @Override
   public void analyse(Project project, SensorContext context) {
     analyseWithLogger(context, LoggerFactory.getLogger(GenericCoverageSensor.class));
   }
 
   public void analyseWithLogger(SensorContext context, Logger logger) {
+    // shared by the parsers of all modes
+    inputFileIndex = new InputFileIndex(fs, context);
+    reportCache = null;
+    importMetrics = new LinkedHashMap<>();
+    progressListener = null;
+    if (progressIntervalMillis() > 0) {
+      progressListener = progressListener(logger);
+    }
+    if (settings.getBoolean(GenericCoveragePlugin.REPORT_CACHE_PROPERTY_KEY)) {
+      reportCache = new ReportCache(new File(fs.workDir(), "genericcoverage-cache"));
+    }
+    // measures of disjoint reports are saved while parsing, which must happen on this thread
+    if (settings.getBoolean(GenericCoveragePlugin.CONCURRENT_MODES_PROPERTY_KEY) && !settings.getBoolean(GenericCoveragePlugin.DISJOINT_REPORTS_PROPERTY_KEY)) {
+      analyseModesConcurrently(context, logger);
+    } else {
+      analyseModes(context, logger);
+    }
+    if (reportCache != null) {
+      try {
+        reportCache.save();
+      } catch (IOException e) {
+        logger.warn("Cannot save the cache of reports: " + e.getMessage());
+      }
+    }
+    writeImportMetrics(logger);
+  }
+
+  private static ReportProgress.Listener progressListener(final Logger logger) {
+    return new ReportProgress.Listener() {
+      @Override
+      public void progress(ReportProgress progress) {
+        logger.info("Still parsing " + progress);
+      }
+    };
+  }
+
+  /**
+   * Writes the counters of all imported modes to a JSON file of the working directory.
+   */
+  private void writeImportMetrics(Logger logger) {
+    File workDir = fs.workDir();
+    if (workDir == null || importMetrics.isEmpty()) {
+      return;
+    }
+    File file = new File(workDir, METRICS_FILE);
+    try {
+      Files.createParentDirs(file);
+      try (Writer writer = Files.newWriter(file, Charsets.UTF_8)) {
+        ImportMetrics.writeJson(importMetrics, writer);
+      }
+    } catch (IOException e) {
+      logger.warn("Cannot write import metrics to " + file + ": " + e.getMessage());
+    }
+  }
+
+  private void analyseModes(SensorContext context, Logger logger) {
     boolean ok = loadReport(context, logger, ReportParser.Mode.COVERAGE, coverageReportPath(logger));
     if (ok) {
       ok = loadReport(context, logger, ReportParser.Mode.IT_COVERAGE, itReportPath());
@@ -104,33 +259,111 @@ public class GenericCoverageSensor implements Sensor {
     }
   }
 
-  private boolean loadReport(SensorContext context, Logger logger, ReportParser.Mode mode, String reportPath) {
-    String modeString = getModeString(mode);
-    ReportParser parser = new ReportParser(fs, context, perspectives, mode);
-    List<String> strings = getList(reportPath);
-    while (!strings.isEmpty()) {
-      String path = strings.remove(0);
-      File reportFile = new File(path);
-      if (!reportFile.isAbsolute()) {
-        reportFile = new File(fs.baseDir(), path);
+  /**
+   * Parses the reports of each mode on its own thread. Like {@link #loadReport}, stops at the first mode with a missing
+   * report: the reports of all modes are looked up before parsing starts. Measures are saved from the calling thread,
+   * in the order of the modes, once all parsing is done: saving while other modes still resolve files would race with
+   * them on the index of the analysis.
+   */
+  private void analyseModesConcurrently(final SensorContext context, Logger logger) {
+    Map<ReportParser.Mode, Future<ReportParser>> parsers = new LinkedHashMap<>();
+    ExecutorService executor = Executors.newFixedThreadPool(ReportParser.Mode.values().length);
+    try {
+      for (final ReportParser.Mode mode : ReportParser.Mode.values()) {
+        final List<String> paths = reportPaths(reportPath(mode, logger));
+        final List<File> reportFiles = reportFiles(logger, mode, paths);
+        if (reportFiles == null) {
+          break;
+        }
+        parsers.put(mode, executor.submit(new Callable<ReportParser>() {
+          @Override
+          public ReportParser call() {
+            long start = System.nanoTime();
+            ReportParser parser = parseReportFiles(context, mode, reportFiles, paths);
+            parser.metrics().setParsingNanos(System.nanoTime() - start);
+            return parser;
+          }
+        }));
       }
-      String reportAbsolutePath = reportFile.getAbsolutePath();
-      logger.info("Parsing " + reportAbsolutePath);
-
-      if (!reportFile.exists()) {
-        logger.warn("Cannot find " + modeString + " report to parse: " + reportAbsolutePath);
-        return false;
+      Map<ReportParser.Mode, ReportParser> parsedModes = new LinkedHashMap<>();
+      try {
+        for (Map.Entry<ReportParser.Mode, Future<ReportParser>> entry : parsers.entrySet()) {
+          parsedModes.put(entry.getKey(), getParser(entry.getValue()));
+        }
+      } catch (RuntimeException | Error e) {
+        // the other modes are waited for, so that none of them keeps temporary files
+        for (Future<ReportParser> future : parsers.values()) {
+          discardWhenDone(future);
+        }
+        throw e;
       }
-
       try {
-        parser.parse(reportFile, path);
-      } catch (XMLStreamException e) {
-        throw new IllegalStateException("Cannot parse " + modeString + " report " + reportAbsolutePath, e);
-      } catch (ReportParsingException e) {
-        throw new IllegalStateException("Error at line " + e.lineNumber() + " of " + modeString + " report " + reportAbsolutePath, e);
+        for (Map.Entry<ReportParser.Mode, ReportParser> entry : parsedModes.entrySet()) {
+          saveMeasures(logger, entry.getKey(), entry.getValue());
+        }
+      } finally {
+        for (ReportParser parser : parsedModes.values()) {
+          parser.discard();
+        }
       }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void discardWhenDone(Future<ReportParser> future) {
+    try {
+      future.get().discard();
+    } catch (ExecutionException e) {
+      // the parser of a failed mode is already discarded
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static ReportParser getParser(Future<ReportParser> future) {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause());
+      throw new IllegalStateException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while parsing reports", e);
+    }
+  }
+
+  private boolean loadReport(SensorContext context, Logger logger, ReportParser.Mode mode, String reportPath) {
+    long start = System.nanoTime();
+    List<String> paths = reportPaths(reportPath);
+    // all reports are looked up first, so that nothing is saved when one of them is missing
+    List<File> reportFiles = reportFiles(logger, mode, paths);
+    if (reportFiles == null) {
+      return false;
+    }
+    ReportParser parser;
+    if (settings.getBoolean(GenericCoveragePlugin.DISJOINT_REPORTS_PROPERTY_KEY)) {
+      // measures are saved while parsing, from this thread
+      parser = newReportParser(context, mode);
+      parser.enableStreaming();
+      parseReports(parser, mode, reportFiles, paths);
+    } else {
+      parser = parseReportFiles(context, mode, reportFiles, paths);
     }
+    try {
+      parser.metrics().setParsingNanos(System.nanoTime() - start);
+      saveMeasures(logger, mode, parser);
+    } finally {
+      parser.discard();
+    }
+    return true;
+  }
+
+  private void saveMeasures(Logger logger, ReportParser.Mode mode, ReportParser parser) {
+    String modeString = getModeString(mode);
     parser.saveMeasures();
+    logImportMetrics(logger, modeString, parser.metrics());
+    importMetrics.put(modeString, parser.metrics());
 
     logger.info("Imported " + modeString + " data for " + parser.numberOfMatchedFiles() + " files");
     int numberOfUnknownFiles = parser.numberOfUnknownFiles();
@@ -138,7 +371,109 @@ public class GenericCoverageSensor implements Sensor {
       String fileList = Joiner.on("\n").join(parser.firstUnknownFiles());
       logger.info(modeString + " data ignored for " + numberOfUnknownFiles + " unknown files, including:\n" + fileList);
     }
-    return true;
+  }
+
+  private static void logImportMetrics(Logger logger, String modeString, ImportMetrics metrics) {
+    if (logger.isDebugEnabled()) {
+      logger.debug(metrics.summary(modeString));
+      for (ImportMetrics.ReportMetrics report : metrics.reports()) {
+        logger.debug(ImportMetrics.summary(report));
+      }
+    }
+  }
+
+  /**
+   * The parser is discarded when a report cannot be parsed, so that it keeps no temporary file.
+   */
+  private static void parseReports(ReportParser parser, ReportParser.Mode mode, List<File> reportFiles, List<String> paths) {
+    try {
+      for (int i = 0; i < reportFiles.size(); i++) {
+        parseReport(parser, mode, reportFiles.get(i), paths.get(i));
+      }
+    } catch (RuntimeException | Error e) {
+      parser.discard();
+      throw e;
+    }
+  }
+
+  private ReportParser parseReportFiles(SensorContext context, ReportParser.Mode mode, List<File> reportFiles, List<String> paths) {
+    int threads = parsingThreads();
+    ReportParser parser = newReportParser(context, mode);
+    if (threads > 1 && reportFiles.size() > 1) {
+      ReportParser parallelParser = new ParallelReportParser(parser, threads).parse(reportFiles, paths);
+      if (parallelParser != null) {
+        return parallelParser;
+      }
+    }
+    // when parallel parsing failed, parse again one report after the other to fail on the same report and line
+    parseReports(parser, mode, reportFiles, paths);
+    return parser;
+  }
+
+  /**
+   * @return a parser with all the options of the analysis, which is also the template of the parsers of other threads
+   */
+  private ReportParser newReportParser(SensorContext context, ReportParser.Mode mode) {
+    ReportParser parser = new ReportParser(inputFileIndex, context, perspectives, mode);
+    parser.configureTestCaseTexts(maxTestCaseTextLength(), compressTestCaseTexts(), lazyStackTraces());
+    if (memoryBudget() > 0) {
+      parser.enableSpilling(memoryBudget(), fs.workDir());
+    }
+    if (reportCache != null) {
+      parser.enableCache(reportCache);
+    }
+    if (progressListener != null) {
+      parser.enableProgress(progressIntervalMillis(), progressListener);
+    }
+    if (sharedReportStore() != null) {
+      parser.enableSharedStore(sharedReportStore(), memoryBudget() > 0 ? memoryBudget() : SharedReportStore.DEFAULT_BUDGET);
+    }
+    if (settings.getBoolean(GenericCoveragePlugin.REPORT_INDEX_PROPERTY_KEY)) {
+      parser.enableReportIndexes(sharedReportIndexes, indexDirectory());
+    }
+    if (pipelineWorkers() > 0) {
+      parser.enablePipeline(pipelineWorkers());
+    }
+    return parser;
+  }
+
+  @CheckForNull
+  private List<File> reportFiles(Logger logger, ReportParser.Mode mode, List<String> paths) {
+    List<File> reportFiles = new ArrayList<>();
+    for (String path : paths) {
+      File reportFile = reportFile(logger, mode, path);
+      if (reportFile == null) {
+        return null;
+      }
+      reportFiles.add(reportFile);
+    }
+    return reportFiles;
+  }
+
+  @CheckForNull
+  private File reportFile(Logger logger, ReportParser.Mode mode, String path) {
+    File reportFile = new File(path);
+    if (!reportFile.isAbsolute()) {
+      reportFile = new File(fs.baseDir(), path);
+    }
+    String reportAbsolutePath = reportFile.getAbsolutePath();
+    logger.info("Parsing " + reportAbsolutePath);
+
+    if (!reportFile.exists()) {
+      logger.warn("Cannot find " + getModeString(mode) + " report to parse: " + reportAbsolutePath);
+      return null;
+    }
+    return reportFile;
+  }
+
+  private static void parseReport(ReportParser parser, ReportParser.Mode mode, File reportFile, String path) {
+    try {
+      parser.parse(reportFile, path);
+    } catch (XMLStreamException e) {
+      throw new IllegalStateException("Cannot parse " + getModeString(mode) + " report " + reportFile.getAbsolutePath(), e);
+    } catch (ReportParsingException e) {
+      throw new IllegalStateException("Error at line " + e.lineNumber() + " of " + getModeString(mode) + " report " + reportFile.getAbsolutePath(), e);
+    }
   }
 
   private static String getModeString(ReportParser.Mode mode) {
@@ -0,0 +1,249 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counters of the import of the reports of one mode. Each parser has its own counters, which are added up when parsers
+ * are merged, so that counters are never shared between threads.
+ */
+final class ImportMetrics {
+
+  static final class ReportMetrics {
+
+    private final String name;
+    private final long bytes;
+    private final long elements;
+    private final long nanos;
+
+    ReportMetrics(String name, long bytes, long elements, long nanos) {
+      this.name = name;
+      this.bytes = bytes;
+      this.elements = elements;
+      this.nanos = nanos;
+    }
+
+    String name() {
+      return name;
+    }
+
+    long bytes() {
+      return bytes;
+    }
+
+    long elements() {
+      return elements;
+    }
+
+    long nanos() {
+      return nanos;
+    }
+  }
+
+  private final List<ReportMetrics> reports = new ArrayList<>();
+  private long files;
+  private long elements;
+  private long bytesRead;
+  private long pathResolutionNanos;
+  private long measureBuildingNanos;
+  private long savingNanos;
+  private int peakBuilders;
+  private long parsingNanos;
+
+  /**
+   * A "file" element, or a file of a binary report, whether the file is known or not.
+   */
+  void fileParsed() {
+    files++;
+  }
+
+  /**
+   * A "lineToCover" or "testCase" element, or a line of a binary report.
+   */
+  void elementParsed() {
+    elements++;
+  }
+
+  /**
+   * Bytes read from a report, its cached snapshot or the ranges given by its index. Reports replayed from the shared
+   * store are not read at all.
+   */
+  void bytesRead(long count) {
+    bytesRead += count;
+  }
+
+  /**
+   * For counters of files and elements which were already counted by another parser.
+   */
+  void clearCounts() {
+    files = 0;
+    elements = 0;
+  }
+
+  void addReport(String name, long bytes, long elements, long nanos) {
+    reports.add(new ReportMetrics(name, bytes, elements, nanos));
+  }
+
+  void addPathResolution(long nanos) {
+    pathResolutionNanos += nanos;
+  }
+
+  void addMeasureBuilding(long nanos) {
+    measureBuildingNanos += nanos;
+  }
+
+  void addSaving(long nanos) {
+    savingNanos += nanos;
+  }
+
+  void builders(int count) {
+    peakBuilders = Math.max(peakBuilders, count);
+  }
+
+  /**
+   * @param nanos elapsed time from the start of parsing until all reports were parsed
+   */
+  void setParsingNanos(long nanos) {
+    parsingNanos = nanos;
+  }
+
+  /**
+   * Adds the counters of a parser which was running at the same time, so that peaks of builders add up.
+   */
+  void add(ImportMetrics other) {
+    reports.addAll(other.reports);
+    files += other.files;
+    elements += other.elements;
+    bytesRead += other.bytesRead;
+    pathResolutionNanos += other.pathResolutionNanos;
+    measureBuildingNanos += other.measureBuildingNanos;
+    savingNanos += other.savingNanos;
+    peakBuilders += other.peakBuilders;
+  }
+
+  List<ReportMetrics> reports() {
+    return Collections.unmodifiableList(reports);
+  }
+
+  long files() {
+    return files;
+  }
+
+  long elements() {
+    return elements;
+  }
+
+  long bytesRead() {
+    return bytesRead;
+  }
+
+  int peakBuilders() {
+    return peakBuilders;
+  }
+
+  long bytes() {
+    long bytes = 0;
+    for (ReportMetrics report : reports) {
+      bytes += report.bytes;
+    }
+    return bytes;
+  }
+
+  String summary(String modeString) {
+    return String.format(Locale.ENGLISH, "%s import: %d reports, %d bytes, %d elements parsed in %d ms (%d elements/s), path resolution %d ms, "
+      + "measure building %d ms, saving %d ms, peak of %d builders", modeString, reports.size(), bytes(), elements, millis(parsingNanos),
+      perSecond(elements, parsingNanos), millis(pathResolutionNanos), millis(measureBuildingNanos), millis(savingNanos), peakBuilders);
+  }
+
+  static String summary(ReportMetrics report) {
+    return String.format(Locale.ENGLISH, "%s: %d bytes, %d elements parsed in %d ms (%d elements/s)", report.name, report.bytes, report.elements,
+      millis(report.nanos), perSecond(report.elements, report.nanos));
+  }
+
+  /**
+   * Writes the counters of each mode as a JSON object.
+   */
+  static void writeJson(Map<String, ImportMetrics> metricsByMode, Writer writer) throws IOException {
+    writer.write("{\n  \"modes\": [");
+    String separator = "\n";
+    for (Map.Entry<String, ImportMetrics> entry : metricsByMode.entrySet()) {
+      writer.write(separator);
+      entry.getValue().writeJson(entry.getKey(), writer);
+      separator = ",\n";
+    }
+    writer.write("\n  ]\n}\n");
+  }
+
+  private void writeJson(String mode, Writer writer) throws IOException {
+    writer.write("    {\"mode\": " + quote(mode)
+      + ", \"bytes\": " + bytes()
+      + ", \"elements\": " + elements
+      + ", \"parsingMs\": " + millis(parsingNanos)
+      + ", \"elementsPerSecond\": " + perSecond(elements, parsingNanos)
+      + ", \"pathResolutionMs\": " + millis(pathResolutionNanos)
+      + ", \"measureBuildingMs\": " + millis(measureBuildingNanos)
+      + ", \"savingMs\": " + millis(savingNanos)
+      + ", \"peakBuilders\": " + peakBuilders
+      + ", \"reports\": [");
+    String separator = "\n";
+    for (ReportMetrics report : reports) {
+      writer.write(separator);
+      writer.write("      {\"report\": " + quote(report.name)
+        + ", \"bytes\": " + report.bytes
+        + ", \"elements\": " + report.elements
+        + ", \"parsingMs\": " + millis(report.nanos)
+        + ", \"elementsPerSecond\": " + perSecond(report.elements, report.nanos) + "}");
+      separator = ",\n";
+    }
+    writer.write("]}");
+  }
+
+  private static long millis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  private static long perSecond(long count, long nanos) {
+    return nanos <= 0 ? 0 : (long) (count * 1e9 / nanos);
+  }
+
+  private static String quote(String value) {
+    StringBuilder result = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        result.append('\\').append(c);
+      } else if (c < 0x20) {
+        result.append(String.format("\\u%04x", (int) c));
+      } else {
+        result.append(c);
+      }
+    }
+    return result.append('"').toString();
+  }
+
+}
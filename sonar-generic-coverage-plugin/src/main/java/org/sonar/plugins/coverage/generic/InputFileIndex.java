@@ -0,0 +1,110 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.utils.PathUtils;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves the paths of reports to the files of the project which are known to SonarQube, like
+ * {@code fileSystem.inputFile(fileSystem.predicates().hasPath(path))} followed by {@code context.getResource(inputFile)}.
+ * The relative and absolute paths of all files are indexed on first use, then each distinct path is resolved once,
+ * whatever the number of reports and parsers referring to it. Instances are thread safe.
+ */
+public class InputFileIndex {
+
+  private static final Object UNKNOWN_FILE = new Object();
+
+  private final FileSystem fileSystem;
+  private final SensorContext context;
+  private final ConcurrentMap<String, Object> resolvedPaths = new ConcurrentHashMap<>();
+  private Map<String, InputFile> filesByRelativePath;
+  private Map<String, InputFile> filesByAbsolutePath;
+
+  public InputFileIndex(FileSystem fileSystem, SensorContext context) {
+    this.fileSystem = fileSystem;
+    this.context = context;
+  }
+
+  /**
+   * @return null if no file of the project has this path, or if it is not known to SonarQube
+   */
+  @CheckForNull
+  public InputFile inputFile(String path) {
+    Object resolved = resolvedPaths.get(path);
+    if (resolved == null) {
+      InputFile inputFile = resolve(path);
+      resolved = inputFile == null ? UNKNOWN_FILE : inputFile;
+      resolvedPaths.putIfAbsent(path, resolved);
+    }
+    return resolved == UNKNOWN_FILE ? null : (InputFile) resolved;
+  }
+
+  /**
+   * All the files of the project, whether they are known to SonarQube or not.
+   */
+  public Iterable<InputFile> inputFiles() {
+    return fileSystem.inputFiles(fileSystem.predicates().all());
+  }
+
+  @CheckForNull
+  private InputFile resolve(String path) {
+    String normalizedPath = PathUtils.sanitize(path);
+    if (normalizedPath == null) {
+      return null;
+    }
+    InputFile inputFile;
+    synchronized (this) {
+      if (filesByRelativePath == null) {
+        index();
+      }
+      inputFile = new File(path).isAbsolute() ? filesByAbsolutePath.get(normalizedPath) : filesByRelativePath.get(normalizedPath);
+    }
+    if (inputFile == null || context.getResource(inputFile) == null) {
+      return null;
+    }
+    return inputFile;
+  }
+
+  private void index() {
+    filesByRelativePath = new HashMap<>();
+    filesByAbsolutePath = new HashMap<>();
+    for (InputFile inputFile : fileSystem.inputFiles(fileSystem.predicates().all())) {
+      putIfAbsent(filesByRelativePath, inputFile.relativePath(), inputFile);
+      putIfAbsent(filesByAbsolutePath, inputFile.absolutePath(), inputFile);
+    }
+  }
+
+  private static void putIfAbsent(Map<String, InputFile> files, String path, InputFile inputFile) {
+    if (path != null && !files.containsKey(path)) {
+      files.put(path, inputFile);
+    }
+  }
+
+}
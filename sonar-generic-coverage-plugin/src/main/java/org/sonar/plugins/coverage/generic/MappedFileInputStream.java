@@ -0,0 +1,160 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a file through memory mapped windows instead of read() system calls. Each window is unmapped as soon as the
+ * next one is mapped, and the last one when the stream is closed, without waiting for garbage collection.
+ */
+class MappedFileInputStream extends InputStream {
+
+  static final int DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final long size;
+  private final int windowSize;
+  private long windowStart;
+  private MappedByteBuffer window;
+
+  MappedFileInputStream(File file) throws IOException {
+    this(file, DEFAULT_WINDOW_SIZE);
+  }
+
+  MappedFileInputStream(File file, int windowSize) throws IOException {
+    this.file = new RandomAccessFile(file, "r");
+    this.channel = this.file.getChannel();
+    this.size = channel.size();
+    this.windowSize = windowSize;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureAvailable()) {
+      return -1;
+    }
+    return window.get() & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (!ensureAvailable()) {
+      return -1;
+    }
+    int read = Math.min(length, window.remaining());
+    window.get(bytes, offset, read);
+    return read;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    if (n <= 0) {
+      return 0;
+    }
+    long position = position();
+    long skipped = Math.min(n, size - position);
+    if (window != null && skipped < window.remaining()) {
+      window.position(window.position() + (int) skipped);
+    } else {
+      unmapWindow();
+      windowStart = position + skipped;
+    }
+    return skipped;
+  }
+
+  @Override
+  public int available() {
+    return (int) Math.min(Integer.MAX_VALUE, size - position());
+  }
+
+  @Override
+  public void close() throws IOException {
+    unmapWindow();
+    windowStart = size;
+    file.close();
+  }
+
+  private long position() {
+    return window == null ? windowStart : (windowStart + window.position());
+  }
+
+  private boolean ensureAvailable() throws IOException {
+    if (window != null && window.hasRemaining()) {
+      return true;
+    }
+    long position = position();
+    unmapWindow();
+    windowStart = position;
+    if (position >= size) {
+      return false;
+    }
+    window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowSize, size - position));
+    return true;
+  }
+
+  private void unmapWindow() {
+    if (window != null) {
+      long position = windowStart + window.position();
+      unmap(window);
+      window = null;
+      windowStart = position;
+    }
+  }
+
+  /**
+   * Best effort: if the JVM does not allow it, the mapping is released when the buffer is garbage collected.
+   */
+  static void unmap(MappedByteBuffer buffer) {
+    try {
+      // Java 9 and later
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", java.nio.ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      invokeCleaner.invoke(theUnsafe.get(null), buffer);
+      return;
+    } catch (Exception e) {
+      // not available before Java 9
+    }
+    try {
+      Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      Object cleaner = cleanerMethod.invoke(buffer);
+      if (cleaner != null) {
+        cleaner.getClass().getMethod("clean").invoke(cleaner);
+      }
+    } catch (Exception e) {
+      // left to the garbage collector
+    }
+  }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses the reports of one mode with several workers. Each worker takes the next report to parse from the list and
+ * collects data in its own {@link ReportParser}, configured like the template, then the parsers of all workers are
+ * merged.
+ */
+public class ParallelReportParser {
+
+  private final ReportParser template;
+  private final int threads;
+
+  /**
+   * @param template whose options are given to the parser of each worker, see {@link ReportParser#newShard(int)}
+   */
+  public ParallelReportParser(ReportParser template, int threads) {
+    this.template = template;
+    this.threads = threads;
+  }
+
+  /**
+   * @return null if a report cannot be parsed or if two reports hold conflicting data. The reports should then be parsed
+   * one after the other to know which report and line are wrong.
+   */
+  @CheckForNull
+  public ReportParser parse(final List<File> reportFiles, final List<String> reportNames) {
+    final int workers = Math.min(threads, reportFiles.size());
+    final AtomicInteger nextReport = new AtomicInteger();
+    final AtomicBoolean failed = new AtomicBoolean();
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    try {
+      List<Future<ReportParser>> shards = new ArrayList<>();
+      for (int i = 0; i < workers; i++) {
+        shards.add(executor.submit(new Callable<ReportParser>() {
+          @Override
+          public ReportParser call() throws Exception {
+            ReportParser shard = template.newShard(workers);
+            int index = nextReport.getAndIncrement();
+            while (index < reportFiles.size() && !failed.get()) {
+              try {
+                shard.parse(reportFiles.get(index), reportNames.get(index));
+              } catch (Exception e) {
+                failed.set(true);
+                shard.discard();
+                throw e;
+              }
+              index = nextReport.getAndIncrement();
+            }
+            return shard;
+          }
+        }));
+      }
+      return merge(shards);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * The parsers of all workers are discarded when merging fails, so that none of them keeps temporary files.
+   */
+  @CheckForNull
+  private static ReportParser merge(List<Future<ReportParser>> shards) {
+    List<ReportParser> parsers = new ArrayList<>();
+    boolean failed = false;
+    try {
+      for (Future<ReportParser> shard : shards) {
+        try {
+          parsers.add(shard.get());
+        } catch (ExecutionException e) {
+          failed = true;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      discard(parsers);
+      throw new IllegalStateException("Interrupted while parsing reports", e);
+    }
+    if (!failed) {
+      ReportParser result = parsers.get(0);
+      for (ReportParser parser : parsers.subList(1, parsers.size())) {
+        if (!result.merge(parser)) {
+          failed = true;
+          break;
+        }
+      }
+      if (!failed) {
+        return result;
+      }
+    }
+    discard(parsers);
+    return null;
+  }
+
+  private static void discard(List<ReportParser> parsers) {
+    for (ReportParser parser : parsers) {
+      parser.discard();
+    }
+  }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from a report file and sends a {@link ReportProgress} to the listener once the interval has
+ * elapsed. The clock is only read every {@link #CHECK_BYTES} bytes, so that progress costs nothing per element of the
+ * report.
+ */
+final class ProgressInputStream extends FilterInputStream {
+
+  static final int CHECK_BYTES = 256 * 1024;
+
+  private final String reportName;
+  private final long totalBytes;
+  private final long intervalNanos;
+  private final ReportProgress.Listener listener;
+  private final ImportMetrics metrics;
+  private final long startFiles;
+  private final long startElements;
+  private final long startNanos;
+  private long bytesRead;
+  private long markedBytes;
+  private long nextCheck = CHECK_BYTES;
+  private long nextProgressNanos;
+
+  /**
+   * @param metrics counters of the parser reading the stream, which are only read from the parsing thread
+   */
+  ProgressInputStream(InputStream in, String reportName, long totalBytes, long intervalNanos, ReportProgress.Listener listener, ImportMetrics metrics) {
+    super(in);
+    this.reportName = reportName;
+    this.totalBytes = totalBytes;
+    this.intervalNanos = intervalNanos;
+    this.listener = listener;
+    this.metrics = metrics;
+    this.startFiles = metrics.files();
+    this.startElements = metrics.elements();
+    this.startNanos = System.nanoTime();
+    this.nextProgressNanos = startNanos + intervalNanos;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = in.read();
+    if (b >= 0) {
+      consumed(1);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int read = in.read(b, off, len);
+    if (read > 0) {
+      consumed(read);
+    }
+    return read;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = in.skip(n);
+    if (skipped > 0) {
+      consumed(skipped);
+    }
+    return skipped;
+  }
+
+  @Override
+  public synchronized void mark(int readlimit) {
+    in.mark(readlimit);
+    markedBytes = bytesRead;
+  }
+
+  @Override
+  public synchronized void reset() throws IOException {
+    in.reset();
+    bytesRead = markedBytes;
+  }
+
+  private void consumed(long bytes) {
+    bytesRead += bytes;
+    if (bytesRead < nextCheck) {
+      return;
+    }
+    nextCheck = bytesRead + CHECK_BYTES;
+    long now = System.nanoTime();
+    if (now - nextProgressNanos >= 0) {
+      nextProgressNanos = now + intervalNanos;
+      listener.progress(new ReportProgress(reportName, bytesRead, totalBytes, metrics.files() - startFiles, metrics.elements() - startElements, now - startNanos));
+    }
+  }
+
+}
@@ -0,0 +1,268 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+
+import javax.annotation.CheckForNull;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshots of XML coverage reports, kept from one analysis to the next. A report is identified by its absolute
+ * path, its size, its last modification time and the CRC-32 of its content, which is only computed when the size and
+ * time match: an unchanged report is read from its snapshot, which is an order of magnitude faster than parsing it. A
+ * changed report is parsed once, while its new snapshot is written. Snapshots are
+ * {@link BinaryReportFormat binary coverage reports} holding all the files of the report, so that they do not depend on
+ * the files of the project. Instances are thread safe.
+ */
+final class ReportCache {
+
+  private static final String INDEX_FILE = "index.properties";
+  private static final String VERSION_KEY = "version";
+  private static final String VERSION = "2";
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final File directory;
+  // value of an entry: size:lastModified:crc:snapshot file name
+  private final Properties index = new Properties();
+  private final Set<String> usedReports = new HashSet<>();
+  private final Map<String, Lock> reportLocks = new HashMap<>();
+
+  ReportCache(File directory) {
+    this.directory = directory;
+    File indexFile = new File(directory, INDEX_FILE);
+    if (indexFile.isFile()) {
+      try (Reader reader = new InputStreamReader(new FileInputStream(indexFile), Charsets.UTF_8)) {
+        index.load(reader);
+      } catch (IOException e) {
+        index.clear();
+      }
+      if (!VERSION.equals(index.getProperty(VERSION_KEY))) {
+        index.clear();
+      }
+    }
+  }
+
+  /**
+   * Locks the report until the entry is closed, so that a changed report is parsed once, whatever the number of parsers
+   * needing it.
+   *
+   * @return null if the report is already a binary report
+   */
+  @CheckForNull
+  Entry entry(File report) throws IOException {
+    String path = report.getAbsolutePath();
+    Lock lock = reportLock(path);
+    lock.lock();
+    try {
+      if (isBinary(report)) {
+        lock.unlock();
+        return null;
+      }
+      return new Entry(report, lock);
+    } catch (IOException | RuntimeException e) {
+      lock.unlock();
+      throw e;
+    }
+  }
+
+  private synchronized Lock reportLock(String path) {
+    Lock lock = reportLocks.get(path);
+    if (lock == null) {
+      lock = new ReentrantLock();
+      reportLocks.put(path, lock);
+    }
+    return lock;
+  }
+
+  @CheckForNull
+  private File cachedSnapshot(String path, long length, long lastModified, File report) throws IOException {
+    String entry;
+    synchronized (this) {
+      entry = index.getProperty(path);
+    }
+    if (entry == null || !entry.startsWith(length + ":" + lastModified + ":")) {
+      return null;
+    }
+    File snapshot = new File(directory, snapshotName(entry));
+    if (!entry.equals(length + ":" + lastModified + ":" + crc(report) + ":" + snapshot.getName()) || !snapshot.isFile()) {
+      return null;
+    }
+    return snapshot;
+  }
+
+  /**
+   * The snapshot of a report, or the new snapshot written while the report is parsed.
+   */
+  final class Entry implements Closeable {
+
+    private final File report;
+    private final String path;
+    private final long length;
+    private final long lastModified;
+    private final Lock lock;
+    private File snapshot;
+    private File newSnapshot;
+    private BinaryReportWriter writer;
+
+    private Entry(File report, Lock lock) throws IOException {
+      this.report = report;
+      this.path = report.getAbsolutePath();
+      this.length = report.length();
+      this.lastModified = report.lastModified();
+      this.lock = lock;
+      this.snapshot = cachedSnapshot(path, length, lastModified, report);
+      if (snapshot != null) {
+        used(path);
+      }
+    }
+
+    /**
+     * @return null if the report changed since it was last seen
+     */
+    @CheckForNull
+    File snapshot() {
+      return snapshot;
+    }
+
+    /**
+     * @return the sink writing the new snapshot of the report, which must be given all the data of the report
+     */
+    ReportSink newSnapshot() throws IOException {
+      Preconditions.checkState(snapshot == null && writer == null, "The report already has a snapshot");
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException("Cannot create directory " + directory);
+      }
+      newSnapshot = File.createTempFile("report", ".bin", directory);
+      writer = new BinaryReportWriter(new FileOutputStream(newSnapshot));
+      return new BinaryReportSink(writer);
+    }
+
+    /**
+     * Keeps the new snapshot, once the whole report was parsed without any error.
+     */
+    void commit() throws IOException {
+      writer.close();
+      writer = null;
+      String key = length + ":" + lastModified + ":" + crc(report);
+      synchronized (ReportCache.this) {
+        index.setProperty(path, key + ":" + newSnapshot.getName());
+      }
+      used(path);
+      snapshot = newSnapshot;
+      newSnapshot = null;
+    }
+
+    /**
+     * Deletes the new snapshot unless it was committed, and unlocks the report.
+     */
+    @Override
+    public void close() {
+      try {
+        if (writer != null) {
+          Closeables.closeQuietly(writer);
+        }
+        if (newSnapshot != null) {
+          newSnapshot.delete();
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private synchronized void used(String path) {
+    usedReports.add(path);
+  }
+
+  /**
+   * Forgets the reports which were not used since the cache was loaded, deletes their snapshots, and writes the index.
+   */
+  synchronized void save() throws IOException {
+    Set<String> usedSnapshots = new HashSet<>();
+    for (Iterator<Map.Entry<Object, Object>> it = index.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<Object, Object> entry = it.next();
+      if (usedReports.contains(entry.getKey())) {
+        usedSnapshots.add(snapshotName((String) entry.getValue()));
+      } else {
+        it.remove();
+      }
+    }
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (!INDEX_FILE.equals(file.getName()) && !usedSnapshots.contains(file.getName())) {
+          file.delete();
+        }
+      }
+    }
+    index.setProperty(VERSION_KEY, VERSION);
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create directory " + directory);
+    }
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory, INDEX_FILE)), Charsets.UTF_8)) {
+      index.store(writer, null);
+    }
+  }
+
+  private static String snapshotName(String entry) {
+    return entry.substring(entry.lastIndexOf(':') + 1);
+  }
+
+  private static boolean isBinary(File report) throws IOException {
+    try (InputStream inputStream = ReportInputStreams.open(report)) {
+      return BinaryReportFormat.isBinary(inputStream);
+    }
+  }
+
+  private static long crc(File report) throws IOException {
+    CRC32 crc = new CRC32();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (InputStream inputStream = new FileInputStream(report)) {
+      int read = inputStream.read(buffer);
+      while (read >= 0) {
+        crc.update(buffer, 0, read);
+        read = inputStream.read(buffer);
+      }
+    }
+    return crc.getValue();
+  }
+
+}
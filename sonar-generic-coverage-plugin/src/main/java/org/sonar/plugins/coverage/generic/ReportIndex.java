@@ -0,0 +1,415 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.utils.PathUtils;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Byte ranges of the "file" elements of an XML coverage report, kept in a file of an index directory, so that a module
+ * only reads the elements referring to its own files. The modules of an analysis share indexes, see
+ * {@link SharedReportIndexes}. Like {@link ReportCache}, indexes are identified by the absolute path of their report, and
+ * never written next to it, where they would be taken for reports. The index records the size and last modification
+ * time of the report, and is built again when they change. Only uncompressed reports in the canonical subset of the
+ * format read by {@link CoverageReportScanner} can be indexed. From the command line, with the plugin and the SonarQube
+ * plugin API in the classpath:
+ * <pre>
+ * java org.sonar.plugins.coverage.generic.ReportIndex indexDirectory report1.xml report2.xml ...
+ * </pre>
+ */
+public final class ReportIndex {
+
+  public static final String SUFFIX = ".idx";
+
+  private static final int MAGIC = 0x47434958;
+  private static final int VERSION = 2;
+
+  private final String reportPath;
+  private final long reportLength;
+  private final long reportLastModified;
+  private final boolean supported;
+  // in the order of the report
+  private final String[] paths;
+  private final int[] fileLines;
+  private final long[] starts;
+  private final long[] ends;
+  // "a:" or "r:" followed by the sanitized path, sorted, and the indexes of the entries they refer to
+  private final String[] sortedKeys;
+  private final int[] sortedEntries;
+  private File file;
+
+  private ReportIndex(String reportPath, long reportLength, long reportLastModified, boolean supported, String[] paths, int[] fileLines, long[] starts, long[] ends) {
+    this.reportPath = reportPath;
+    this.reportLength = reportLength;
+    this.reportLastModified = reportLastModified;
+    this.supported = supported;
+    this.paths = paths;
+    this.fileLines = fileLines;
+    this.starts = starts;
+    this.ends = ends;
+    final String[] keys = new String[paths.length];
+    Integer[] order = new Integer[paths.length];
+    for (int i = 0; i < paths.length; i++) {
+      keys[i] = key(paths[i]);
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        return keys[o1].compareTo(keys[o2]);
+      }
+    });
+    sortedKeys = new String[paths.length];
+    sortedEntries = new int[paths.length];
+    for (int i = 0; i < order.length; i++) {
+      sortedKeys[i] = keys[order[i]];
+      sortedEntries[i] = order[i];
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: ReportIndex <index directory> <report>...");
+      System.exit(1);
+    }
+    File directory = new File(args[0]);
+    for (String arg : Arrays.asList(args).subList(1, args.length)) {
+      File report = new File(arg);
+      ReportIndex index = build(report);
+      index.write(indexFile(directory, report));
+      if (!index.supported) {
+        System.err.println(report + " cannot be indexed: it is compressed, binary or beyond the canonical subset of the format");
+      }
+    }
+  }
+
+  /**
+   * Reports with the same name in different directories have different indexes.
+   */
+  static File indexFile(File directory, File report) {
+    String path = report.getAbsolutePath();
+    StringBuilder name = new StringBuilder(report.getName()).append('-');
+    for (byte b : sha1(path)) {
+      name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return new File(directory, name.append(SUFFIX).toString());
+  }
+
+  private static byte[] sha1(String text) {
+    try {
+      return MessageDigest.getInstance("SHA-1").digest(text.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Reads the index of the report from the directory, or builds it and tries to write it there.
+   *
+   * @return null if the report cannot be indexed
+   */
+  @CheckForNull
+  static ReportIndex forReport(File report, File directory) throws IOException {
+    ReportIndex index = load(report, directory);
+    return index.supported ? index : null;
+  }
+
+  /**
+   * Same as {@link #forReport(File, File)}, also giving the index of a report which cannot be indexed.
+   */
+  static ReportIndex load(File report, File directory) throws IOException {
+    File indexFile = indexFile(directory, report);
+    ReportIndex index = read(indexFile);
+    if (index == null || !index.isUpToDate(report)) {
+      index = build(report);
+      try {
+        index.write(indexFile);
+      } catch (IOException e) {
+        // the index is then only used for this analysis
+      }
+    }
+    index.file = indexFile;
+    return index;
+  }
+
+  /**
+   * @return whether the index was built for the report, as it is now
+   */
+  boolean isUpToDate(File report) {
+    return reportPath.equals(report.getAbsolutePath()) && reportLength == report.length() && reportLastModified == report.lastModified();
+  }
+
+  boolean isSupported() {
+    return supported;
+  }
+
+  static ReportIndex build(File report) throws IOException {
+    String path = report.getAbsolutePath();
+    long length = report.length();
+    long lastModified = report.lastModified();
+    if (ReportInputStreams.isCompressed(report)) {
+      return unsupported(path, length, lastModified);
+    }
+    try (InputStream inputStream = ReportInputStreams.openUncompressed(report)) {
+      InputStream bufferedStream = inputStream.markSupported() ? inputStream : new BufferedInputStream(inputStream);
+      if (BinaryReportFormat.isBinary(bufferedStream)) {
+        return unsupported(path, length, lastModified);
+      }
+      IndexingSink sink = new IndexingSink();
+      CoverageReportScanner scanner = new CoverageReportScanner(sink);
+      sink.scanner = scanner;
+      if (!scanner.scan(bufferedStream)) {
+        return unsupported(path, length, lastModified);
+      }
+      int files = sink.paths.size();
+      return new ReportIndex(path, length, lastModified, true, sink.paths.toArray(new String[files]), Arrays.copyOf(sink.fileLines, files),
+        Arrays.copyOf(sink.starts, files), Arrays.copyOf(sink.ends, files));
+    }
+  }
+
+  private static ReportIndex unsupported(String reportPath, long reportLength, long reportLastModified) {
+    return new ReportIndex(reportPath, reportLength, reportLastModified, false, new String[0], new int[0], new long[0], new long[0]);
+  }
+
+  @CheckForNull
+  private static ReportIndex read(File indexFile) {
+    if (!indexFile.isFile()) {
+      return null;
+    }
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+      if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+        return null;
+      }
+      String reportPath = input.readUTF();
+      long reportLength = input.readLong();
+      long reportLastModified = input.readLong();
+      boolean supported = input.readBoolean();
+      int files = input.readInt();
+      String[] paths = new String[files];
+      int[] fileLines = new int[files];
+      long[] starts = new long[files];
+      long[] ends = new long[files];
+      for (int i = 0; i < files; i++) {
+        paths[i] = input.readUTF();
+        fileLines[i] = input.readInt();
+        starts[i] = input.readLong();
+        ends[i] = input.readLong();
+      }
+      return new ReportIndex(reportPath, reportLength, reportLastModified, supported, paths, fileLines, starts, ends);
+    } catch (IOException | RuntimeException e) {
+      // a corrupted index is built again
+      return null;
+    }
+  }
+
+  /**
+   * Writes to a temporary file first, so that an analysis running at the same time never reads a partial index.
+   */
+  void write(File indexFile) throws IOException {
+    File directory = indexFile.getAbsoluteFile().getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create directory " + directory);
+    }
+    File tempFile = File.createTempFile(indexFile.getName(), ".tmp", directory);
+    try {
+      try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeUTF(reportPath);
+        output.writeLong(reportLength);
+        output.writeLong(reportLastModified);
+        output.writeBoolean(supported);
+        output.writeInt(paths.length);
+        for (int i = 0; i < paths.length; i++) {
+          output.writeUTF(paths[i]);
+          output.writeInt(fileLines[i]);
+          output.writeLong(starts[i]);
+          output.writeLong(ends[i]);
+        }
+      }
+      if (!tempFile.renameTo(indexFile) && (!indexFile.delete() || !tempFile.renameTo(indexFile))) {
+        throw new IOException("Cannot write " + indexFile);
+      }
+    } finally {
+      tempFile.delete();
+    }
+  }
+
+  int numberOfFiles() {
+    return paths.length;
+  }
+
+  /**
+   * Gives the parser the "file" elements referring to the files of the module, in the order of the report, as if it was
+   * scanning the report. Other elements are counted as unknown files without being read.
+   */
+  void parse(ReportParser parser, File report, Iterable<InputFile> moduleFiles) throws IOException {
+    BitSet moduleEntries = new BitSet(paths.length);
+    for (InputFile inputFile : moduleFiles) {
+      select(moduleEntries, "r:" + inputFile.relativePath());
+      select(moduleEntries, "a:" + inputFile.absolutePath());
+    }
+    CoverageReportScanner scanner = new CoverageReportScanner(parser.sink());
+    try (FileInputStream inputStream = new FileInputStream(report)) {
+      FileChannel channel = inputStream.getChannel();
+      for (int i = 0; i < paths.length; i++) {
+        if (!moduleEntries.get(i)) {
+          parser.unknownFile(paths[i]);
+          continue;
+        }
+        channel.position(starts[i]);
+        if (!scanner.scanFileElement(new RangeInputStream(Channels.newInputStream(channel), ends[i] - starts[i]), fileLines[i], paths[i])) {
+          throw new IllegalStateException("The index of the report does not match its content, delete " + file);
+        }
+        parser.metrics().bytesRead(ends[i] - starts[i]);
+      }
+    }
+  }
+
+  private void select(BitSet entries, String key) {
+    int index = Arrays.binarySearch(sortedKeys, key);
+    if (index < 0) {
+      return;
+    }
+    while (index > 0 && sortedKeys[index - 1].equals(key)) {
+      index--;
+    }
+    while (index < sortedKeys.length && sortedKeys[index].equals(key)) {
+      entries.set(sortedEntries[index]);
+      index++;
+    }
+  }
+
+  /**
+   * Paths are resolved like {@link InputFileIndex} does: a path which cannot be sanitized never matches.
+   */
+  private static String key(String path) {
+    String normalizedPath = PathUtils.sanitize(path);
+    if (normalizedPath == null) {
+      return "?";
+    }
+    return (new File(path).isAbsolute() ? "a:" : "r:") + normalizedPath;
+  }
+
+  private static class IndexingSink implements ReportSink {
+
+    private CoverageReportScanner scanner;
+    private final List<String> paths = new ArrayList<>();
+    private int[] fileLines = new int[256];
+    private long[] starts = new long[256];
+    private long[] ends = new long[256];
+
+    @Override
+    public boolean isUnknownFile(String path) {
+      // all elements are fully scanned, so that they can be scanned again on their own
+      return false;
+    }
+
+    @Override
+    public boolean startFile(String path, int lineNumber) {
+      int file = paths.size();
+      if (file == starts.length) {
+        fileLines = Arrays.copyOf(fileLines, file * 2);
+        starts = Arrays.copyOf(starts, file * 2);
+        ends = Arrays.copyOf(ends, file * 2);
+      }
+      paths.add(path);
+      fileLines[file] = lineNumber;
+      starts[file] = scanner.fileStart();
+      ends[file] = scanner.offset();
+      // only the location of elements is indexed
+      return false;
+    }
+
+    @Override
+    public void lineToCover(int lineNumber, boolean covered, int branchesToCover, int coveredBranches, int elementLineNumber) {
+      throw new UnsupportedOperationException("Lines are not indexed");
+    }
+
+    @Override
+    public void testCase(String name, TestCase.Status status, long duration, @Nullable TestCaseText message, @Nullable TestCaseText stackTrace,
+      int elementLineNumber) {
+      throw new UnsupportedOperationException("Only coverage reports are indexed");
+    }
+
+    @Override
+    public void endFile() {
+      throw new UnsupportedOperationException("Lines are not indexed");
+    }
+  }
+
+  private static class RangeInputStream extends FilterInputStream {
+
+    private long remaining;
+
+    RangeInputStream(InputStream in, long length) {
+      super(in);
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int b = in.read();
+      if (b >= 0) {
+        remaining--;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int read = in.read(b, off, (int) Math.min(len, remaining));
+      if (read > 0) {
+        remaining -= read;
+      }
+      return read;
+    }
+  }
+
+}
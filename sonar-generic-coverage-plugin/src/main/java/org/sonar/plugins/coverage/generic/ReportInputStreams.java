@@ -0,0 +1,107 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens reports, which may be gzip compressed whatever their name: compression is detected from the first bytes.
+ */
+final class ReportInputStreams {
+
+  private static final long MAPPING_THRESHOLD = 16L * 1024 * 1024;
+  private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+  private static final int[] GZIP_MAGIC = {0x1F, 0x8B};
+  private static final int[] ZSTD_MAGIC = {0x28, 0xB5, 0x2F, 0xFD};
+
+  private ReportInputStreams() {
+    // only static methods
+  }
+
+  /**
+   * Large reports are memory mapped, so that reading them does not cost a system call per buffer.
+   */
+  static InputStream open(File reportFile) throws IOException {
+    InputStream inputStream = openUncompressed(reportFile);
+    try {
+      return decompress(inputStream);
+    } catch (IOException | RuntimeException e) {
+      inputStream.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Same as {@link #open(File)}, for a report which is known not to be compressed.
+   */
+  static InputStream openUncompressed(File reportFile) throws IOException {
+    if (reportFile.length() >= MAPPING_THRESHOLD) {
+      return new MappedFileInputStream(reportFile);
+    }
+    return new FileInputStream(reportFile);
+  }
+
+  static boolean isCompressed(File reportFile) throws IOException {
+    try (InputStream inputStream = new FileInputStream(reportFile)) {
+      int[] firstBytes = firstBytes(inputStream);
+      return startsWith(firstBytes, GZIP_MAGIC) || startsWith(firstBytes, ZSTD_MAGIC);
+    }
+  }
+
+  /**
+   * @return a stream which supports {@link InputStream#mark}
+   */
+  static InputStream decompress(InputStream inputStream) throws IOException {
+    InputStream result = inputStream.markSupported() ? inputStream : new BufferedInputStream(inputStream);
+    result.mark(ZSTD_MAGIC.length);
+    int[] firstBytes = firstBytes(result);
+    result.reset();
+    if (startsWith(firstBytes, GZIP_MAGIC)) {
+      return new BufferedInputStream(new GZIPInputStream(result, GZIP_BUFFER_SIZE), GZIP_BUFFER_SIZE);
+    }
+    if (startsWith(firstBytes, ZSTD_MAGIC)) {
+      throw new IllegalStateException("Zstandard compressed reports are not supported, use gzip compression instead");
+    }
+    return result;
+  }
+
+  private static int[] firstBytes(InputStream inputStream) throws IOException {
+    int[] firstBytes = new int[ZSTD_MAGIC.length];
+    for (int i = 0; i < firstBytes.length; i++) {
+      firstBytes[i] = inputStream.read();
+    }
+    return firstBytes;
+  }
+
+  private static boolean startsWith(int[] bytes, int[] prefix) {
+    for (int i = 0; i < prefix.length; i++) {
+      if (bytes[i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,492 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Merges coverage reports, or unit tests reports, into a single XML report where files are sorted by path. Reports are
+ * validated and merged as when they are imported. When the files of each report are sorted by path, reports are read
+ * side by side and each merged file is written as soon as all reports went past it, so that memory only depends on the
+ * number of reports. Beyond {@value #MAX_SORTED_READERS} reports, which are read by as many threads, reports are merged
+ * by groups into temporary reports, which are then merged in turn. Otherwise, all reports are merged in memory first.
+ * The merged report is written to a temporary file, which only replaces it once all reports are merged. From the
+ * command line, with the plugin and the SonarQube plugin API in the classpath:
+ * <pre>
+ * java org.sonar.plugins.coverage.generic.ReportMerger merged.xml report1.xml report2.xml ...
+ * </pre>
+ */
+public final class ReportMerger {
+
+  // files read ahead from each report
+  private static final int QUEUE_CAPACITY = 64;
+  private static final int MAX_SORTED_READERS = 16;
+  private static final FileData END = new FileData(null, null, null);
+
+  private ReportMerger() {
+    // only static methods
+  }
+
+  public static void main(String[] args) throws IOException, XMLStreamException {
+    if (args.length < 2) {
+      System.err.println("Usage: ReportMerger <merged report> <report>...");
+      System.exit(1);
+    }
+    List<File> reports = new ArrayList<>();
+    for (int i = 1; i < args.length; i++) {
+      reports.add(new File(args[i]));
+    }
+    merge(reports, new File(args[0]));
+  }
+
+  public static void merge(List<File> reports, File mergedReport) throws IOException, XMLStreamException {
+    if (reports.isEmpty()) {
+      throw new IllegalArgumentException("No report to merge");
+    }
+    ReportParser.Mode mode = mode(reports.get(0));
+    File directory = mergedReport.getAbsoluteFile().getParentFile();
+    File partialReport = File.createTempFile(mergedReport.getName(), ".tmp", directory);
+    try {
+      if (!mergeSortedReports(reports, partialReport, mode)) {
+        mergeReports(reports, partialReport, mode);
+      }
+      replace(partialReport, mergedReport);
+    } finally {
+      Files.deleteIfExists(partialReport.toPath());
+    }
+  }
+
+  private static void replace(File source, File target) throws IOException {
+    try {
+      Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static ReportParser.Mode mode(File report) throws IOException, XMLStreamException {
+    try (InputStream inputStream = ReportInputStreams.open(report)) {
+      if (BinaryReportFormat.isBinary(inputStream)) {
+        return ReportParser.Mode.COVERAGE;
+      }
+      XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(inputStream);
+      try {
+        reader.nextTag();
+        return "unitTest".equals(reader.getLocalName()) ? ReportParser.Mode.UNITTEST : ReportParser.Mode.COVERAGE;
+      } finally {
+        reader.close();
+      }
+    }
+  }
+
+  /**
+   * @return false if the files of a report are not sorted by path
+   */
+  private static boolean mergeSortedReports(List<File> reports, File mergedReport, ReportParser.Mode mode) throws IOException, XMLStreamException {
+    if (reports.size() <= MAX_SORTED_READERS) {
+      return mergeSortedGroup(reports, mergedReport, mode);
+    }
+    File directory = mergedReport.getAbsoluteFile().getParentFile();
+    List<File> groupReports = new ArrayList<>();
+    try {
+      for (int start = 0; start < reports.size(); start += MAX_SORTED_READERS) {
+        File groupReport = File.createTempFile("merged", ".xml", directory);
+        groupReports.add(groupReport);
+        if (!mergeSortedGroup(reports.subList(start, Math.min(start + MAX_SORTED_READERS, reports.size())), groupReport, mode)) {
+          return false;
+        }
+      }
+      return mergeSortedReports(groupReports, mergedReport, mode);
+    } finally {
+      for (File groupReport : groupReports) {
+        groupReport.delete();
+      }
+    }
+  }
+
+  private static boolean mergeSortedGroup(List<File> reports, File mergedReport, ReportParser.Mode mode) throws IOException, XMLStreamException {
+    ExecutorService executor = Executors.newFixedThreadPool(reports.size());
+    try {
+      List<BlockingQueue<FileData>> queues = new ArrayList<>();
+      for (File report : reports) {
+        BlockingQueue<FileData> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        queues.add(queue);
+        executor.execute(new ReportReader(report, mode, queue));
+      }
+      PriorityQueue<Head> heads = new PriorityQueue<>(reports.size(), new Comparator<Head>() {
+        @Override
+        public int compare(Head head1, Head head2) {
+          int result = head1.data.path.compareTo(head2.data.path);
+          return result != 0 ? result : Integer.compare(head1.index, head2.index);
+        }
+      });
+      for (int i = 0; i < reports.size(); i++) {
+        FileData data = take(queues.get(i), reports.get(i));
+        if (data != END) {
+          heads.add(new Head(i, data));
+        }
+      }
+      try (MergedReportWriter writer = new MergedReportWriter(mergedReport, mode)) {
+        while (!heads.isEmpty()) {
+          FileData merged = null;
+          while (!heads.isEmpty() && (merged == null || heads.peek().data.path.equals(merged.path))) {
+            Head head = heads.poll();
+            merged = merged == null ? head.data : merge(merged, head.data);
+            FileData next = take(queues.get(head.index), reports.get(head.index));
+            if (next != END) {
+              if (next.path.compareTo(head.data.path) < 0) {
+                return false;
+              }
+              heads.add(new Head(head.index, next));
+            }
+          }
+          writer.write(merged);
+        }
+      }
+      return true;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static FileData take(BlockingQueue<FileData> queue, File report) {
+    FileData data;
+    try {
+      data = queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while merging reports", e);
+    }
+    if (data.failure != null) {
+      throw new IllegalStateException("Cannot merge report " + report.getAbsolutePath(), data.failure);
+    }
+    return data;
+  }
+
+  private static FileData merge(FileData data, FileData other) {
+    if (data.coverage != null) {
+      if (data.coverage.merge(other.coverage) == null) {
+        throw new IllegalStateException("\"branchesToCover\" mismatch between two different reports of file " + data.path);
+      }
+    } else if (!data.unitTests.merge(other.unitTests)) {
+      throw new IllegalStateException("A test case of file " + data.path + " is reported by two different reports");
+    }
+    return data;
+  }
+
+  private static void mergeReports(List<File> reports, File mergedReport, ReportParser.Mode mode) throws IOException, XMLStreamException {
+    final SortedMap<String, FileData> files = new TreeMap<>();
+    Collector collector = new Collector(mode, false) {
+      @Override
+      void collect(FileData data) {
+        files.put(data.path, data);
+      }
+    };
+    for (File report : reports) {
+      collector.read(report);
+    }
+    collector.finish();
+    try (MergedReportWriter writer = new MergedReportWriter(mergedReport, mode)) {
+      for (FileData data : files.values()) {
+        writer.write(data);
+      }
+    }
+  }
+
+  static final class FileData {
+
+    private final String path;
+    private final CustomCoverageMeasuresBuilder coverage;
+    private final UnitTestMeasuresBuilder unitTests;
+    private Exception failure;
+
+    FileData(@Nullable String path, @Nullable CustomCoverageMeasuresBuilder coverage, @Nullable UnitTestMeasuresBuilder unitTests) {
+      this.path = path;
+      this.coverage = coverage;
+      this.unitTests = unitTests;
+    }
+  }
+
+  private static final class Head {
+
+    private final int index;
+    private final FileData data;
+
+    Head(int index, FileData data) {
+      this.index = index;
+      this.data = data;
+    }
+  }
+
+  /**
+   * Collects the data of each file of the reports it reads, with its path as written in the reports: paths are not
+   * sanitized, as a path going out of the base directory would then be lost. In streaming mode, the data of a "file"
+   * element is given as soon as its end is reached, so that a file reported again later is given again. Otherwise, the
+   * data of all files is given by {@link #finish()}.
+   */
+  private abstract static class Collector implements ReportSink {
+
+    private final ReportParser.Mode mode;
+    private final boolean streaming;
+    private final Map<String, FileData> files = new LinkedHashMap<>();
+    private String path;
+
+    Collector(ReportParser.Mode mode, boolean streaming) {
+      this.mode = mode;
+      this.streaming = streaming;
+    }
+
+    abstract void collect(FileData data);
+
+    void read(File report) throws XMLStreamException {
+      new ReportParser(mode, this).parse(report, report.getPath());
+    }
+
+    void finish() {
+      for (FileData data : files.values()) {
+        collect(data);
+      }
+      files.clear();
+    }
+
+    @Override
+    public boolean isUnknownFile(String path) {
+      return false;
+    }
+
+    @Override
+    public boolean startFile(String path, int lineNumber) {
+      this.path = path;
+      return true;
+    }
+
+    @Override
+    public void lineToCover(int lineNumber, boolean covered, int branchesToCover, int coveredBranches, int elementLineNumber) {
+      CustomCoverageMeasuresBuilder coverage = data().coverage;
+      coverage.setHits(lineNumber, covered ? 1 : 0);
+      if (branchesToCover >= 0 && coverage.setConditions(lineNumber, branchesToCover, coveredBranches) == null) {
+        throw new ReportParsingException("\"branchesToCover\" mismatch between two different reports", elementLineNumber);
+      }
+    }
+
+    @Override
+    public void testCase(String name, TestCase.Status status, long duration, @Nullable TestCaseText message, @Nullable TestCaseText stackTrace,
+      int elementLineNumber) {
+      if (!data().unitTests.setTestCaseWithTexts(name, status, duration, message, stackTrace)) {
+        throw new ReportParsingException("\"testCase\" with name " + name + " reported twice", elementLineNumber);
+      }
+    }
+
+    @Override
+    public void endFile() {
+      if (streaming) {
+        FileData data = files.remove(path);
+        if (data != null) {
+          collect(data);
+        }
+      }
+      path = null;
+    }
+
+    /**
+     * Files without any line or test case are not collected.
+     */
+    private FileData data() {
+      FileData data = files.get(path);
+      if (data == null) {
+        if (mode == ReportParser.Mode.UNITTEST) {
+          data = new FileData(path, null, UnitTestMeasuresBuilder.create());
+        } else {
+          data = new FileData(path, CustomCoverageMeasuresBuilder.create(), null);
+        }
+        files.put(path, data);
+      }
+      return data;
+    }
+  }
+
+  /**
+   * Parses a report in streaming mode, and queues the data of each file as soon as its end is reached. Stops without
+   * any error when interrupted, as nobody reads the queue anymore.
+   */
+  static final class ReportReader implements Runnable {
+
+    private final File report;
+    private final ReportParser.Mode mode;
+    private final BlockingQueue<FileData> queue;
+
+    ReportReader(File report, ReportParser.Mode mode, BlockingQueue<FileData> queue) {
+      this.report = report;
+      this.mode = mode;
+      this.queue = queue;
+    }
+
+    @Override
+    public void run() {
+      Collector collector = new Collector(mode, true) {
+        @Override
+        void collect(FileData data) {
+          put(data);
+        }
+      };
+      FileData end = END;
+      try {
+        collector.read(report);
+      } catch (Exception e) {
+        if (Thread.currentThread().isInterrupted()) {
+          return;
+        }
+        end = new FileData(null, null, null);
+        end.failure = e;
+      }
+      try {
+        queue.put(end);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    /**
+     * Stops parsing when interrupted.
+     */
+    private void put(FileData data) {
+      try {
+        queue.put(data);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while reading " + report, e);
+      }
+    }
+  }
+
+  private static final class MergedReportWriter implements Closeable {
+
+    private final OutputStream outputStream;
+    private final XMLStreamWriter writer;
+
+    MergedReportWriter(File file, ReportParser.Mode mode) throws IOException, XMLStreamException {
+      outputStream = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+      writer = XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, "UTF-8");
+      writer.writeStartDocument("UTF-8", "1.0");
+      writer.writeCharacters("\n");
+      writer.writeStartElement(mode == ReportParser.Mode.UNITTEST ? "unitTest" : "coverage");
+      writer.writeAttribute("version", "1");
+    }
+
+    void write(FileData data) throws XMLStreamException {
+      writer.writeCharacters("\n  ");
+      writer.writeStartElement("file");
+      writer.writeAttribute("path", data.path);
+      if (data.coverage != null) {
+        writeLines(data.coverage);
+      } else {
+        writeTestCases(data.unitTests);
+      }
+      writer.writeCharacters("\n  ");
+      writer.writeEndElement();
+    }
+
+    private void writeLines(CustomCoverageMeasuresBuilder coverage) throws XMLStreamException {
+      for (int i = 0; i < coverage.lineCount(); i++) {
+        int hits = coverage.hitsAt(i);
+        if (hits < 0) {
+          // lines are always reported with hits
+          continue;
+        }
+        writer.writeCharacters("\n    ");
+        writer.writeEmptyElement("lineToCover");
+        writer.writeAttribute("lineNumber", Integer.toString(coverage.lineAt(i)));
+        writer.writeAttribute("covered", Boolean.toString(hits > 0));
+        if (coverage.conditionsAt(i) > 0) {
+          writer.writeAttribute("branchesToCover", Integer.toString(coverage.conditionsAt(i)));
+          writer.writeAttribute("coveredBranches", Integer.toString(coverage.coveredConditionsAt(i)));
+        }
+      }
+    }
+
+    private void writeTestCases(UnitTestMeasuresBuilder unitTests) throws XMLStreamException {
+      for (TestCase testCase : unitTests.getTestCases()) {
+        writer.writeCharacters("\n    ");
+        if (testCase.getStatusValue() == TestCase.Status.OK) {
+          writer.writeEmptyElement("testCase");
+          writeTestCaseAttributes(testCase);
+        } else {
+          writer.writeStartElement("testCase");
+          writeTestCaseAttributes(testCase);
+          writer.writeStartElement(testCase.getStatus());
+          writer.writeAttribute("message", testCase.getMessage() == null ? "" : testCase.getMessage());
+          if (testCase.getStackTrace() != null) {
+            writer.writeCharacters(testCase.getStackTrace());
+          }
+          writer.writeEndElement();
+          writer.writeEndElement();
+        }
+      }
+    }
+
+    private void writeTestCaseAttributes(TestCase testCase) throws XMLStreamException {
+      writer.writeAttribute("name", testCase.getName());
+      writer.writeAttribute("duration", Long.toString(testCase.getDuration()));
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        writer.writeCharacters("\n");
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.close();
+        outputStream.write('\n');
+      } catch (XMLStreamException e) {
+        throw new IOException(e);
+      } finally {
+        outputStream.close();
+      }
+    }
+  }
+
+}
@@ -20,6 +20,8 @@
 package org.sonar.plugins.coverage.generic;
 
 import com.google.common.base.Preconditions;
+import org.codehaus.stax2.XMLStreamReader2;
+import org.codehaus.staxmate.in.SMFilterFactory;
 import org.codehaus.staxmate.in.SMHierarchicCursor;
 import org.codehaus.staxmate.in.SMInputCursor;
 import org.sonar.api.batch.SensorContext;
@@ -30,16 +32,21 @@ import org.sonar.api.measures.Measure;
 import org.sonar.api.test.MutableTestPlan;
 import org.sonar.api.utils.StaxParser;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 import javax.xml.stream.XMLStreamException;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class ReportParser {
 
@@ -57,93 +64,477 @@ public class ReportParser {
 
   private static final int MAX_STORED_UNKNOWN_FILE_PATHS = 5;
 
-  private final FileSystem fileSystem;
+  private final InputFileIndex inputFileIndex;
   private final SensorContext context;
   private final ResourcePerspectives perspectives;
   private final Mode mode;
+  private final ReportSink sink;
 
   private int numberOfUnknownFiles;
   private String currentReportName;
   private final List<String> firstUnknownFiles = new ArrayList<>();
   private final Set<String> matchedFileKeys = new HashSet<>();
-  private final Map<InputFile, CustomCoverageMeasuresBuilder> coverageMeasures = new HashMap<>();
+  // in access order, from the least to the most recently reported file
+  private final Map<InputFile, CustomCoverageMeasuresBuilder> coverageMeasures = new LinkedHashMap<>(16, 0.75f, true);
   private final Map<InputFile, UnitTestMeasuresBuilder> unitTestMeasures = new HashMap<>();
+  private final AttributeDecoder attributeDecoder = new AttributeDecoder();
+  private boolean streaming;
+  private long memoryBudget;
+  private java.io.File spillDirectory;
+  private long coverageMemory;
+  private CoverageSpillLog spillLog;
+  private int maxTestCaseTextLength;
+  private boolean compressTestCaseTexts;
+  private TestCaseTexts testCaseTexts = new TestCaseTexts(false);
+  private boolean lazyStackTraces;
+  private final List<ReportTextSource> textSources = new ArrayList<>();
+  private ReportTextSource currentTextSource;
+  private ReportCache reportCache;
+  private SharedReportStore sharedStore;
+  private long sharedStoreBudget;
+  private SharedReportIndexes reportIndexes;
+  private java.io.File indexDirectory;
+  private int pipelineWorkers;
+  private final ImportMetrics metrics = new ImportMetrics();
+  private ReportProgress.Listener progressListener;
+  private long progressIntervalNanos;
 
   public ReportParser(FileSystem fileSystem, SensorContext context, ResourcePerspectives perspectives, Mode mode) {
-    this.fileSystem = fileSystem;
+    this(new InputFileIndex(fileSystem, context), context, perspectives, mode);
+  }
+
+  /**
+   * @param inputFileIndex may be shared by several parsers, so that each path is resolved once
+   */
+  public ReportParser(InputFileIndex inputFileIndex, SensorContext context, ResourcePerspectives perspectives, Mode mode) {
+    this.inputFileIndex = inputFileIndex;
     this.context = context;
     this.perspectives = perspectives;
     this.mode = mode;
+    this.sink = new MeasuresSink();
+  }
+
+  /**
+   * A parser which only reads reports, with {@link #parse(java.io.File, String)} or {@link #parse(InputStream)}, and
+   * gives their data to the sink instead of building measures.
+   */
+  ReportParser(Mode mode, ReportSink sink) {
+    this.inputFileIndex = null;
+    this.context = null;
+    this.perspectives = null;
+    this.mode = mode;
+    this.sink = sink;
+  }
+
+  /**
+   * A parser configured like the template, without any of its data, for another thread parsing the same report, see
+   * {@link ReportPipeline}, or other reports, see {@link #newShard(int)}.
+   */
+  ReportParser(ReportParser template) {
+    this(template.inputFileIndex, template.context, template.perspectives, template.mode);
+    this.currentReportName = template.currentReportName;
+    this.streaming = template.streaming;
+    this.memoryBudget = template.memoryBudget;
+    this.spillDirectory = template.spillDirectory;
+    configureTestCaseTexts(template.maxTestCaseTextLength, template.compressTestCaseTexts, template.lazyStackTraces);
+    this.reportCache = template.reportCache;
+    this.sharedStore = template.sharedStore;
+    this.sharedStoreBudget = template.sharedStoreBudget;
+    this.reportIndexes = template.reportIndexes;
+    this.indexDirectory = template.indexDirectory;
+    this.pipelineWorkers = template.pipelineWorkers;
+    this.progressListener = template.progressListener;
+    this.progressIntervalNanos = template.progressIntervalNanos;
+  }
+
+  /**
+   * @return a parser configured like this one, for one of the threads parsing other reports at the same time, see
+   * {@link ParallelReportParser}: the memory budget is shared between them
+   */
+  ReportParser newShard(int shards) {
+    ReportParser shard = new ReportParser(this);
+    shard.memoryBudget = memoryBudget / shards;
+    return shard;
+  }
+
+  /**
+   * Saves the measures of each "file" element as soon as its end is reached, instead of keeping them until
+   * {@link #saveMeasures()}, so that memory only depends on the largest file. A file reported twice, by the same report
+   * or by another report parsed by this parser, is then an error.
+   */
+  public void enableStreaming() {
+    streaming = true;
+  }
+
+  /**
+   * Beyond the memory budget, the coverage data of the least recently reported files is moved to a temporary file of
+   * the directory, and read back when measures are saved. A mismatch between the number of branches of a line in a
+   * moved file and in a report parsed later is then only detected when measures are saved.
+   *
+   * @param memoryBudget approximate number of bytes used by coverage data in memory
+   * @param directory where to create the temporary file, or null for the default temporary directory
+   */
+  public void enableSpilling(long memoryBudget, @Nullable java.io.File directory) {
+    this.memoryBudget = memoryBudget;
+    this.spillDirectory = directory;
   }
 
+  /**
+   * Failures, errors and skipped tests often share their message and stack trace: each distinct text is kept once.
+   *
+   * @param maxLength maximum number of characters kept from each message and stack trace, 0 for no maximum
+   * @param compress whether to keep texts deflated until measures are saved
+   * @param lazyStackTraces whether to only keep the location of stack traces in uncompressed UTF-8 reports, and read
+   * them back from the report when measures are saved
+   */
+  public void configureTestCaseTexts(int maxLength, boolean compress, boolean lazyStackTraces) {
+    this.maxTestCaseTextLength = maxLength;
+    this.compressTestCaseTexts = compress;
+    this.testCaseTexts = new TestCaseTexts(compress);
+    this.lazyStackTraces = lazyStackTraces;
+  }
+
+  /**
+   * Unchanged XML coverage reports are then read from their snapshot in the cache, and changed ones write their new
+   * snapshot while they are parsed. Errors found while reading a snapshot refer to its records instead of the lines of
+   * the report.
+   */
+  void enableCache(ReportCache cache) {
+    this.reportCache = cache;
+  }
+
+  /**
+   * Coverage reports are then parsed once in the store, whatever the number of modules, and only the data of the files of
+   * the module is replayed from the store. A report is then validated as a whole, including the files of other modules.
+   * Reports which do not fit in the budget of the store, in bytes, are parsed by each module.
+   */
+  void enableSharedStore(SharedReportStore store, long budget) {
+    this.sharedStore = store;
+    this.sharedStoreBudget = budget;
+  }
+
+  /**
+   * Uncompressed XML coverage reports are then only read for the "file" elements referring to files of the project,
+   * located with a {@link ReportIndex} kept in the directory for each report. The index is built the first time a report
+   * is parsed, and again when the report changes.
+   */
+  public void enableReportIndexes(java.io.File directory) {
+    enableReportIndexes(new SharedReportIndexes(), directory);
+  }
+
+  /**
+   * Same as {@link #enableReportIndexes(java.io.File)}, with indexes shared by other parsers, which can be parsers of
+   * other modules: the directory is then only used when no other parser already indexed the report.
+   */
+  void enableReportIndexes(SharedReportIndexes indexes, java.io.File directory) {
+    this.reportIndexes = indexes;
+    this.indexDirectory = directory;
+  }
+
+  /**
+   * XML coverage reports in the canonical subset of the format are then tokenized by the parsing thread while workers
+   * resolve paths and fill builders, see {@link ReportPipeline}. Ignored in streaming mode and with a memory budget.
+   */
+  public void enablePipeline(int workers) {
+    this.pipelineWorkers = workers;
+  }
+
+  /**
+   * Sends the progress of each report to the listener every interval, from the parsing thread. Progress is measured on
+   * the bytes read from the file, so the elapsed time is only checked every few hundred kilobytes.
+   */
+  void enableProgress(long intervalMillis, ReportProgress.Listener listener) {
+    this.progressIntervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    this.progressListener = listener;
+  }
+
+  /**
+   * Coverage reports are either binary reports, or XML reports first read with a {@link CoverageReportScanner} and only
+   * parsed as XML if they go beyond what the scanner supports.
+   */
   public void parse(java.io.File reportFile, String reportName) throws XMLStreamException {
-    try (InputStream inputStream = new FileInputStream(reportFile)) {
-      currentReportName = reportName;
-      parse(inputStream);
+    currentReportName = reportName;
+    long start = System.nanoTime();
+    long bytes = metrics.bytesRead();
+    long elements = metrics.elements();
+    parse(reportFile);
+    metrics.addReport(reportName, metrics.bytesRead() - bytes, metrics.elements() - elements, System.nanoTime() - start);
+  }
+
+  private void parse(java.io.File reportFile) throws XMLStreamException {
+    try {
+      if (mode != Mode.UNITTEST && sharedStore != null) {
+        SharedReportStore.StoredReport storedReport = sharedStore.report(reportFile, currentReportName, sharedStoreBudget, metrics);
+        if (storedReport != null) {
+          storedReport.replay(this, inputFileIndex.inputFiles());
+          return;
+        }
+      }
+      if (mode != Mode.UNITTEST && reportIndexes != null) {
+        ReportIndex index = reportIndexes.index(reportFile, indexDirectory);
+        if (index != null) {
+          index.parse(this, reportFile, inputFileIndex.inputFiles());
+          return;
+        }
+      }
+      if (mode != Mode.UNITTEST && reportCache != null) {
+        try (ReportCache.Entry entry = reportCache.entry(reportFile)) {
+          if (entry != null) {
+            if (entry.snapshot() != null) {
+              readSnapshot(entry.snapshot());
+            } else {
+              parseCoverage(reportFile, entry.newSnapshot());
+              entry.commit();
+            }
+            return;
+          }
+        }
+      }
+      if (mode != Mode.UNITTEST) {
+        parseCoverage(reportFile, null);
+      } else if (lazyStackTraces && !ReportInputStreams.isCompressed(reportFile)) {
+        parseWithTextSource(reportFile);
+      } else {
+        try (InputStream inputStream = open(reportFile)) {
+          parse(inputStream, 0, sink);
+        }
+      }
     } catch (IOException e) {
       throw new IllegalStateException(e);
     }
   }
 
+  /**
+   * @param copy also given all the data of the report, in the order of the report
+   */
+  private void parseCoverage(java.io.File reportFile, @Nullable ReportSink copy) throws IOException, XMLStreamException {
+    ReportSink target = copy == null ? sink : new TeeSink(sink, copy);
+    int skippedFiles;
+    try (InputStream inputStream = open(reportFile)) {
+      if (readBinaryReport(inputStream, target)) {
+        return;
+      }
+      if (pipelineWorkers > 0 && !streaming && memoryBudget == 0) {
+        ReportPipeline pipeline = new ReportPipeline(this, pipelineWorkers);
+        if (pipeline.parse(inputStream, copy)) {
+          return;
+        }
+        skippedFiles = pipeline.committedFiles();
+      } else {
+        CoverageReportScanner scanner = new CoverageReportScanner(target);
+        if (scanner.scan(inputStream)) {
+          return;
+        }
+        skippedFiles = scanner.committedFiles();
+      }
+    }
+    try (InputStream inputStream = open(reportFile)) {
+      parse(inputStream, skippedFiles, target);
+    }
+  }
+
+  private void parseWithTextSource(java.io.File reportFile) throws IOException, XMLStreamException {
+    ReportTextSource textSource = new ReportTextSource(reportFile);
+    textSources.add(textSource);
+    currentTextSource = textSource;
+    try (InputStream inputStream = textSource.track(openUncompressed(reportFile))) {
+      parse(inputStream, 0, sink);
+    } finally {
+      currentTextSource = null;
+    }
+  }
+
+  private InputStream open(java.io.File file) throws IOException {
+    InputStream inputStream = openUncompressed(file);
+    try {
+      return ReportInputStreams.decompress(inputStream);
+    } catch (IOException | RuntimeException e) {
+      inputStream.close();
+      throw e;
+    }
+  }
+
+  private InputStream openUncompressed(java.io.File file) throws IOException {
+    InputStream inputStream = new CountingInputStream(ReportInputStreams.openUncompressed(file), metrics);
+    if (progressListener == null) {
+      return inputStream;
+    }
+    return new ProgressInputStream(inputStream, currentReportName, file.length(), progressIntervalNanos, progressListener, metrics);
+  }
+
   public void parse(InputStream inputStream) throws XMLStreamException {
+    try {
+      InputStream decompressedStream = ReportInputStreams.decompress(inputStream);
+      if (!readBinaryReport(decompressedStream, sink)) {
+        parse(decompressedStream, 0, sink);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void readSnapshot(java.io.File snapshot) throws IOException {
+    try (InputStream inputStream = open(snapshot)) {
+      new BinaryReportReader(sink).read(inputStream);
+    } catch (ReportParsingException e) {
+      throw new ReportParsingException(e.getMessage() + " (record " + e.lineNumber() + " of the cached snapshot " + snapshot + ")", e, e.lineNumber());
+    }
+  }
+
+  /**
+   * @return false if the report is not a binary coverage report, in which case nothing was read from the stream
+   */
+  private boolean readBinaryReport(InputStream inputStream, ReportSink target) throws IOException {
+    if (mode == Mode.UNITTEST || !BinaryReportFormat.isBinary(inputStream)) {
+      return false;
+    }
+    new BinaryReportReader(target).read(inputStream);
+    return true;
+  }
+
+  private void parse(InputStream inputStream, final int skippedFiles, final ReportSink target) throws XMLStreamException {
     StaxParser parser = new StaxParser(new StaxParser.XmlStreamHandler() {
       @Override
       public void stream(SMHierarchicCursor rootCursor) throws XMLStreamException {
         rootCursor.advance();
-        parseRootNode(rootCursor);
+        parseRootNode(rootCursor, skippedFiles, target);
       }
     });
     parser.parse(inputStream);
   }
 
-  private void parseRootNode(SMHierarchicCursor rootCursor) throws XMLStreamException {
+  private void parseRootNode(SMHierarchicCursor rootCursor, int skippedFiles, ReportSink target) throws XMLStreamException {
     checkElementName(rootCursor, mode == Mode.UNITTEST ? "unitTest" : "coverage");
     String version = rootCursor.getAttrValue("version");
     if (!"1".equals(version)) {
       String message = "Unknown coverage version: " + version + ". This parser only handles version 1.";
       throw new ReportParsingException(message, rootCursor);
     }
-    parseFiles(rootCursor.childElementCursor());
+    parseFiles(rootCursor.childElementCursor(), skippedFiles, target);
   }
 
-  private void parseFiles(SMInputCursor fileCursor) throws XMLStreamException {
+  private void parseFiles(SMInputCursor fileCursor, int skippedFiles, ReportSink target) throws XMLStreamException {
+    int fileIndex = 0;
     while (fileCursor.getNext() != null) {
       checkElementName(fileCursor, "file");
-      String filePath = mandatoryAttribute(fileCursor, "path");
-      InputFile resource = fileSystem.inputFile(fileSystem.predicates().hasPath(filePath));
-      if (resource == null || context.getResource(resource) == null) {
-        numberOfUnknownFiles++;
-        if (numberOfUnknownFiles <= MAX_STORED_UNKNOWN_FILE_PATHS) {
-          firstUnknownFiles.add(filePath);
-        }
+      fileIndex++;
+      if (fileIndex <= skippedFiles) {
         continue;
       }
-      Preconditions.checkState(
-        resource.language() != null,
-        "Line %s of report %s refers to a file with an unknown language: %s",
-        fileCursor.getCursorLocation().getLineNumber(),
-        currentReportName,
-        filePath
-      );
-      if (mode == Mode.UNITTEST) {
-        Preconditions.checkState(
-          resource.type() != InputFile.Type.MAIN,
-          "Line %s of report %s refers to a file which is not configured as a test file: %s",
-          fileCursor.getCursorLocation().getLineNumber(),
-          currentReportName,
-          filePath
-        );
+      String filePath = mandatoryAttribute(fileCursor, "path");
+      if (!target.startFile(filePath, fileCursor.getCursorLocation().getLineNumber())) {
+        continue;
       }
-      matchedFileKeys.add(resource.absolutePath());
 
       SMInputCursor testCaseCursor = fileCursor.childElementCursor();
       while (testCaseCursor.getNext() != null) {
         if (Mode.UNITTEST == mode) {
-          parseTestCase(resource, testCaseCursor);
+          parseTestCase(testCaseCursor, target);
         } else {
-          parseLineToCover(resource, testCaseCursor);
+          parseLineToCover(testCaseCursor, target);
         }
       }
+      target.endFile();
+    }
+  }
+
+  /**
+   * Looks the path up without counting it, so that the content of an unknown file can be skipped before
+   * {@link #resolveFile} is called for it.
+   */
+  boolean isUnknownFile(String filePath) {
+    return inputFileIndex.inputFile(filePath) == null;
+  }
+
+  /**
+   * @return null if the file is unknown, in which case it is counted as such
+   */
+  @CheckForNull
+  InputFile resolveFile(String filePath, int lineNumber) {
+    metrics.fileParsed();
+    long start = System.nanoTime();
+    InputFile resource = inputFileIndex.inputFile(filePath);
+    metrics.addPathResolution(System.nanoTime() - start);
+    if (resource == null) {
+      unknownFile(filePath);
+      return null;
+    }
+    Preconditions.checkState(
+      resource.language() != null,
+      "Line %s of report %s refers to a file with an unknown language: %s",
+      lineNumber,
+      currentReportName,
+      filePath
+    );
+    if (mode == Mode.UNITTEST) {
+      Preconditions.checkState(
+        resource.type() != InputFile.Type.MAIN,
+        "Line %s of report %s refers to a file which is not configured as a test file: %s",
+        lineNumber,
+        currentReportName,
+        filePath
+      );
+    }
+    boolean firstReported = matchedFileKeys.add(resource.absolutePath());
+    Preconditions.checkState(
+      firstReported || !streaming,
+      "Line %s of report %s refers to a file which was already reported, although reports are declared disjoint: %s",
+      lineNumber,
+      currentReportName,
+      filePath
+    );
+    return resource;
+  }
+
+  /**
+   * Counts a "file" element referring to a file which is not known to SonarQube.
+   */
+  void unknownFile(String filePath) {
+    numberOfUnknownFiles++;
+    if (numberOfUnknownFiles <= MAX_STORED_UNKNOWN_FILE_PATHS) {
+      firstUnknownFiles.add(filePath);
+    }
+  }
+
+  /**
+   * Counts unknown files found by other parsers of the same report.
+   *
+   * @param firstFilePaths paths of the first of them, in the order of the report
+   */
+  void unknownFiles(List<String> firstFilePaths, int count) {
+    for (String filePath : firstFilePaths) {
+      if (firstUnknownFiles.size() < MAX_STORED_UNKNOWN_FILE_PATHS) {
+        firstUnknownFiles.add(filePath);
+      }
+    }
+    numberOfUnknownFiles += count;
+  }
+
+  /**
+   * Builders of the files reported so far, which can be moved to and from the parsers of a {@link ReportPipeline}.
+   */
+  Map<InputFile, CustomCoverageMeasuresBuilder> coverageMeasures() {
+    return coverageMeasures;
+  }
+
+  /**
+   * Called once all the data of a "file" element was given to this parser.
+   */
+  void endFile(InputFile resource) {
+    if (!streaming) {
+      return;
+    }
+    if (mode == Mode.UNITTEST) {
+      UnitTestMeasuresBuilder measuresBuilder = unitTestMeasures.remove(resource);
+      if (measuresBuilder != null) {
+        saveUnitTestMeasures(resource, measuresBuilder);
+      }
+    } else {
+      CustomCoverageMeasuresBuilder measuresBuilder = coverageMeasures.remove(resource);
+      if (measuresBuilder != null) {
+        coverageMemory -= measuresBuilder.memorySize();
+        saveCoverageMeasures(resource, withSpilledData(resource, measuresBuilder));
+      }
     }
   }
 
@@ -152,6 +543,7 @@ public class ReportParser {
     if (measuresBuilder == null) {
       measuresBuilder = UnitTestMeasuresBuilder.create();
       unitTestMeasures.put(resource, measuresBuilder);
+      metrics.builders(unitTestMeasures.size());
     }
     return measuresBuilder;
   }
@@ -159,87 +551,193 @@ public class ReportParser {
   private CustomCoverageMeasuresBuilder getCoverageMeasuresBuilder(InputFile resource) {
     CustomCoverageMeasuresBuilder measuresBuilder = coverageMeasures.get(resource);
     if (measuresBuilder == null) {
-      measuresBuilder = CustomCoverageMeasuresBuilder.create();
-      switch (mode) {
-        case IT_COVERAGE:
-          measuresBuilder.enableITMode();
-          break;
-        case OVERALL_COVERAGE:
-          measuresBuilder.enableOverallMode();
-          break;
-        default:
-          break;
-      }
+      measuresBuilder = newCoverageMeasuresBuilder();
       coverageMeasures.put(resource, measuresBuilder);
+      coverageMemory += measuresBuilder.memorySize();
+      metrics.builders(coverageMeasures.size());
     }
     return measuresBuilder;
   }
 
-  private void parseLineToCover(InputFile resource, SMInputCursor cursor)
-    throws XMLStreamException {
-    CustomCoverageMeasuresBuilder measureBuilder = getCoverageMeasuresBuilder(resource);
+  private CustomCoverageMeasuresBuilder newCoverageMeasuresBuilder() {
+    CustomCoverageMeasuresBuilder measuresBuilder = CustomCoverageMeasuresBuilder.create();
+    switch (mode) {
+      case IT_COVERAGE:
+        measuresBuilder.enableITMode();
+        break;
+      case OVERALL_COVERAGE:
+        measuresBuilder.enableOverallMode();
+        break;
+      default:
+        break;
+    }
+    return measuresBuilder;
+  }
+
+  private void parseLineToCover(SMInputCursor cursor, ReportSink target) throws XMLStreamException {
     checkElementName(cursor, "lineToCover");
-    String lineNumberAsString = mandatoryAttribute(cursor, LINE_NUMBER_ATTR);
-    int lineNumber = intValue(lineNumberAsString, cursor, LINE_NUMBER_ATTR, 1);
+    int lineNumber = intValue(mandatoryAttributeIndex(cursor, LINE_NUMBER_ATTR), cursor, LINE_NUMBER_ATTR, 1);
 
     boolean covered = getCoveredValue(cursor);
-    measureBuilder.setHits(lineNumber, covered ? 1 : 0);
 
-    String branchesToCoverAsString = cursor.getAttrValue(BRANCHES_TO_COVER_ATTR);
-    if (branchesToCoverAsString != null) {
-      int branchesToCover = intValue(branchesToCoverAsString, cursor, BRANCHES_TO_COVER_ATTR, 0);
-      String coveredBranchesAsString = cursor.getAttrValue(COVERED_BRANCHES_ATTR);
-      int coveredBranches = 0;
-      if (coveredBranchesAsString != null) {
-        coveredBranches = intValue(coveredBranchesAsString, cursor, COVERED_BRANCHES_ATTR, 0);
+    int branchesToCoverIndex = cursor.findAttrIndex(null, BRANCHES_TO_COVER_ATTR);
+    int branchesToCover = -1;
+    int coveredBranches = 0;
+    if (branchesToCoverIndex >= 0) {
+      branchesToCover = intValue(branchesToCoverIndex, cursor, BRANCHES_TO_COVER_ATTR, 0);
+      int coveredBranchesIndex = cursor.findAttrIndex(null, COVERED_BRANCHES_ATTR);
+      if (coveredBranchesIndex >= 0) {
+        coveredBranches = intValue(coveredBranchesIndex, cursor, COVERED_BRANCHES_ATTR, 0);
         if (coveredBranches > branchesToCover) {
           throw new ReportParsingException("\"coveredBranches\" should not be greater than \"branchesToCover\"", cursor);
         }
       }
-      if (measureBuilder.setConditions(lineNumber, branchesToCover, coveredBranches) == null) {
-        throw new ReportParsingException("\"branchesToCover\" mismatch between two different reports", cursor);
-      }
+    }
+    target.lineToCover(lineNumber, covered, branchesToCover, coveredBranches, cursor.getCursorLocation().getLineNumber());
+  }
+
+  /**
+   * @param branchesToCover -1 if the line has no branches
+   * @param elementLineNumber line of the "lineToCover" element in the report
+   */
+  void addLineToCover(InputFile resource, int lineNumber, boolean covered, int branchesToCover, int coveredBranches, int elementLineNumber) {
+    metrics.elementParsed();
+    CustomCoverageMeasuresBuilder measureBuilder = getCoverageMeasuresBuilder(resource);
+    long memorySize = measureBuilder.memorySize();
+    measureBuilder.setHits(lineNumber, covered ? 1 : 0);
+    if (branchesToCover >= 0 && measureBuilder.setConditions(lineNumber, branchesToCover, coveredBranches) == null) {
+      throw new ReportParsingException("\"branchesToCover\" mismatch between two different reports", elementLineNumber);
+    }
+    coverageMemory += measureBuilder.memorySize() - memorySize;
+    if (memoryBudget > 0 && coverageMemory > memoryBudget) {
+      spillColdFiles();
     }
   }
 
-  private static boolean getCoveredValue(SMInputCursor cursor) throws XMLStreamException {
-    String coveredAsString = mandatoryAttribute(cursor, COVERED_ATTR);
+  /**
+   * Spills down to half the budget, so that spilling does not happen again with the next line. The most recently
+   * reported file is kept in memory.
+   */
+  private void spillColdFiles() {
+    if (spillLog == null) {
+      spillLog = new CoverageSpillLog(spillDirectory);
+    }
+    Iterator<Map.Entry<InputFile, CustomCoverageMeasuresBuilder>> entries = coverageMeasures.entrySet().iterator();
+    while (coverageMemory > memoryBudget / 2 && coverageMeasures.size() > 1) {
+      Map.Entry<InputFile, CustomCoverageMeasuresBuilder> entry = entries.next();
+      spillLog.spill(entry.getKey(), entry.getValue());
+      coverageMemory -= entry.getValue().memorySize();
+      entries.remove();
+    }
+  }
+
+  /**
+   * @return the builder, with the data spilled for the file
+   */
+  private CustomCoverageMeasuresBuilder withSpilledData(InputFile inputFile, CustomCoverageMeasuresBuilder measuresBuilder) {
+    if (spillLog != null) {
+      Preconditions.checkState(
+        spillLog.mergeInto(inputFile, measuresBuilder) != null,
+        "\"branchesToCover\" mismatch between two different reports of file %s",
+        inputFile.relativePath()
+      );
+    }
+    return measuresBuilder;
+  }
+
+  private boolean getCoveredValue(SMInputCursor cursor) throws XMLStreamException {
+    int index = mandatoryAttributeIndex(cursor, COVERED_ATTR);
+    if (attributeDecoder.decodeBoolean(cursor, index)) {
+      return attributeDecoder.booleanValue();
+    }
+    String coveredAsString = cursor.getAttrValue(index);
     if (!"true".equalsIgnoreCase(coveredAsString) && !"false".equalsIgnoreCase(coveredAsString)) {
       throw new ReportParsingException(expectedMessage("boolean value", COVERED_ATTR, coveredAsString), cursor);
     }
     return Boolean.parseBoolean(coveredAsString);
   }
 
-  private void parseTestCase(InputFile resource, SMInputCursor cursor) throws XMLStreamException {
-    UnitTestMeasuresBuilder measures = getUnitTestMeasuresBuilder(resource);
+  private void parseTestCase(SMInputCursor cursor, ReportSink target) throws XMLStreamException {
     checkElementName(cursor, "testCase");
     String name = mandatoryAttribute(cursor, NAME_ATTR);
-    String status = TestCase.OK;
+    TestCase.Status status = TestCase.Status.OK;
     String durationAsString = mandatoryAttribute(cursor, DURATION_ATTR);
     long duration = longValue(durationAsString, cursor, DURATION_ATTR, 0);
 
     String message = null;
-    String stacktrace = null;
+    TestCaseText stacktrace = null;
     int cursorLine = cursor.getCursorLocation().getLineNumber();
     SMInputCursor child = cursor.descendantElementCursor();
     if (child.getNext() != null) {
-      String elementName = child.getLocalName();
-      if (TestCase.SKIPPED.equals(elementName)) {
-        status = TestCase.SKIPPED;
-      } else if (TestCase.FAILURE.equals(elementName)) {
-        status = TestCase.FAILURE;
-      } else if (TestCase.ERROR.equals(elementName)) {
-        status = TestCase.ERROR;
+      TestCase.Status childStatus = TestCase.Status.of(child.getLocalName());
+      if (childStatus != null) {
+        status = childStatus;
       }
-      if (!TestCase.OK.equals(status)) {
-        message = mandatoryAttribute(child, MESSAGE_ATTR);
-        stacktrace = child.collectDescendantText();
+      if (status != TestCase.Status.OK) {
+        message = TestCaseText.truncate(mandatoryAttribute(child, MESSAGE_ATTR), maxTestCaseTextLength);
+        stacktrace = canReadBack(child) ? stackTraceInReport(child) : testCaseTexts.intern(collectStackTrace(child));
       }
     }
 
-    if (!measures.setTestCase(name, status, duration, message, stacktrace)) {
-      throw new ReportParsingException("\"testCase\" with name " + name + " reported twice", cursorLine);
+    target.testCase(name, status, duration, testCaseTexts.intern(message), stacktrace, cursorLine);
+  }
+
+  /**
+   * @param elementLineNumber line of the "testCase" element in the report
+   */
+  void addTestCase(InputFile resource, String name, TestCase.Status status, long duration, @Nullable TestCaseText message,
+    @Nullable TestCaseText stackTrace, int elementLineNumber) {
+    metrics.elementParsed();
+    if (!getUnitTestMeasuresBuilder(resource).setTestCaseWithTexts(name, status, duration, message, stackTrace)) {
+      throw new ReportParsingException("\"testCase\" with name " + name + " reported twice", elementLineNumber);
+    }
+  }
+
+  /**
+   * Same as {@link SMInputCursor#collectDescendantText()}, without keeping more than the maximum length in memory.
+   */
+  private String collectStackTrace(SMInputCursor cursor) throws XMLStreamException {
+    if (maxTestCaseTextLength <= 0) {
+      return cursor.collectDescendantText();
+    }
+    SMInputCursor textCursor = cursor.descendantCursor(SMFilterFactory.getNonIgnorableTextFilter());
+    XMLStreamReader2 reader = textCursor.getStreamReader();
+    StringBuilder text = new StringBuilder();
+    boolean truncated = false;
+    while (textCursor.getNext() != null) {
+      int length = Math.min(reader.getTextLength(), maxTestCaseTextLength - text.length());
+      truncated |= length < reader.getTextLength();
+      text.append(reader.getTextCharacters(), reader.getTextStart(), length);
+    }
+    if (truncated && Character.isHighSurrogate(text.charAt(text.length() - 1))) {
+      text.setLength(text.length() - 1);
+    }
+    return text.toString();
+  }
+
+  /**
+   * Character offsets only match the bytes of the report when it is encoded in UTF-8, or in ASCII.
+   */
+  private boolean canReadBack(SMInputCursor cursor) throws XMLStreamException {
+    if (currentTextSource == null) {
+      return false;
     }
+    String encoding = cursor.getStreamReader().getEncoding();
+    return encoding == null || "UTF-8".equalsIgnoreCase(encoding) || "US-ASCII".equalsIgnoreCase(encoding);
+  }
+
+  /**
+   * Skips the content of the element, and only keeps where it is in the report.
+   */
+  private TestCaseText stackTraceInReport(SMInputCursor cursor) throws XMLStreamException {
+    XMLStreamReader2 reader = cursor.getStreamReader();
+    long start = reader.getLocationInfo().getEndingCharOffset();
+    SMInputCursor contentCursor = cursor.descendantCursor();
+    while (contentCursor.getNext() != null) {
+      // skipped
+    }
+    long end = reader.getLocationInfo().getStartingCharOffset();
+    return TestCaseText.inReport(currentTextSource, start, end, maxTestCaseTextLength);
   }
 
   private static void checkElementName(SMInputCursor cursor, String expectedName) throws XMLStreamException {
@@ -259,6 +757,31 @@ public class ReportParser {
     return attributeValue;
   }
 
+  private static int mandatoryAttributeIndex(SMInputCursor cursor, String attributeName) throws XMLStreamException {
+    int index = cursor.findAttrIndex(null, attributeName);
+    if (index < 0) {
+      String message = "Missing attribute \"" + attributeName + "\" in element \"" + cursor.getLocalName() + "\"";
+      throw new ReportParsingException(message, cursor);
+    }
+    return index;
+  }
+
+  /**
+   * Same as {@link #intValue(String, SMInputCursor, String, int)}, without creating a String for well-formed values.
+   */
+  private int intValue(int index, SMInputCursor cursor, String attributeName, int minimum) throws XMLStreamException {
+    if (!attributeDecoder.decodeInt(cursor, index)) {
+      return intValue(cursor.getAttrValue(index), cursor, attributeName, minimum);
+    }
+    int intValue = attributeDecoder.intValue();
+    if (intValue < minimum) {
+      String message =
+        "Value of attribute \"" + attributeName + "\" is \"" + intValue + "\" but it should be greater than or equal to " + minimum;
+      throw new ReportParsingException(message, cursor);
+    }
+    return intValue;
+  }
+
   private static int intValue(String stringValue, SMInputCursor cursor, String attributeName, int minimum) throws XMLStreamException {
     int intValue;
     try {
@@ -295,6 +818,83 @@ public class ReportParser {
     return "Expected " + expected + " for attribute \"" + attributeName + "\" but got \"" + stringValue + "\"";
   }
 
+  /**
+   * Adds what another parser of the same mode collected from other reports.
+   *
+   * @return false if both parsers hold conflicting data for a file, in which case this parser is left partially merged
+   */
+  public boolean merge(ReportParser other) {
+    Preconditions.checkArgument(other.mode == mode, "Cannot merge %s data into %s data", other.mode, mode);
+    for (String unknownFile : other.firstUnknownFiles) {
+      if (firstUnknownFiles.size() < MAX_STORED_UNKNOWN_FILE_PATHS) {
+        firstUnknownFiles.add(unknownFile);
+      }
+    }
+    numberOfUnknownFiles += other.numberOfUnknownFiles;
+    matchedFileKeys.addAll(other.matchedFileKeys);
+    metrics.add(other.metrics);
+    for (Map.Entry<InputFile, CustomCoverageMeasuresBuilder> entry : other.coverageMeasures.entrySet()) {
+      CustomCoverageMeasuresBuilder measuresBuilder = coverageMeasures.get(entry.getKey());
+      if (measuresBuilder == null) {
+        coverageMeasures.put(entry.getKey(), entry.getValue());
+        coverageMemory += entry.getValue().memorySize();
+      } else {
+        long memorySize = measuresBuilder.memorySize();
+        if (measuresBuilder.merge(entry.getValue()) == null) {
+          return false;
+        }
+        coverageMemory += measuresBuilder.memorySize() - memorySize;
+      }
+    }
+    if (other.spillLog != null) {
+      if (spillLog == null) {
+        spillLog = new CoverageSpillLog(spillDirectory);
+      }
+      spillLog.appendAll(other.spillLog);
+      other.spillLog.close();
+      other.spillLog = null;
+    }
+    if (memoryBudget > 0 && coverageMemory > memoryBudget) {
+      spillColdFiles();
+    }
+    textSources.addAll(other.textSources);
+    for (Map.Entry<InputFile, UnitTestMeasuresBuilder> entry : other.unitTestMeasures.entrySet()) {
+      UnitTestMeasuresBuilder measuresBuilder = unitTestMeasures.get(entry.getKey());
+      if (measuresBuilder == null) {
+        unitTestMeasures.put(entry.getKey(), entry.getValue());
+      } else if (!measuresBuilder.merge(entry.getValue())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Releases the temporary file and the reports kept open by the parser, once its measures are saved or when they will
+   * not be saved. Does nothing if they are already released.
+   */
+  void discard() {
+    if (spillLog != null) {
+      spillLog.close();
+      spillLog = null;
+    }
+    for (ReportTextSource textSource : textSources) {
+      textSource.close();
+    }
+    textSources.clear();
+  }
+
+  ImportMetrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * Where the data read from reports goes: the builders of this parser, unless another sink was given.
+   */
+  ReportSink sink() {
+    return sink;
+  }
+
   public int numberOfMatchedFiles() {
     return matchedFileKeys.size();
   }
@@ -317,30 +917,105 @@ public class ReportParser {
 
   private void saveCoverageMeasure() {
     for (Map.Entry<InputFile, CustomCoverageMeasuresBuilder> entry : coverageMeasures.entrySet()) {
-      for (Measure measure : entry.getValue().createMeasures()) {
-        context.saveMeasure(entry.getKey(), measure);
+      saveCoverageMeasures(entry.getKey(), withSpilledData(entry.getKey(), entry.getValue()));
+    }
+    if (spillLog != null) {
+      try {
+        // files which are not in memory anymore, read back one at a time
+        for (InputFile inputFile : spillLog.files()) {
+          saveCoverageMeasures(inputFile, withSpilledData(inputFile, newCoverageMeasuresBuilder()));
+        }
+      } finally {
+        spillLog.close();
+        spillLog = null;
       }
     }
   }
 
+  /**
+   * Called once for each file with coverage data, when its measures are saved.
+   */
+  void saveCoverageMeasures(InputFile inputFile, CustomCoverageMeasuresBuilder measuresBuilder) {
+    long start = System.nanoTime();
+    Collection<Measure> measures = measuresBuilder.createMeasures();
+    long built = System.nanoTime();
+    metrics.addMeasureBuilding(built - start);
+    for (Measure measure : measures) {
+      context.saveMeasure(inputFile, measure);
+    }
+    metrics.addSaving(System.nanoTime() - built);
+  }
+
   private void saveUnitTestMeasures() {
-    for (Map.Entry<InputFile, UnitTestMeasuresBuilder> entry : unitTestMeasures.entrySet()) {
-      InputFile inputFile = entry.getKey();
-      UnitTestMeasuresBuilder measuresBuilder = entry.getValue();
-      for (Measure measure : measuresBuilder.createMeasures()) {
-        context.saveMeasure(inputFile, measure);
+    try {
+      for (Map.Entry<InputFile, UnitTestMeasuresBuilder> entry : unitTestMeasures.entrySet()) {
+        saveUnitTestMeasures(entry.getKey(), entry.getValue());
       }
-      for (TestCase testCase : measuresBuilder.getTestCases()) {
-        MutableTestPlan testPlan = perspectives.as(MutableTestPlan.class, inputFile);
-        if (testPlan != null) {
-          testPlan.addTestCase(testCase.getName())
-            .setDurationInMs(testCase.getDuration())
-            .setStatus(org.sonar.api.test.TestCase.Status.of(testCase.getStatus()))
-            .setMessage(testCase.getMessage())
-            .setType(org.sonar.api.test.TestCase.TYPE_UNIT)
-            .setStackTrace(testCase.getStackTrace());
-        }
+    } finally {
+      for (ReportTextSource textSource : textSources) {
+        textSource.close();
       }
     }
   }
+
+  /**
+   * Called once for each file with test cases, when its measures are saved.
+   */
+  void saveUnitTestMeasures(InputFile inputFile, UnitTestMeasuresBuilder measuresBuilder) {
+    long start = System.nanoTime();
+    Collection<Measure> measures = measuresBuilder.createMeasures();
+    long built = System.nanoTime();
+    metrics.addMeasureBuilding(built - start);
+    for (Measure measure : measures) {
+      context.saveMeasure(inputFile, measure);
+    }
+    for (TestCase testCase : measuresBuilder.getTestCases()) {
+      MutableTestPlan testPlan = perspectives.as(MutableTestPlan.class, inputFile);
+      if (testPlan != null) {
+        testPlan.addTestCase(testCase.getName())
+          .setDurationInMs(testCase.getDuration())
+          .setStatus(org.sonar.api.test.TestCase.Status.of(testCase.getStatus()))
+          .setMessage(testCase.getMessage())
+          .setType(org.sonar.api.test.TestCase.TYPE_UNIT)
+          .setStackTrace(testCase.getStackTrace());
+      }
+    }
+    metrics.addSaving(System.nanoTime() - built);
+  }
+
+  /**
+   * Gives the data of each "file" element to the builders of its file, once the file is resolved.
+   */
+  private final class MeasuresSink implements ReportSink {
+
+    private InputFile resource;
+
+    @Override
+    public boolean isUnknownFile(String path) {
+      return ReportParser.this.isUnknownFile(path);
+    }
+
+    @Override
+    public boolean startFile(String path, int lineNumber) {
+      resource = resolveFile(path, lineNumber);
+      return resource != null;
+    }
+
+    @Override
+    public void lineToCover(int lineNumber, boolean covered, int branchesToCover, int coveredBranches, int elementLineNumber) {
+      addLineToCover(resource, lineNumber, covered, branchesToCover, coveredBranches, elementLineNumber);
+    }
+
+    @Override
+    public void testCase(String name, TestCase.Status status, long duration, @Nullable TestCaseText message, @Nullable TestCaseText stackTrace,
+      int elementLineNumber) {
+      addTestCase(resource, name, status, duration, message, stackTrace, elementLineNumber);
+    }
+
+    @Override
+    public void endFile() {
+      ReportParser.this.endFile(resource);
+      resource = null;
+    }
+  }
 }
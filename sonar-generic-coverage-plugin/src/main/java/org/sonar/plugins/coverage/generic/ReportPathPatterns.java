@@ -0,0 +1,159 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Expands the report paths of a property: a directory stands for all the files below it, and a glob pattern like
+ * <code>build/coverage/**&#47;*.xml</code> for all the files it matches, where <code>**&#47;</code> also matches no
+ * directory at all. Groups like <code>{a,b}</code> cannot be used, as paths are separated by commas. Directories are
+ * walked in parallel, and the files of each path are sorted, so that reports are always parsed in the same order.
+ */
+final class ReportPathPatterns {
+
+  private static final String GLOB_CHARACTERS = "*?[{";
+  private static final String ANY_DIRECTORIES = "**/";
+
+  private ReportPathPatterns() {
+    // only static methods
+  }
+
+  /**
+   * @return the paths, where each directory and pattern is replaced by the absolute paths of its files. A pattern
+   * which matches no file is kept as is, and a file listed several times is only kept the first time.
+   */
+  static List<String> expand(File baseDir, List<String> paths) {
+    Set<String> result = new LinkedHashSet<>();
+    ForkJoinPool pool = null;
+    try {
+      for (String path : paths) {
+        int globStart = globStart(path);
+        File file = absoluteFile(baseDir, globStart < 0 ? path : path.substring(0, globStart));
+        if (globStart < 0 && !file.isDirectory()) {
+          result.add(path);
+          continue;
+        }
+        if (pool == null) {
+          pool = new ForkJoinPool();
+        }
+        PathMatcher matcher = globStart < 0 ? null : matcher(path, globStart);
+        List<String> files = file.isDirectory() ? pool.invoke(new DirectoryWalk(file.toPath(), file.toPath(), matcher)) : new ArrayList<String>();
+        if (files.isEmpty()) {
+          result.add(path);
+        } else {
+          Collections.sort(files);
+          result.addAll(files);
+        }
+      }
+    } finally {
+      if (pool != null) {
+        pool.shutdown();
+      }
+    }
+    return new ArrayList<>(result);
+  }
+
+  /**
+   * @return the start of the first path segment holding a glob character, or -1 if the path is not a pattern
+   */
+  private static int globStart(String path) {
+    int segmentStart = 0;
+    for (int i = 0; i < path.length(); i++) {
+      char c = path.charAt(i);
+      if (c == '/' || c == File.separatorChar) {
+        segmentStart = i + 1;
+      } else if (GLOB_CHARACTERS.indexOf(c) >= 0) {
+        return segmentStart;
+      }
+    }
+    return -1;
+  }
+
+  private static File absoluteFile(File baseDir, String path) {
+    File file = new File(path);
+    return file.isAbsolute() ? file : new File(baseDir, path);
+  }
+
+  private static PathMatcher matcher(String path, int globStart) {
+    String glob = path.substring(globStart);
+    if (glob.indexOf('{') < 0) {
+      glob = glob.replace(ANY_DIRECTORIES, "{" + ANY_DIRECTORIES + ",}");
+    }
+    try {
+      return FileSystems.getDefault().getPathMatcher("glob:" + glob);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid report path pattern: " + path, e);
+    }
+  }
+
+  private static class DirectoryWalk extends RecursiveTask<List<String>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Path root;
+    private final transient Path directory;
+    private final transient PathMatcher matcher;
+
+    DirectoryWalk(Path root, Path directory, PathMatcher matcher) {
+      this.root = root;
+      this.directory = directory;
+      this.matcher = matcher;
+    }
+
+    @Override
+    protected List<String> compute() {
+      List<String> files = new ArrayList<>();
+      List<DirectoryWalk> subdirectories = new ArrayList<>();
+      try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+        for (Path child : children) {
+          if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+            DirectoryWalk walk = new DirectoryWalk(root, child, matcher);
+            walk.fork();
+            subdirectories.add(walk);
+          } else if (Files.isRegularFile(child) && (matcher == null || matcher.matches(root.relativize(child)))) {
+            files.add(child.toAbsolutePath().toString());
+          }
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException("Cannot list the files of " + directory, e);
+      }
+      for (DirectoryWalk walk : subdirectories) {
+        files.addAll(walk.join());
+      }
+      return files;
+    }
+  }
+
+}
@@ -0,0 +1,373 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.utils.PathUtils;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parses an XML coverage report in two stages: the calling thread tokenizes the report with a
+ * {@link CoverageReportScanner} into one batch of lines per "file" element, and workers resolve the paths and fill the
+ * builders. Files are partitioned by file name, which is the same for all the paths of a file, so that each builder is
+ * only written by the worker of its partition, in the order of the report. Errors are reported as by a single thread:
+ * when several "file" elements fail, the first one in the report wins.
+ */
+final class ReportPipeline {
+
+  // batches waiting for each worker
+  private static final int QUEUE_CAPACITY = 16;
+  private static final int MAX_STORED_UNKNOWN_FILE_PATHS = 5;
+  private static final Batch END = new Batch(null, 0, Long.MAX_VALUE, null, 0);
+  private static final StopException STOP = new StopException();
+
+  private final ReportParser parser;
+  private final int workers;
+  private final List<BlockingQueue<Batch>> queues = new ArrayList<>();
+  private final List<Shard> shards = new ArrayList<>();
+  private int committedFiles;
+  // sequence number of the first failed batch, and its error
+  private long failedSequence = Long.MAX_VALUE;
+  private Throwable failure;
+
+  ReportPipeline(ReportParser parser, int workers) {
+    this.parser = parser;
+    this.workers = workers;
+    for (int i = 0; i < workers; i++) {
+      queues.add(new ArrayBlockingQueue<Batch>(QUEUE_CAPACITY));
+      shards.add(new Shard(parser));
+    }
+  }
+
+  /**
+   * @param copy also given all the data of the report by the calling thread, in the order of the report
+   * @return false if the report is not in the canonical subset of the format, in which case the data of the
+   * {@link #committedFiles()} first "file" elements was given to the parser
+   */
+  boolean parse(InputStream inputStream, @Nullable ReportSink copy) throws IOException {
+    moveBuilders(parser.coverageMeasures());
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < workers; i++) {
+        futures.add(executor.submit(new Worker(queues.get(i), shards.get(i))));
+      }
+      Tokenizer tokenizer = new Tokenizer();
+      CoverageReportScanner scanner = new CoverageReportScanner(copy == null ? tokenizer : new TeeSink(tokenizer, copy));
+      boolean scanned;
+      try {
+        scanned = scanner.scan(inputStream);
+      } catch (StopException e) {
+        scanned = true;
+      }
+      committedFiles = scanner.committedFiles();
+      for (BlockingQueue<Batch> queue : queues) {
+        put(queue, END);
+      }
+      for (Future<?> future : futures) {
+        waitFor(future);
+      }
+      rethrowFailure();
+      mergeShards();
+      return scanned;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  int committedFiles() {
+    return committedFiles;
+  }
+
+  private void moveBuilders(Map<InputFile, CustomCoverageMeasuresBuilder> coverageMeasures) {
+    for (Iterator<Map.Entry<InputFile, CustomCoverageMeasuresBuilder>> it = coverageMeasures.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<InputFile, CustomCoverageMeasuresBuilder> entry = it.next();
+      shards.get(partition(entry.getKey().relativePath())).coverageMeasures().put(entry.getKey(), entry.getValue());
+      it.remove();
+    }
+  }
+
+  private void mergeShards() {
+    List<UnknownFile> firstUnknownFiles = new ArrayList<>();
+    int numberOfUnknownFiles = 0;
+    for (Shard shard : shards) {
+      // files and elements were counted by the tokenizer
+      shard.metrics().clearCounts();
+      // builders are disjoint, so merging never fails
+      parser.merge(shard);
+      firstUnknownFiles.addAll(shard.firstUnknownFiles);
+      numberOfUnknownFiles += shard.numberOfUnknownFiles;
+    }
+    Collections.sort(firstUnknownFiles, new Comparator<UnknownFile>() {
+      @Override
+      public int compare(UnknownFile o1, UnknownFile o2) {
+        return Long.compare(o1.sequence, o2.sequence);
+      }
+    });
+    List<String> paths = new ArrayList<>();
+    for (UnknownFile unknownFile : firstUnknownFiles.subList(0, Math.min(MAX_STORED_UNKNOWN_FILE_PATHS, firstUnknownFiles.size()))) {
+      paths.add(unknownFile.path);
+    }
+    parser.unknownFiles(paths, numberOfUnknownFiles);
+  }
+
+  /**
+   * All paths resolving to the same file end with the same file name, once sanitized.
+   */
+  private int partition(@CheckForNull String path) {
+    if (path == null) {
+      return 0;
+    }
+    String fileName = fileName(path);
+    if (fileName.isEmpty() || ".".equals(fileName) || "..".equals(fileName)) {
+      String normalizedPath = PathUtils.sanitize(path);
+      fileName = normalizedPath == null ? "" : fileName(normalizedPath);
+    }
+    return (fileName.hashCode() & Integer.MAX_VALUE) % workers;
+  }
+
+  private static String fileName(String path) {
+    return path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1);
+  }
+
+  private synchronized void failed(long sequence, Throwable e) {
+    if (sequence < failedSequence) {
+      failedSequence = sequence;
+      failure = e;
+    }
+  }
+
+  private synchronized long failedSequence() {
+    return failedSequence;
+  }
+
+  private synchronized void rethrowFailure() {
+    if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    }
+    if (failure instanceof Error) {
+      throw (Error) failure;
+    }
+  }
+
+  private static void put(BlockingQueue<Batch> queue, Batch batch) {
+    try {
+      queue.put(batch);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while parsing a report", e);
+    }
+  }
+
+  private static void waitFor(Future<?> future) {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while parsing a report", e);
+    }
+  }
+
+  /**
+   * The lines of a "file" element, as records of {@link #RECORD_SIZE} values: lineNumber, covered, branchesToCover,
+   * coveredBranches and line of the element in the report.
+   */
+  private static final class Batch {
+
+    private static final int RECORD_SIZE = 5;
+
+    private final String path;
+    private final int fileLine;
+    private final long sequence;
+    private final int[] records;
+    private final int recordsLength;
+
+    Batch(String path, int fileLine, long sequence, int[] records, int recordsLength) {
+      this.path = path;
+      this.fileLine = fileLine;
+      this.sequence = sequence;
+      this.records = records;
+      this.recordsLength = recordsLength;
+    }
+  }
+
+  /**
+   * Collects the lines of each "file" element, and sends them to the worker of the file once the element ends. Files and
+   * elements are counted in the metrics of the parser as they are read, so that progress messages give them while the
+   * report is parsed.
+   */
+  private final class Tokenizer implements ReportSink {
+
+    private String path;
+    private int fileLine;
+    private long sequence;
+    private int[] records = new int[Batch.RECORD_SIZE * 64];
+    private int recordsLength;
+
+    @Override
+    public boolean isUnknownFile(String path) {
+      // paths are resolved by workers
+      return false;
+    }
+
+    @Override
+    public boolean startFile(String path, int lineNumber) {
+      if (failedSequence() != Long.MAX_VALUE) {
+        throw STOP;
+      }
+      parser.metrics().fileParsed();
+      this.path = path;
+      fileLine = lineNumber;
+      recordsLength = 0;
+      return true;
+    }
+
+    @Override
+    public void lineToCover(int lineNumber, boolean covered, int branchesToCover, int coveredBranches, int elementLineNumber) {
+      parser.metrics().elementParsed();
+      if (recordsLength + Batch.RECORD_SIZE > records.length) {
+        records = Arrays.copyOf(records, records.length * 2);
+      }
+      records[recordsLength] = lineNumber;
+      records[recordsLength + 1] = covered ? 1 : 0;
+      records[recordsLength + 2] = branchesToCover;
+      records[recordsLength + 3] = coveredBranches;
+      records[recordsLength + 4] = elementLineNumber;
+      recordsLength += Batch.RECORD_SIZE;
+    }
+
+    @Override
+    public void testCase(String name, TestCase.Status status, long duration, @Nullable TestCaseText message, @Nullable TestCaseText stackTrace,
+      int elementLineNumber) {
+      throw new UnsupportedOperationException("Only coverage reports are parsed by a pipeline");
+    }
+
+    @Override
+    public void endFile() {
+      Batch batch = new Batch(path, fileLine, sequence, Arrays.copyOf(records, recordsLength), recordsLength);
+      sequence++;
+      put(queues.get(partition(path)), batch);
+    }
+  }
+
+  private final class Worker implements Callable<Void> {
+
+    private final BlockingQueue<Batch> queue;
+    private final Shard shard;
+
+    Worker(BlockingQueue<Batch> queue, Shard shard) {
+      this.queue = queue;
+      this.shard = shard;
+    }
+
+    @Override
+    public Void call() throws InterruptedException {
+      Batch batch = queue.take();
+      while (batch != END) {
+        // batches after a failure are dropped, but earlier ones must still fail first
+        if (batch.sequence < failedSequence()) {
+          try {
+            parse(batch);
+          } catch (RuntimeException | Error e) {
+            failed(batch.sequence, e);
+          }
+        }
+        batch = queue.take();
+      }
+      return null;
+    }
+
+    private void parse(Batch batch) {
+      shard.sequence = batch.sequence;
+      InputFile resource = shard.resolveFile(batch.path, batch.fileLine);
+      if (resource == null) {
+        return;
+      }
+      int[] records = batch.records;
+      for (int i = 0; i < batch.recordsLength; i += Batch.RECORD_SIZE) {
+        shard.addLineToCover(resource, records[i], records[i + 1] == 1, records[i + 2], records[i + 3], records[i + 4]);
+      }
+      shard.endFile(resource);
+    }
+  }
+
+  /**
+   * Only written by its worker, then read by the calling thread once the worker is done.
+   */
+  private static final class Shard extends ReportParser {
+
+    private long sequence;
+    private final List<UnknownFile> firstUnknownFiles = new ArrayList<>();
+    private int numberOfUnknownFiles;
+
+    Shard(ReportParser parent) {
+      super(parent);
+    }
+
+    @Override
+    void unknownFile(String filePath) {
+      numberOfUnknownFiles++;
+      if (firstUnknownFiles.size() < MAX_STORED_UNKNOWN_FILE_PATHS) {
+        firstUnknownFiles.add(new UnknownFile(filePath, sequence));
+      }
+    }
+  }
+
+  private static final class UnknownFile {
+
+    private final String path;
+    private final long sequence;
+
+    UnknownFile(String path, long sequence) {
+      this.path = path;
+      this.sequence = sequence;
+    }
+  }
+
+  private static class StopException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    StopException() {
+      super(null, null, false, false);
+    }
+  }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Progress of the report being parsed, sent periodically to a {@link Listener}.
+ */
+final class ReportProgress {
+
+  interface Listener {
+    /**
+     * Called from the thread parsing the report, so it may be called concurrently for reports parsed in parallel.
+     */
+    void progress(ReportProgress progress);
+  }
+
+  private static final double MEGABYTE = 1024.0 * 1024.0;
+
+  private final String reportName;
+  private final long bytesRead;
+  private final long totalBytes;
+  private final long files;
+  private final long elements;
+  private final long elapsedNanos;
+
+  ReportProgress(String reportName, long bytesRead, long totalBytes, long files, long elements, long elapsedNanos) {
+    this.reportName = reportName;
+    this.bytesRead = bytesRead;
+    this.totalBytes = totalBytes;
+    this.files = files;
+    this.elements = elements;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  String reportName() {
+    return reportName;
+  }
+
+  /**
+   * Bytes of the file read so far, before decompression.
+   */
+  long bytesRead() {
+    return bytesRead;
+  }
+
+  long totalBytes() {
+    return totalBytes;
+  }
+
+  /**
+   * "file" elements of the report processed so far, including unknown files.
+   */
+  long files() {
+    return files;
+  }
+
+  /**
+   * "lineToCover" or "testCase" elements of known files processed so far.
+   */
+  long elements() {
+    return elements;
+  }
+
+  long bytesPerSecond() {
+    long millis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    return millis == 0 ? 0 : bytesRead * 1000 / millis;
+  }
+
+  /**
+   * @return estimated seconds until the end of the report, or -1 if unknown
+   */
+  long remainingSeconds() {
+    long bytesPerSecond = bytesPerSecond();
+    if (bytesPerSecond == 0 || totalBytes < bytesRead) {
+      return -1;
+    }
+    return (totalBytes - bytesRead) / bytesPerSecond;
+  }
+
+  @Override
+  public String toString() {
+    long remainingSeconds = remainingSeconds();
+    return String.format(Locale.ENGLISH, "%s: %.1f of %.1f MB (%d%%), %d files, %d elements, %.1f MB/s, %s",
+      reportName,
+      bytesRead / MEGABYTE,
+      totalBytes / MEGABYTE,
+      totalBytes == 0 ? 100 : Math.min(100, bytesRead * 100 / totalBytes),
+      files,
+      elements,
+      bytesPerSecond() / MEGABYTE,
+      remainingSeconds < 0 ? "remaining time unknown" : ("about " + remainingSeconds + " s left"));
+  }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import javax.annotation.Nullable;
+
+/**
+ * Receives the data of a report, "file" element by "file" element in the order of the report, from whichever
+ * {@link ReportParser}, {@link CoverageReportScanner} or {@link BinaryReportReader} reads it. Values are validated
+ * before they are given to the sink. The lines or test cases of a file are given between {@link #startFile} and
+ * {@link #endFile}.
+ */
+interface ReportSink {
+
+  /**
+   * Called before the content of a "file" element is read, so that the content of a file which is not wanted can be
+   * skipped. {@link #startFile} is still called for the file.
+   */
+  boolean isUnknownFile(String path);
+
+  /**
+   * @param lineNumber line of the "file" element in the report, or number of its record in a binary report
+   * @return false if the data of the file is not wanted, in which case nothing else is given for the element
+   */
+  boolean startFile(String path, int lineNumber);
+
+  /**
+   * @param branchesToCover -1 if the line has no branches
+   * @param elementLineNumber line of the "lineToCover" element in the report, for errors
+   */
+  void lineToCover(int lineNumber, boolean covered, int branchesToCover, int coveredBranches, int elementLineNumber);
+
+  /**
+   * @param elementLineNumber line of the "testCase" element in the report, for errors
+   */
+  void testCase(String name, TestCase.Status status, long duration, @Nullable TestCaseText message, @Nullable TestCaseText stackTrace,
+    int elementLineNumber);
+
+  void endFile();
+
+}
@@ -0,0 +1,257 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.base.Charsets;
+import org.codehaus.staxmate.in.SMHierarchicCursor;
+import org.sonar.api.utils.StaxParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads back the content of elements of a UTF-8 report, from the character offsets reported by the XML parser. While
+ * the report is parsed through {@link #track(InputStream)}, the byte offset of a character is recorded every few
+ * kilobytes, so that reading back a text only decodes the report from the closest previous record.
+ * The content is then parsed again as XML, which gives the same text as when the whole report is parsed.
+ */
+final class ReportTextSource implements Closeable {
+
+  private static final int CHECKPOINT_INTERVAL = 8 * 1024;
+  private static final int BUFFER_SIZE = 8 * 1024;
+  private static final byte[] START_TAG = "<t>".getBytes(Charsets.UTF_8);
+  private static final byte[] END_TAG = "</t>".getBytes(Charsets.UTF_8);
+
+  private final File file;
+  // character offsets, as counted by the XML parser, and byte offsets of the same characters
+  private long[] charOffsets = new long[16];
+  private long[] byteOffsets = new long[16];
+  private int checkpoints;
+  private RandomAccessFile randomAccessFile;
+  private StaxParser textParser;
+  private final StringBuilder parsedText = new StringBuilder();
+
+  ReportTextSource(File file) {
+    this.file = file;
+  }
+
+  /**
+   * @param inputStream the uncompressed content of the report, from its first byte
+   */
+  InputStream track(InputStream inputStream) {
+    return new TrackingInputStream(inputStream);
+  }
+
+  /**
+   * @return the text of the content between the offsets
+   */
+  String text(long start, long end) {
+    if (end <= start) {
+      return "";
+    }
+    try {
+      return xmlText(content(start, end));
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot read back report " + file, e);
+    }
+  }
+
+  private byte[] content(long start, long end) throws IOException {
+    if (randomAccessFile == null) {
+      randomAccessFile = new RandomAccessFile(file, "r");
+    }
+    FileChannel channel = randomAccessFile.getChannel();
+    int checkpoint = Arrays.binarySearch(charOffsets, 0, checkpoints, start);
+    if (checkpoint < 0) {
+      checkpoint = -checkpoint - 2;
+    }
+    long charOffset = charOffsets[checkpoint];
+    long byteOffset = byteOffsets[checkpoint];
+    ByteArrayOutputStream content = new ByteArrayOutputStream((int) Math.min(end - start, Integer.MAX_VALUE - 8));
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    boolean inContent = false;
+    while (true) {
+      buffer.clear();
+      if (channel.read(buffer, byteOffset) <= 0) {
+        throw new IOException("Unexpected end of file");
+      }
+      byteOffset += buffer.position();
+      for (int i = 0; i < buffer.position(); i++) {
+        byte b = buffer.get(i);
+        if (isFirstByteOfCharacter(b)) {
+          if (charOffset >= end) {
+            return content.toByteArray();
+          }
+          inContent = charOffset >= start;
+          charOffset += charCount(b);
+        }
+        if (inContent) {
+          content.write(b);
+        }
+      }
+    }
+  }
+
+  private String xmlText(byte[] content) {
+    ByteArrayOutputStream element = new ByteArrayOutputStream(START_TAG.length + content.length + END_TAG.length);
+    element.write(START_TAG, 0, START_TAG.length);
+    element.write(content, 0, content.length);
+    element.write(END_TAG, 0, END_TAG.length);
+    parsedText.setLength(0);
+    try {
+      textParser().parse(new ByteArrayInputStream(element.toByteArray()));
+    } catch (javax.xml.stream.XMLStreamException e) {
+      throw new IllegalStateException(e);
+    }
+    return parsedText.toString();
+  }
+
+  /**
+   * A parser is created once, as creating one looks the XML input factory up.
+   */
+  private StaxParser textParser() {
+    if (textParser == null) {
+      textParser = new StaxParser(new StaxParser.XmlStreamHandler() {
+        @Override
+        public void stream(SMHierarchicCursor rootCursor) throws javax.xml.stream.XMLStreamException {
+          rootCursor.advance();
+          parsedText.append(rootCursor.collectDescendantText());
+        }
+      });
+    }
+    return textParser;
+  }
+
+  private static boolean isFirstByteOfCharacter(byte b) {
+    return (b & 0xC0) != 0x80;
+  }
+
+  /**
+   * @return number of UTF-16 characters of the UTF-8 sequence starting with the byte
+   */
+  private static int charCount(byte b) {
+    return (b & 0xF8) == 0xF0 ? 2 : 1;
+  }
+
+  private void addCheckpoint(long charOffset, long byteOffset) {
+    if (checkpoints == charOffsets.length) {
+      charOffsets = Arrays.copyOf(charOffsets, checkpoints * 2);
+      byteOffsets = Arrays.copyOf(byteOffsets, checkpoints * 2);
+    }
+    charOffsets[checkpoints] = charOffset;
+    byteOffsets[checkpoints] = byteOffset;
+    checkpoints++;
+  }
+
+  @Override
+  public void close() {
+    if (randomAccessFile != null) {
+      try {
+        randomAccessFile.close();
+      } catch (IOException e) {
+        // nothing more can be done
+      }
+      randomAccessFile = null;
+    }
+  }
+
+  /**
+   * Counts characters like the XML parser: a byte order mark is not counted.
+   */
+  private class TrackingInputStream extends FilterInputStream {
+
+    private final byte[] firstBytes = new byte[3];
+    private long byteOffset;
+    private long charOffset;
+    private long nextCheckpoint;
+
+    TrackingInputStream(InputStream inputStream) {
+      super(inputStream);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        track((byte) b);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      int read = super.read(bytes, offset, length);
+      for (int i = 0; i < read; i++) {
+        track(bytes[offset + i]);
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      // all bytes must be tracked
+      return Math.max(0, read(new byte[(int) Math.min(n, BUFFER_SIZE)]));
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    private void track(byte b) {
+      if (byteOffset < firstBytes.length) {
+        trackFirstBytes(b);
+      } else if (isFirstByteOfCharacter(b)) {
+        if (byteOffset >= nextCheckpoint) {
+          addCheckpoint(charOffset, byteOffset);
+          nextCheckpoint = byteOffset + CHECKPOINT_INTERVAL;
+        }
+        charOffset += charCount(b);
+      }
+      byteOffset++;
+    }
+
+    private void trackFirstBytes(byte b) {
+      firstBytes[(int) byteOffset] = b;
+      if (byteOffset == 0) {
+        addCheckpoint(0, 0);
+      }
+      if (isFirstByteOfCharacter(b)) {
+        charOffset += charCount(b);
+      }
+      if (byteOffset == 2 && (firstBytes[0] & 0xFF) == 0xEF && (firstBytes[1] & 0xFF) == 0xBB && (firstBytes[2] & 0xFF) == 0xBF) {
+        // the byte order mark
+        charOffset = 0;
+        byteOffsets[0] = 3;
+        nextCheckpoint = 3 + CHECKPOINT_INTERVAL;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import org.sonar.api.BatchExtension;
+import org.sonar.api.batch.InstantiationStrategy;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Report indexes shared by the modules of an analysis, so that a report is indexed once, whatever the number of modules
+ * referring to it. An index is read from, or built into, the index directory of the first module needing it, and kept in
+ * memory until its report changes. Instances are thread safe.
+ */
+@InstantiationStrategy(InstantiationStrategy.PER_BATCH)
+public class SharedReportIndexes implements BatchExtension {
+
+  private final Map<String, ReportIndex> indexes = new HashMap<>();
+  private final Map<String, Object> reportLocks = new HashMap<>();
+
+  /**
+   * @param directory index directory of the calling module
+   * @return null if the report cannot be indexed
+   */
+  @CheckForNull
+  ReportIndex index(File report, File directory) throws IOException {
+    String path = report.getAbsolutePath();
+    synchronized (reportLock(path)) {
+      ReportIndex index = sharedIndex(path);
+      if (index == null || !index.isUpToDate(report)) {
+        index = ReportIndex.load(report, directory);
+        share(path, index);
+      }
+      return index.isSupported() ? index : null;
+    }
+  }
+
+  private synchronized Object reportLock(String path) {
+    Object lock = reportLocks.get(path);
+    if (lock == null) {
+      lock = new Object();
+      reportLocks.put(path, lock);
+    }
+    return lock;
+  }
+
+  @CheckForNull
+  private synchronized ReportIndex sharedIndex(String path) {
+    return indexes.get(path);
+  }
+
+  private synchronized void share(String path, ReportIndex index) {
+    indexes.put(path, index);
+  }
+
+}
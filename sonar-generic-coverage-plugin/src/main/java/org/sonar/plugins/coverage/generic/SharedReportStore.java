@@ -0,0 +1,379 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import org.sonar.api.BatchExtension;
+import org.sonar.api.batch.InstantiationStrategy;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.utils.PathUtils;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coverage reports parsed once for the whole analysis, whatever the number of modules referring to them. Each report,
+ * identified by its absolute path, last modification time and size, is kept as a compact copy of its data grouped by
+ * "file" element. Each module then only looks up the paths of its own files, and replays their data into its
+ * {@link ReportParser}. The stored reports are kept within the budget given by the modules: the least recently used
+ * reports are released first, and a report larger than the budget is not stored, nor parsed again by other modules
+ * until it changes. Instances are thread safe.
+ */
+@InstantiationStrategy(InstantiationStrategy.PER_BATCH)
+public class SharedReportStore implements BatchExtension {
+
+  /**
+   * Budget of the stored reports when the analysis has no memory budget.
+   */
+  static final long DEFAULT_BUDGET = 256L * 1024 * 1024;
+
+  // in access order, so that the least recently used reports are released first
+  private final LinkedHashMap<String, StoredReport> reports = new LinkedHashMap<>(16, 0.75f, true);
+  // versions of the reports which were too large to be stored
+  private final Map<String, String> tooLargeVersions = new HashMap<>();
+  private final Map<String, Object> reportLocks = new HashMap<>();
+  private long storedBytes;
+
+  /**
+   * Parses the coverage report unless it is already stored and unchanged.
+   *
+   * @param budget approximate memory, in bytes, of all the stored reports
+   * @param metrics counters of the calling parser, which are given the bytes read to parse the report
+   * @return null if the report is too large to be stored
+   */
+  @CheckForNull
+  StoredReport report(File reportFile, String reportName, long budget, ImportMetrics metrics) throws XMLStreamException {
+    String path = reportFile.getAbsolutePath();
+    String version = reportFile.lastModified() + ":" + reportFile.length();
+    synchronized (reportLock(path)) {
+      StoredReport report = storedReport(path, version);
+      if (report == null && !isTooLarge(path, version)) {
+        StoringSink sink = new StoringSink(version, budget);
+        ReportParser parser = new ReportParser(ReportParser.Mode.COVERAGE, sink);
+        try {
+          parser.parse(reportFile, reportName);
+        } catch (ReportTooLargeException e) {
+          tooLarge(path, version);
+          return null;
+        } finally {
+          metrics.bytesRead(parser.metrics().bytesRead());
+        }
+        report = sink.report();
+        if (report.size() > budget) {
+          tooLarge(path, version);
+          return null;
+        }
+        store(path, report, budget);
+      }
+      return report;
+    }
+  }
+
+  private synchronized Object reportLock(String path) {
+    Object lock = reportLocks.get(path);
+    if (lock == null) {
+      lock = new Object();
+      reportLocks.put(path, lock);
+    }
+    return lock;
+  }
+
+  @CheckForNull
+  private synchronized StoredReport storedReport(String path, String version) {
+    StoredReport report = reports.get(path);
+    return report != null && report.version.equals(version) ? report : null;
+  }
+
+  private synchronized boolean isTooLarge(String path, String version) {
+    return version.equals(tooLargeVersions.get(path));
+  }
+
+  private synchronized void tooLarge(String path, String version) {
+    release(path);
+    tooLargeVersions.put(path, version);
+  }
+
+  /**
+   * Replaces the previous version of the report, and releases the least recently used reports beyond the budget.
+   */
+  private synchronized void store(String path, StoredReport report, long budget) {
+    release(path);
+    tooLargeVersions.remove(path);
+    Iterator<StoredReport> leastRecentlyUsed = reports.values().iterator();
+    while (leastRecentlyUsed.hasNext() && storedBytes + report.size() > budget) {
+      storedBytes -= leastRecentlyUsed.next().size();
+      leastRecentlyUsed.remove();
+    }
+    reports.put(path, report);
+    storedBytes += report.size();
+  }
+
+  private void release(String path) {
+    StoredReport report = reports.remove(path);
+    if (report != null) {
+      storedBytes -= report.size();
+    }
+  }
+
+  synchronized long storedBytes() {
+    return storedBytes;
+  }
+
+  synchronized int numberOfStoredReports() {
+    return reports.size();
+  }
+
+  /**
+   * The "file" elements of a report in their order, with the lines of each element as varints:
+   * zigzag(lineNumber delta) &lt;&lt; 2 | hasBranches &lt;&lt; 1 | covered, then branchesToCover and coveredBranches
+   * if hasBranches, then zigzag(delta of the line of the element in the report).
+   */
+  static final class StoredReport {
+
+    private final String version;
+    private final String[] paths;
+    private final int[] fileLines;
+    private final int[] offsets;
+    private final byte[] data;
+    // sanitized paths of the report, to the indexes of the "file" elements referring to them
+    private final Map<String, int[]> filesByRelativePath = new HashMap<>();
+    private final Map<String, int[]> filesByAbsolutePath = new HashMap<>();
+
+    private StoredReport(String version, String[] paths, int[] fileLines, int[] offsets, byte[] data) {
+      this.version = version;
+      this.paths = paths;
+      this.fileLines = fileLines;
+      this.offsets = offsets;
+      this.data = data;
+      for (int i = 0; i < paths.length; i++) {
+        String normalizedPath = PathUtils.sanitize(paths[i]);
+        if (normalizedPath != null) {
+          add(new File(paths[i]).isAbsolute() ? filesByAbsolutePath : filesByRelativePath, normalizedPath, i);
+        }
+      }
+    }
+
+    private static void add(Map<String, int[]> files, String path, int index) {
+      int[] indexes = files.get(path);
+      if (indexes == null) {
+        files.put(path, new int[] {index});
+      } else {
+        int[] newIndexes = Arrays.copyOf(indexes, indexes.length + 1);
+        newIndexes[indexes.length] = index;
+        files.put(path, newIndexes);
+      }
+    }
+
+    int numberOfFiles() {
+      return paths.length;
+    }
+
+    /**
+     * Approximate memory of the report, mostly its data and its paths, which are counted twice for the lookup maps.
+     */
+    long size() {
+      long size = data.length + 16L * paths.length;
+      for (String path : paths) {
+        size += 4L * path.length() + 64;
+      }
+      return size;
+    }
+
+    /**
+     * Gives the parser the data of the files of the module, in the order of the report, as if it was parsing the report.
+     * Other files are counted as unknown without being resolved.
+     */
+    void replay(ReportParser parser, Iterable<InputFile> moduleFiles) {
+      BitSet moduleFileIndexes = new BitSet(paths.length);
+      for (InputFile inputFile : moduleFiles) {
+        set(moduleFileIndexes, filesByRelativePath.get(inputFile.relativePath()));
+        set(moduleFileIndexes, filesByAbsolutePath.get(inputFile.absolutePath()));
+      }
+      for (int i = 0; i < paths.length; i++) {
+        if (!moduleFileIndexes.get(i)) {
+          parser.unknownFile(paths[i]);
+          continue;
+        }
+        InputFile resource = parser.resolveFile(paths[i], fileLines[i]);
+        if (resource != null) {
+          replayLines(parser, resource, i);
+          parser.endFile(resource);
+        }
+      }
+    }
+
+    private static void set(BitSet bits, @CheckForNull int[] indexes) {
+      if (indexes != null) {
+        for (int index : indexes) {
+          bits.set(index);
+        }
+      }
+    }
+
+    private void replayLines(ReportParser parser, InputFile resource, int file) {
+      int[] position = {offsets[file]};
+      int end = file + 1 < offsets.length ? offsets[file + 1] : data.length;
+      long lineNumber = 0;
+      long elementLine = fileLines[file];
+      while (position[0] < end) {
+        long header = readVarint(position);
+        lineNumber += BinaryReportFormat.unzigzag(header >>> BinaryReportFormat.FLAGS_BITS);
+        int branchesToCover = -1;
+        int coveredBranches = 0;
+        if ((header & BinaryReportFormat.BRANCHES_FLAG) != 0) {
+          branchesToCover = (int) readVarint(position);
+          coveredBranches = (int) readVarint(position);
+        }
+        elementLine += BinaryReportFormat.unzigzag(readVarint(position));
+        boolean covered = (header & BinaryReportFormat.COVERED_FLAG) != 0;
+        parser.addLineToCover(resource, (int) lineNumber, covered, branchesToCover, coveredBranches, (int) elementLine);
+      }
+    }
+
+    private long readVarint(int[] position) {
+      long result = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = data[position[0]];
+        position[0]++;
+        result |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      return result;
+    }
+  }
+
+  /**
+   * Keeps the data of all the files of the report, in the {@link StoredReport} encoding.
+   */
+  private static class StoringSink implements ReportSink {
+
+    private static final int MAX_DATA_LENGTH = Integer.MAX_VALUE - 16;
+
+    private final String version;
+    private final long maxLength;
+    private final List<String> paths = new ArrayList<>();
+    private int[] fileLines = new int[256];
+    private int[] offsets = new int[256];
+    private byte[] data;
+    private int length;
+    private int previousLineNumber;
+    private int previousElementLine;
+
+    StoringSink(String version, long budget) {
+      this.version = version;
+      this.maxLength = Math.min(MAX_DATA_LENGTH, budget);
+      this.data = new byte[(int) Math.min(maxLength, 64 * 1024)];
+    }
+
+    @Override
+    public boolean isUnknownFile(String path) {
+      return false;
+    }
+
+    @Override
+    public boolean startFile(String path, int lineNumber) {
+      int file = paths.size();
+      if (file == offsets.length) {
+        offsets = Arrays.copyOf(offsets, file * 2);
+        fileLines = Arrays.copyOf(fileLines, file * 2);
+      }
+      paths.add(path);
+      fileLines[file] = lineNumber;
+      offsets[file] = length;
+      previousLineNumber = 0;
+      previousElementLine = lineNumber;
+      return true;
+    }
+
+    @Override
+    public void lineToCover(int lineNumber, boolean covered, int branchesToCover, int coveredBranches, int elementLineNumber) {
+      long header = BinaryReportFormat.zigzag((long) lineNumber - previousLineNumber) << BinaryReportFormat.FLAGS_BITS;
+      if (covered) {
+        header |= BinaryReportFormat.COVERED_FLAG;
+      }
+      if (branchesToCover >= 0) {
+        header |= BinaryReportFormat.BRANCHES_FLAG;
+      }
+      writeVarint(header);
+      if (branchesToCover >= 0) {
+        writeVarint(branchesToCover);
+        writeVarint(coveredBranches);
+      }
+      writeVarint(BinaryReportFormat.zigzag((long) elementLineNumber - previousElementLine));
+      previousLineNumber = lineNumber;
+      previousElementLine = elementLineNumber;
+    }
+
+    @Override
+    public void testCase(String name, TestCase.Status status, long duration, @Nullable TestCaseText message, @Nullable TestCaseText stackTrace,
+      int elementLineNumber) {
+      throw new UnsupportedOperationException("Only coverage reports are stored");
+    }
+
+    @Override
+    public void endFile() {
+      // the next file starts where this one ends
+    }
+
+    private void writeVarint(long value) {
+      if (length + 10 > data.length) {
+        if (length + 10 > maxLength) {
+          throw new ReportTooLargeException();
+        }
+        data = Arrays.copyOf(data, (int) Math.min(maxLength, Math.max(length + 10, data.length * 2L)));
+      }
+      long remaining = value;
+      while ((remaining & ~0x7FL) != 0) {
+        data[length] = (byte) ((remaining & 0x7F) | 0x80);
+        length++;
+        remaining >>>= 7;
+      }
+      data[length] = (byte) remaining;
+      length++;
+    }
+
+    StoredReport report() {
+      int files = paths.size();
+      return new StoredReport(version, paths.toArray(new String[files]), Arrays.copyOf(fileLines, files), Arrays.copyOf(offsets, files),
+        Arrays.copyOf(data, length));
+    }
+  }
+
+  private static class ReportTooLargeException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    ReportTooLargeException() {
+      super(null, null, false, false);
+    }
+  }
+
+}
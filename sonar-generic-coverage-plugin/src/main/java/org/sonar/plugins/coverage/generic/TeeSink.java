@@ -0,0 +1,83 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import javax.annotation.Nullable;
+
+/**
+ * Gives the data of a report to two sinks, the first one first. Each sink is only given the data of the files it wants,
+ * and the content of a file is only skipped when both sinks agree.
+ */
+final class TeeSink implements ReportSink {
+
+  private final ReportSink first;
+  private final ReportSink second;
+  private boolean firstWantsFile;
+  private boolean secondWantsFile;
+
+  TeeSink(ReportSink first, ReportSink second) {
+    this.first = first;
+    this.second = second;
+  }
+
+  @Override
+  public boolean isUnknownFile(String path) {
+    return first.isUnknownFile(path) && second.isUnknownFile(path);
+  }
+
+  @Override
+  public boolean startFile(String path, int lineNumber) {
+    firstWantsFile = first.startFile(path, lineNumber);
+    secondWantsFile = second.startFile(path, lineNumber);
+    return firstWantsFile || secondWantsFile;
+  }
+
+  @Override
+  public void lineToCover(int lineNumber, boolean covered, int branchesToCover, int coveredBranches, int elementLineNumber) {
+    if (firstWantsFile) {
+      first.lineToCover(lineNumber, covered, branchesToCover, coveredBranches, elementLineNumber);
+    }
+    if (secondWantsFile) {
+      second.lineToCover(lineNumber, covered, branchesToCover, coveredBranches, elementLineNumber);
+    }
+  }
+
+  @Override
+  public void testCase(String name, TestCase.Status status, long duration, @Nullable TestCaseText message, @Nullable TestCaseText stackTrace,
+    int elementLineNumber) {
+    if (firstWantsFile) {
+      first.testCase(name, status, duration, message, stackTrace, elementLineNumber);
+    }
+    if (secondWantsFile) {
+      second.testCase(name, status, duration, message, stackTrace, elementLineNumber);
+    }
+  }
+
+  @Override
+  public void endFile() {
+    if (firstWantsFile) {
+      first.endFile();
+    }
+    if (secondWantsFile) {
+      second.endFile();
+    }
+  }
+
+}
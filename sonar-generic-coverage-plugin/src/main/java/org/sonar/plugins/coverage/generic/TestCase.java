@@ -19,17 +19,67 @@
  */
 package org.sonar.plugins.coverage.generic;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
 public final class TestCase {
 
+  public enum Status {
+    OK(TestCase.OK), ERROR(TestCase.ERROR), FAILURE(TestCase.FAILURE), SKIPPED(TestCase.SKIPPED);
+
+    private static final Status[] VALUES = values();
+
+    private final String key;
+
+    Status(String key) {
+      this.key = key;
+    }
+
+    /**
+     * @return the status as named in reports
+     */
+    public String key() {
+      return key;
+    }
+
+    /**
+     * @return null if no status is named as such
+     */
+    @CheckForNull
+    public static Status of(String key) {
+      for (Status status : VALUES) {
+        if (status.key.equals(key)) {
+          return status;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * @throws IllegalArgumentException if no status is named as such
+     */
+    static Status checkedOf(@Nullable String key) {
+      Status status = of(key);
+      if (status == null) {
+        throw new IllegalArgumentException("Unknown test case status: " + key);
+      }
+      return status;
+    }
+
+    static Status ofOrdinal(int ordinal) {
+      return VALUES[ordinal];
+    }
+  }
+
   public static final String OK = "ok";
   public static final String ERROR = "error";
   public static final String FAILURE = "failure";
   public static final String SKIPPED = "skipped";
 
   private String name;
-  private String status;
-  private String stackTrace;
-  private String message;
+  private Status status;
+  private TestCaseText stackTrace;
+  private TestCaseText message;
   private long duration = 0L;
 
   public String getName() {
@@ -42,28 +92,56 @@ public final class TestCase {
   }
 
   public String getStatus() {
+    return status == null ? null : status.key();
+  }
+
+  /**
+   * @throws IllegalArgumentException if the status is not one of {@link #OK}, {@link #ERROR}, {@link #FAILURE} or
+   * {@link #SKIPPED}
+   */
+  public TestCase setStatus(@Nullable String status) {
+    return setStatus(status == null ? null : Status.checkedOf(status));
+  }
+
+  public Status getStatusValue() {
     return status;
   }
 
-  public TestCase setStatus(String status) {
+  public TestCase setStatus(Status status) {
     this.status = status;
     return this;
   }
 
   public String getStackTrace() {
-    return stackTrace;
+    return stackTrace == null ? null : stackTrace.toString();
   }
 
   public TestCase setStackTrace(String stackTrace) {
+    return setStackTraceText(stackTrace == null ? null : TestCaseText.of(stackTrace));
+  }
+
+  TestCaseText getStackTraceText() {
+    return stackTrace;
+  }
+
+  TestCase setStackTraceText(TestCaseText stackTrace) {
     this.stackTrace = stackTrace;
     return this;
   }
 
   public String getMessage() {
-    return message;
+    return message == null ? null : message.toString();
   }
 
   public TestCase setMessage(String message) {
+    return setMessageText(message == null ? null : TestCaseText.of(message));
+  }
+
+  TestCaseText getMessageText() {
+    return message;
+  }
+
+  TestCase setMessageText(TestCaseText message) {
     this.message = message;
     return this;
   }
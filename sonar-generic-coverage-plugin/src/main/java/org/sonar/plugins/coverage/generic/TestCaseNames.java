@@ -0,0 +1,153 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Distinct test case names, in the order they are added. Most names start with the name of their test class: the part
+ * up to the last dot is kept once, and the characters of the rest of the names are stored one after the other in a
+ * single array. Not thread safe.
+ */
+final class TestCaseNames {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final Map<String, Integer> prefixIds = new HashMap<>();
+  private final List<String> prefixes = new ArrayList<>();
+  private int size;
+  private int[] prefixIdByName = new int[INITIAL_CAPACITY];
+  private int[] suffixEnds = new int[INITIAL_CAPACITY];
+  private char[] suffixChars = new char[INITIAL_CAPACITY * 16];
+  // open addressing, each slot holds a name index plus one, or 0 when free
+  private int[] table = new int[INITIAL_CAPACITY * 2];
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return the index of the name, or -1 if it was already added
+   */
+  int add(String name) {
+    int split = name.lastIndexOf('.') + 1;
+    String prefix = name.substring(0, split);
+    Integer prefixId = prefixIds.get(prefix);
+    if (prefixId == null) {
+      prefixId = prefixes.size();
+      prefixIds.put(prefix, prefixId);
+      prefixes.add(prefix);
+    }
+    int hash = hash(prefixId, name, split);
+    int mask = table.length - 1;
+    int slot = hash & mask;
+    while (table[slot] != 0) {
+      int index = table[slot] - 1;
+      if (prefixIdByName[index] == prefixId && suffixEquals(index, name, split)) {
+        return -1;
+      }
+      slot = (slot + 1) & mask;
+    }
+    int index = append(prefixId, name, split);
+    table[slot] = index + 1;
+    if (size * 2 > table.length) {
+      rehash();
+    }
+    return index;
+  }
+
+  String get(int index) {
+    int suffixStart = index == 0 ? 0 : suffixEnds[index - 1];
+    String prefix = prefixes.get(prefixIdByName[index]);
+    return new StringBuilder(prefix.length() + suffixEnds[index] - suffixStart)
+      .append(prefix)
+      .append(suffixChars, suffixStart, suffixEnds[index] - suffixStart)
+      .toString();
+  }
+
+  private int append(int prefixId, String name, int split) {
+    if (size == prefixIdByName.length) {
+      prefixIdByName = Arrays.copyOf(prefixIdByName, size * 2);
+      suffixEnds = Arrays.copyOf(suffixEnds, size * 2);
+    }
+    int suffixStart = size == 0 ? 0 : suffixEnds[size - 1];
+    int suffixEnd = suffixStart + name.length() - split;
+    if (suffixEnd > suffixChars.length) {
+      suffixChars = Arrays.copyOf(suffixChars, Math.max(suffixEnd, suffixChars.length * 2));
+    }
+    name.getChars(split, name.length(), suffixChars, suffixStart);
+    prefixIdByName[size] = prefixId;
+    suffixEnds[size] = suffixEnd;
+    size++;
+    return size - 1;
+  }
+
+  private boolean suffixEquals(int index, String name, int split) {
+    int suffixStart = index == 0 ? 0 : suffixEnds[index - 1];
+    if (suffixEnds[index] - suffixStart != name.length() - split) {
+      return false;
+    }
+    for (int i = split; i < name.length(); i++) {
+      if (suffixChars[suffixStart + i - split] != name.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void rehash() {
+    table = new int[table.length * 2];
+    int mask = table.length - 1;
+    for (int index = 0; index < size; index++) {
+      int suffixStart = index == 0 ? 0 : suffixEnds[index - 1];
+      int slot = hash(prefixIdByName[index], suffixChars, suffixStart, suffixEnds[index]) & mask;
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = index + 1;
+    }
+  }
+
+  private static int hash(int prefixId, String name, int split) {
+    int hash = prefixId;
+    for (int i = split; i < name.length(); i++) {
+      hash = 31 * hash + name.charAt(i);
+    }
+    return mix(hash);
+  }
+
+  private static int hash(int prefixId, char[] chars, int start, int end) {
+    int hash = prefixId;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + chars[i];
+    }
+    return mix(hash);
+  }
+
+  private static int mix(int hash) {
+    int h = hash * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+}
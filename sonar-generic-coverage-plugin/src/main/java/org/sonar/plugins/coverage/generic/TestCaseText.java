@@ -0,0 +1,131 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.base.Charsets;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Message or stack trace of a test case: kept as is, deflated, or read back from the report when it is needed.
+ * Instances are shared by the test cases with the same text, see {@link TestCaseTexts}.
+ */
+abstract class TestCaseText {
+
+  static TestCaseText of(String text) {
+    return new PlainText(text);
+  }
+
+  static TestCaseText deflated(byte[] deflated) {
+    return new DeflatedText(deflated);
+  }
+
+  /**
+   * Texts read back from the report are not shared like other texts: telling that two of them are equal would mean
+   * reading them, while each one only keeps its offsets in memory, whatever its length.
+   *
+   * @param start offset of the first character of the content of the element in the report
+   * @param end offset of the character following the content of the element
+   * @param maxLength maximum number of characters kept, 0 for no maximum
+   */
+  static TestCaseText inReport(ReportTextSource source, long start, long end, int maxLength) {
+    return new ReportText(source, start, end, maxLength);
+  }
+
+  /**
+   * @param maxLength 0 for no maximum
+   */
+  static String truncate(String text, int maxLength) {
+    if (maxLength <= 0 || text.length() <= maxLength) {
+      return text;
+    }
+    int end = maxLength;
+    if (Character.isHighSurrogate(text.charAt(end - 1))) {
+      // do not split a surrogate pair
+      end--;
+    }
+    return text.substring(0, end);
+  }
+
+  private static final class PlainText extends TestCaseText {
+    private final String text;
+
+    PlainText(String text) {
+      this.text = text;
+    }
+
+    @Override
+    public String toString() {
+      return text;
+    }
+  }
+
+  private static final class DeflatedText extends TestCaseText {
+    private final byte[] deflated;
+
+    DeflatedText(byte[] deflated) {
+      this.deflated = deflated;
+    }
+
+    @Override
+    public String toString() {
+      Inflater inflater = new Inflater();
+      try {
+        inflater.setInput(deflated);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(deflated.length * 4);
+        byte[] buffer = new byte[4096];
+        while (!inflater.finished()) {
+          int length = inflater.inflate(buffer);
+          if (length == 0 && inflater.needsInput()) {
+            throw new IllegalStateException("Truncated test case text");
+          }
+          bytes.write(buffer, 0, length);
+        }
+        return new String(bytes.toByteArray(), Charsets.UTF_8);
+      } catch (DataFormatException e) {
+        throw new IllegalStateException(e);
+      } finally {
+        inflater.end();
+      }
+    }
+  }
+
+  private static final class ReportText extends TestCaseText {
+    private final ReportTextSource source;
+    private final long start;
+    private final long end;
+    private final int maxLength;
+
+    ReportText(ReportTextSource source, long start, long end, int maxLength) {
+      this.source = source;
+      this.start = start;
+      this.end = end;
+      this.maxLength = maxLength;
+    }
+
+    @Override
+    public String toString() {
+      return truncate(source.text(start, end), maxLength);
+    }
+  }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.base.Charsets;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Messages and stack traces of the test cases of a parser: a text reported by several failing tests is kept once.
+ * When compression is enabled, texts are deflated and recognized by their SHA-1 digest, so that only compressed texts
+ * stay in memory. Not thread safe.
+ */
+final class TestCaseTexts {
+
+  // deflating shorter texts saves nothing
+  private static final int MIN_DEFLATED_LENGTH = 128;
+
+  private final boolean compress;
+  // texts, or digests of their UTF-8 bytes when compression is enabled
+  private final Map<Object, TestCaseText> texts = new HashMap<>();
+  private MessageDigest digest;
+
+  TestCaseTexts(boolean compress) {
+    this.compress = compress;
+  }
+
+  @CheckForNull
+  TestCaseText intern(@Nullable String text) {
+    if (text == null) {
+      return null;
+    }
+    if (!compress || text.length() < MIN_DEFLATED_LENGTH) {
+      TestCaseText result = texts.get(text);
+      if (result == null) {
+        result = TestCaseText.of(text);
+        texts.put(text, result);
+      }
+      return result;
+    }
+    byte[] bytes = text.getBytes(Charsets.UTF_8);
+    ByteBuffer key = ByteBuffer.wrap(digest().digest(bytes));
+    TestCaseText result = texts.get(key);
+    if (result == null) {
+      result = TestCaseText.deflated(deflate(bytes));
+      texts.put(key, result);
+    }
+    return result;
+  }
+
+  private MessageDigest digest() {
+    if (digest == null) {
+      try {
+        digest = MessageDigest.getInstance("SHA-1");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    return digest;
+  }
+
+  private static byte[] deflate(byte[] bytes) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(bytes);
+      deflater.finish();
+      ByteArrayOutputStream deflated = new ByteArrayOutputStream(bytes.length / 4);
+      byte[] buffer = new byte[4096];
+      while (!deflater.finished()) {
+        int length = deflater.deflate(buffer);
+        deflated.write(buffer, 0, length);
+      }
+      return deflated.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+}
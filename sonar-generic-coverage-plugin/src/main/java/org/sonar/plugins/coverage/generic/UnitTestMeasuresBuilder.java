@@ -23,19 +23,26 @@ import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.measures.Measure;
 import org.sonar.api.utils.ParsingUtils;
 
+import javax.annotation.Nullable;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 
+/**
+ * Test cases are kept in arrays indexed by the position of their name in {@link TestCaseNames}, and only turned into
+ * {@link TestCase} objects when they are read.
+ */
 public final class UnitTestMeasuresBuilder {
 
-  private final Map<String, TestCase> index = new HashMap<>();
-  private int test = 0;
-  private int failure = 0;
-  private int error = 0;
-  private int skipped = 0;
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final TestCaseNames names = new TestCaseNames();
+  private byte[] statuses = new byte[INITIAL_CAPACITY];
+  private long[] durations = new long[INITIAL_CAPACITY];
+  private TestCaseText[] messages = new TestCaseText[INITIAL_CAPACITY];
+  private TestCaseText[] stackTraces = new TestCaseText[INITIAL_CAPACITY];
+  private final int[] countsByStatus = new int[TestCase.Status.values().length];
   private long duration = 0L;
 
   private UnitTestMeasuresBuilder() {
@@ -43,33 +50,46 @@ public final class UnitTestMeasuresBuilder {
   }
 
   public boolean setTestCase(String name, String status, long duration, String message, String stacktrace) {
-    if (index.containsKey(name)) {
-      return false;
-    } else {
-      TestCase testCase = new TestCase();
-      testCase
-        .setName(name)
-        .setStatus(status)
-        .setDuration(duration)
-        .setMessage(message)
-        .setStackTrace(stacktrace);
-      index.put(name, testCase);
+    return setTestCaseWithTexts(name, TestCase.Status.checkedOf(status), duration, message == null ? null : TestCaseText.of(message), stacktrace == null ? null : TestCaseText.of(stacktrace));
+  }
 
-      setCounter(status);
-      this.duration += duration;
-      return true;
+  /**
+   * Same as {@link #setTestCase(String, String, long, String, String)}, with texts which may be shared by other test cases.
+   */
+  boolean setTestCaseWithTexts(String name, TestCase.Status status, long duration, @Nullable TestCaseText message, @Nullable TestCaseText stacktrace) {
+    int index = names.add(name);
+    if (index < 0) {
+      return false;
+    }
+    if (index == statuses.length) {
+      int capacity = index * 2;
+      statuses = Arrays.copyOf(statuses, capacity);
+      durations = Arrays.copyOf(durations, capacity);
+      messages = Arrays.copyOf(messages, capacity);
+      stackTraces = Arrays.copyOf(stackTraces, capacity);
     }
+    statuses[index] = (byte) status.ordinal();
+    durations[index] = duration;
+    messages[index] = message;
+    stackTraces[index] = stacktrace;
+    countsByStatus[status.ordinal()]++;
+    this.duration += duration;
+    return true;
   }
 
-  private void setCounter(String status) {
-    if (TestCase.ERROR.equals(status)) {
-      error++;
-    } else if (TestCase.FAILURE.equals(status)) {
-      failure++;
-    } else if (TestCase.SKIPPED.equals(status)) {
-      skipped++;
+  /**
+   * Adds the test cases of another builder of the same file.
+   *
+   * @return false if a test case is reported by both builders
+   */
+  public boolean merge(UnitTestMeasuresBuilder other) {
+    for (int i = 0; i < other.names.size(); i++) {
+      TestCase.Status status = TestCase.Status.ofOrdinal(other.statuses[i]);
+      if (!setTestCaseWithTexts(other.names.get(i), status, other.durations[i], other.messages[i], other.stackTraces[i])) {
+        return false;
+      }
     }
-    test++;
+    return true;
   }
 
   public static UnitTestMeasuresBuilder create() {
@@ -78,7 +98,11 @@ public final class UnitTestMeasuresBuilder {
 
   public java.util.Collection<Measure> createMeasures() {
     Collection<Measure> measures = new ArrayList<>();
+    int test = names.size();
     if (test > 0) {
+      int skipped = countsByStatus[TestCase.Status.SKIPPED.ordinal()];
+      int error = countsByStatus[TestCase.Status.ERROR.ordinal()];
+      int failure = countsByStatus[TestCase.Status.FAILURE.ordinal()];
       measures.add(new Measure(CoreMetrics.SKIPPED_TESTS, (double) skipped));
       measures.add(new Measure(CoreMetrics.TESTS, (double) test));
       measures.add(new Measure(CoreMetrics.TEST_ERRORS, (double) error));
@@ -91,7 +115,25 @@ public final class UnitTestMeasuresBuilder {
     return measures;
   }
 
+  /**
+   * @return test cases in the order they were set, each one created when it is read
+   */
   public Collection<TestCase> getTestCases() {
-    return Collections.unmodifiableCollection(index.values());
+    return new AbstractList<TestCase>() {
+      @Override
+      public TestCase get(int index) {
+        return new TestCase()
+          .setName(names.get(index))
+          .setStatus(TestCase.Status.ofOrdinal(statuses[index]))
+          .setDuration(durations[index])
+          .setMessageText(messages[index])
+          .setStackTraceText(stackTraces[index]);
+      }
+
+      @Override
+      public int size() {
+        return names.size();
+      }
+    };
   }
 }
@@ -0,0 +1,114 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultFileSystem;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.component.ResourcePerspectives;
+import org.sonar.api.measures.Measure;
+import org.sonar.api.resources.Resource;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BinaryReportConverterTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private DefaultFileSystem fs;
+
+  @Before
+  public void before() {
+    fs = new DefaultFileSystem().setBaseDir(new File(""));
+    for (String path : new String[] {"src/main/java/com/example/EmptyClass.java", "src/main/java/com/example/ClassWithoutBranch.java",
+      "src/main/java/com/example/ClassWithBranches.java"}) {
+      DefaultInputFile inputFile = new DefaultInputFile(path).setLanguage("bla").setAbsolutePath("/root/" + path);
+      fs.add(inputFile);
+    }
+  }
+
+  @Test
+  public void binary_report_holds_the_same_data() throws Exception {
+    File xmlReport = new File("src/test/resources/coverage.xml");
+    File binaryReport = temp.newFile();
+    BinaryReportConverter.convert(xmlReport, binaryReport);
+    assertThat(binaryReport.length()).isLessThan(xmlReport.length() / 3);
+
+    SensorContext xmlContext = mockContext();
+    ReportParser xmlParser = new ReportParser(fs, xmlContext, mock(ResourcePerspectives.class), ReportParser.Mode.COVERAGE);
+    xmlParser.parse(xmlReport, "coverage.xml");
+    SensorContext binaryContext = mockContext();
+    ReportParser binaryParser = new ReportParser(fs, binaryContext, mock(ResourcePerspectives.class), ReportParser.Mode.COVERAGE);
+    binaryParser.parse(binaryReport, "coverage.bin");
+
+    assertThat(binaryParser.numberOfMatchedFiles()).isEqualTo(xmlParser.numberOfMatchedFiles()).isEqualTo(3);
+    assertThat(binaryParser.numberOfUnknownFiles()).isEqualTo(xmlParser.numberOfUnknownFiles()).isEqualTo(1);
+    assertThat(binaryParser.firstUnknownFiles()).isEqualTo(xmlParser.firstUnknownFiles());
+    assertThat(savedMeasures(binaryParser, binaryContext)).isEqualTo(savedMeasures(xmlParser, xmlContext));
+  }
+
+  @Test(expected = ReportParsingException.class)
+  public void invalid_xml_report_is_not_converted() throws Exception {
+    File xmlReport = temp.newFile();
+    Files.write("<coverage version=\"1\"><file path=\"a\"><lineToCover lineNumber=\"0\" covered=\"true\"/></file></coverage>",
+      xmlReport, Charsets.UTF_8);
+    BinaryReportConverter.convert(xmlReport, temp.newFile());
+  }
+
+  private SensorContext mockContext() {
+    SensorContext context = mock(SensorContext.class);
+    when(context.getResource(any(InputFile.class))).thenReturn(mock(Resource.class));
+    return context;
+  }
+
+  private static List<String> savedMeasures(ReportParser parser, SensorContext context) {
+    parser.saveMeasures();
+    ArgumentCaptor<InputFile> files = ArgumentCaptor.forClass(InputFile.class);
+    ArgumentCaptor<Measure> measures = ArgumentCaptor.forClass(Measure.class);
+    verify(context, atLeastOnce()).saveMeasure(files.capture(), measures.capture());
+    List<String> result = new ArrayList<>();
+    for (int i = 0; i < measures.getAllValues().size(); i++) {
+      Measure measure = measures.getAllValues().get(i);
+      result.add(files.getAllValues().get(i).relativePath() + " " + measure.getMetricKey() + " " + measure.getValue() + " " + measure.getData());
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BinaryReportReaderTest {
+
+  private ReportSink sink;
+
+  @Before
+  public void before() {
+    sink = mock(ReportSink.class);
+    when(sink.startFile("file1", 1)).thenReturn(true);
+    when(sink.startFile("file2", 4)).thenReturn(true);
+    when(sink.startFile("file1", 6)).thenReturn(true);
+  }
+
+  @Test
+  public void read() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (BinaryReportWriter writer = new BinaryReportWriter(bytes)) {
+      writer.startFile("file1").addLineToCover(10, true).addLineToCover(3, false, 4, 2);
+      writer.startFile("file2").addLineToCover(Integer.MAX_VALUE, true);
+      writer.startFile("file1").addLineToCover(10, false);
+      writer.startFile("unknown").addLineToCover(1, true);
+    }
+    read(bytes.toByteArray());
+    verify(sink).lineToCover(10, true, -1, 0, 2);
+    verify(sink).lineToCover(3, false, 4, 2, 3);
+    verify(sink).lineToCover(Integer.MAX_VALUE, true, -1, 0, 5);
+    verify(sink).lineToCover(10, false, -1, 0, 7);
+    verify(sink).startFile("unknown", 8);
+  }
+
+  @Test
+  public void empty_report() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new BinaryReportWriter(bytes).close();
+    assertThat(bytes.size()).isEqualTo(6);
+    read(bytes.toByteArray());
+    verify(sink, never()).lineToCover(anyInt(), anyBoolean(), anyInt(), anyInt(), anyInt());
+  }
+
+  @Test
+  public void invalid_values() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (BinaryReportWriter writer = new BinaryReportWriter(bytes)) {
+      writer.startFile("file1").addLineToCover(1, true).addLineToCover(0, true);
+    }
+    assertFailure(bytes.toByteArray(), 3, "Value of attribute \"lineNumber\" is \"0\" but it should be greater than or equal to 1");
+
+    bytes = new ByteArrayOutputStream();
+    try (BinaryReportWriter writer = new BinaryReportWriter(bytes)) {
+      writer.startFile("unknown").addLineToCover(1, true, 2, 3);
+    }
+    assertFailure(bytes.toByteArray(), 2, "\"coveredBranches\" should not be greater than \"branchesToCover\"");
+  }
+
+  @Test
+  public void corrupted_reports() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (BinaryReportWriter writer = new BinaryReportWriter(bytes)) {
+      writer.startFile("file1").addLineToCover(1, true);
+    }
+    byte[] report = bytes.toByteArray();
+    assertFailure(Arrays.copyOf(report, report.length - 2), 2, "Corrupted binary report: Unexpected end of the report");
+    assertFailure(Arrays.copyOf(report, report.length + 1), 2, "Corrupted binary report: Unexpected data after the end of the report");
+
+    byte[] unknownVersion = report.clone();
+    unknownVersion[4] = 2;
+    assertFailure(unknownVersion, 0, "Unknown binary coverage version: 2. This parser only handles version 1.");
+
+    byte[] unknownPath = report.clone();
+    unknownPath[5] = 2;
+    assertFailure(unknownPath, 1, "Corrupted binary report: Unknown path reference 2");
+  }
+
+  private void assertFailure(byte[] report, int record, String message) throws IOException {
+    try {
+      read(report);
+      fail("Expected ReportParsingException");
+    } catch (ReportParsingException e) {
+      assertThat(e.getMessage()).isEqualTo(message);
+      assertThat(e.lineNumber()).isEqualTo(record);
+    }
+  }
+
+  private void read(byte[] report) throws IOException {
+    new BinaryReportReader(sink).read(new ByteArrayInputStream(report));
+  }
+
+}
@@ -0,0 +1,47 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CountingInputStreamTest {
+
+  @Test
+  public void counts_bytes_read_once() throws Exception {
+    ImportMetrics metrics = new ImportMetrics();
+    InputStream inputStream = new CountingInputStream(new ByteArrayInputStream(new byte[100]), metrics);
+    inputStream.mark(10);
+    inputStream.read();
+    inputStream.read(new byte[5]);
+    assertThat(metrics.bytesRead()).isEqualTo(6);
+    inputStream.reset();
+    assertThat(metrics.bytesRead()).isEqualTo(0);
+    inputStream.skip(10);
+    ByteStreams.toByteArray(inputStream);
+    assertThat(metrics.bytesRead()).isEqualTo(100);
+  }
+
+}
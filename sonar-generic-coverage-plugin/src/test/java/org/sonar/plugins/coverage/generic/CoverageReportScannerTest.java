@@ -0,0 +1,199 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.base.Charsets;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CoverageReportScannerTest {
+
+  private ReportSink sink;
+  private CoverageReportScanner scanner;
+
+  @Before
+  public void before() {
+    sink = mock(ReportSink.class);
+    when(sink.startFile("file1", 1)).thenReturn(true);
+    when(sink.startFile("file1", 3)).thenReturn(true);
+    scanner = new CoverageReportScanner(sink);
+  }
+
+  @Test
+  public void canonical_report() throws Exception {
+    assertThat(scan("<coverage version=\"1\"><file path=\"file1\">"
+      + "<lineToCover lineNumber=\"2\" covered=\"TRUE\" branchesToCover=\"4\" coveredBranches=\"3\"/>"
+      + "<lineToCover covered='false' lineNumber='3'></lineToCover>"
+      + "<lineToCover lineNumber=\"4\" covered=\"false\" coveredBranches=\"1\"/>"
+      + "</file><file path=\"unknown\"><lineToCover lineNumber=\"1\" covered=\"true\"/></file></coverage>")).isTrue();
+    verify(sink).lineToCover(2, true, 4, 3, 1);
+    verify(sink).lineToCover(3, false, -1, 0, 1);
+    verify(sink).lineToCover(4, false, -1, 1, 1);
+    verify(sink).startFile("unknown", 1);
+    assertThat(scanner.committedFiles()).isEqualTo(2);
+  }
+
+  @Test
+  public void boolean_values_in_any_case() throws Exception {
+    assertThat(scan("<coverage version=\"1\"><file path=\"file1\">"
+      + "<lineToCover lineNumber=\"2\" covered=\"tRuE\"/>"
+      + "<lineToCover lineNumber=\"3\" covered=\"FaLsE\"/>"
+      + "</file></coverage>")).isTrue();
+    verify(sink).lineToCover(2, true, -1, 0, 1);
+    verify(sink).lineToCover(3, false, -1, 0, 1);
+  }
+
+  @Test
+  public void declaration_and_line_numbers() throws Exception {
+    assertThat(scan("\uFEFF<?xml version=\"1.0\" encoding=\"utf-8\" standalone=\"yes\" ?>\r\n"
+      + "<coverage version=\"1\">\r<file\n path = \"file1\" >\r\n\t"
+      + "<lineToCover lineNumber=\"2\"\ncovered=\"true\" />\n"
+      + "</file>\n</coverage>\n")).isTrue();
+    verify(sink).startFile("file1", 3);
+    verify(sink).lineToCover(2, true, -1, 0, 5);
+  }
+
+  @Test
+  public void non_ascii_path() throws Exception {
+    assertThat(scan("<coverage version=\"1\"><file path=\"caf\u00e9.js\"/></coverage>")).isTrue();
+    verify(sink).startFile("caf\u00e9.js", 1);
+  }
+
+  @Test
+  public void empty_report() throws Exception {
+    assertThat(scan("<coverage version=\"1\"/>")).isTrue();
+    assertThat(scan("<coverage version=\"1\">\n</coverage>")).isTrue();
+    verify(sink, never()).startFile(anyString(), anyInt());
+  }
+
+  @Test
+  public void unsupported_syntax() throws Exception {
+    assertUnsupported("<!-- comment --><coverage version=\"1\"/>");
+    assertUnsupported("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><coverage version=\"1\"/>");
+    assertUnsupported("<?xml-stylesheet href=\"style.xsl\"?><coverage version=\"1\"/>");
+    assertUnsupported("<!DOCTYPE coverage><coverage version=\"1\"/>");
+    assertUnsupported("<coverage version=\"1\" xmlns=\"http://example.com\"/>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"file&amp;1\"/></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"file1\"><![CDATA[x]]></file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><ns:file path=\"file1\"/></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"file1\">text</file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"true\" hits=\"2\"/></file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"1\"covered=\"true\"/></file></coverage>");
+    assertUnsupported("<coverage version=\"1\"/><!-- comment -->");
+  }
+
+  @Test
+  public void invalid_report() throws Exception {
+    assertUnsupported("");
+    assertUnsupported("<coverage version=\"2\"/>");
+    assertUnsupported("<unitTest version=\"1\"/>");
+    assertUnsupported("<coverage version=\"1\"><file/></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"file1\"></fil></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"0\" covered=\"true\"/></file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\" 1\" covered=\"true\"/></file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"1234567890\" covered=\"true\"/></file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"yes\"/></file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"tru\"/></file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"falsey\"/></file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"t\u00f2ue\"/></file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"fal5e\"/></file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"true\" covered=\"true\"/></file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"true\" branchesToCover=\"-1\"/></file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"file1\">"
+      + "<lineToCover lineNumber=\"1\" covered=\"true\" branchesToCover=\"1\" coveredBranches=\"2\"/></file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"file1\">");
+    verify(sink, never()).startFile(anyString(), anyInt());
+  }
+
+  @Test
+  public void content_of_unknown_files_is_skipped() throws Exception {
+    when(sink.isUnknownFile("unknown")).thenReturn(true);
+    when(sink.startFile("file1", 8)).thenReturn(true);
+    assertThat(scan("<coverage version=\"1\">\n"
+      + "<file path=\"unknown\">\n"
+      + "  <lineToCover lineNumber=\"0\" covered=\"maybe\" hits='>2'/>\r\n"
+      + "  <lineToCover\nlineNumber=\"2\" covered=\"true\"></lineToCover>\n"
+      + "</file>\n"
+      + "<file path=\"unknown\"/>\n"
+      + "<file path=\"file1\"><lineToCover lineNumber=\"2\" covered=\"true\"/></file>\n"
+      + "</coverage>")).isTrue();
+    verify(sink).startFile("unknown", 2);
+    verify(sink).startFile("unknown", 7);
+    verify(sink).lineToCover(2, true, -1, 0, 8);
+    assertThat(scanner.committedFiles()).isEqualTo(3);
+  }
+
+  @Test
+  public void unsupported_syntax_in_unknown_files() throws Exception {
+    when(sink.isUnknownFile("unknown")).thenReturn(true);
+    assertUnsupported("<coverage version=\"1\"><file path=\"unknown\"><!-- </file> --></file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"unknown\">text</file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"unknown\"><other/></file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"unknown\"><lineToCover lineNumber=\"1\"></file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"unknown\"><lineToCover lineNumber=\"&lt;\"/></file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"unknown\"><lineToCover lineNumber=\"1\"covered=\"true\"/></file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"unknown\"><lineToCover lineNumber/></file></coverage>");
+    assertUnsupported("<coverage version=\"1\"><file path=\"unknown\"><lineToCover lineNumber=\"1/></file></coverage>");
+    verify(sink, never()).startFile(anyString(), anyInt());
+  }
+
+  @Test
+  public void single_file_element() throws Exception {
+    when(sink.startFile("file1", 5)).thenReturn(true);
+    String element = "<file path=\"file1\">\n<lineToCover lineNumber=\"2\" covered=\"true\"/></file>";
+    assertThat(scanner.scanFileElement(new ByteArrayInputStream(element.getBytes(Charsets.UTF_8)), 5, "file1")).isTrue();
+    verify(sink).lineToCover(2, true, -1, 0, 6);
+    assertThat(scanner.offset()).isEqualTo(element.length());
+
+    assertThat(scanner.scanFileElement(new ByteArrayInputStream(element.getBytes(Charsets.UTF_8)), 5, "file2")).isFalse();
+    verify(sink).startFile("file1", 5);
+  }
+
+  @Test
+  public void files_are_committed_until_unsupported_syntax() throws Exception {
+    assertThat(scan("<coverage version=\"1\">"
+      + "<file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"true\"/></file>"
+      + "<file path=\"file2\"><lineToCover lineNumber=\"1\" covered=\"true\"/><!-- comment --></file>"
+      + "</coverage>")).isFalse();
+    assertThat(scanner.committedFiles()).isEqualTo(1);
+    verify(sink).lineToCover(1, true, -1, 0, 1);
+    verify(sink, never()).startFile("file2", 1);
+  }
+
+  private void assertUnsupported(String report) throws IOException {
+    assertThat(new CoverageReportScanner(sink).scan(new ByteArrayInputStream(report.getBytes(Charsets.UTF_8)))).as(report).isFalse();
+  }
+
+  private boolean scan(String report) throws IOException {
+    return scanner.scan(new ByteArrayInputStream(report.getBytes(Charsets.UTF_8)));
+  }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CoverageSpillLogTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final InputFile file1 = new DefaultInputFile("file1");
+  private final InputFile file2 = new DefaultInputFile("file2");
+
+  @Test
+  public void merge_spilled_records_across_windows() throws Exception {
+    CoverageSpillLog log = new CoverageSpillLog(temp.getRoot(), 64);
+    try {
+      log.spill(file1, builder(1, 0, 2, 1));
+      log.spill(file2, builder(5, 1, 6, 1, 7, 0));
+      log.spill(file1, builder(1, 1, 3, 0));
+      assertThat(log.files()).containsOnly(file1, file2);
+
+      CustomCoverageMeasuresBuilder merged = log.mergeInto(file1, CustomCoverageMeasuresBuilder.create().setHits(4, 0));
+      assertThat(merged.getLinesToCover()).isEqualTo(4);
+      assertThat(merged.getCoveredLines()).isEqualTo(2);
+      assertThat(log.files()).containsOnly(file2);
+      assertThat(log.mergeInto(file2, CustomCoverageMeasuresBuilder.create()).getCoveredLines()).isEqualTo(2);
+      assertThat(log.files()).isEmpty();
+    } finally {
+      log.close();
+    }
+  }
+
+  @Test
+  public void records_larger_than_a_window() throws Exception {
+    CustomCoverageMeasuresBuilder builder = CustomCoverageMeasuresBuilder.create();
+    for (int line = 1; line <= 100; line++) {
+      builder.setHits(line, line % 2);
+    }
+    CoverageSpillLog log = new CoverageSpillLog(temp.getRoot(), 64);
+    try {
+      log.spill(file1, builder(1, 1));
+      log.spill(file1, builder);
+      log.spill(file2, builder(1, 1));
+      assertThat(log.mergeInto(file1, CustomCoverageMeasuresBuilder.create()).getCoveredLines()).isEqualTo(50);
+      assertThat(log.mergeInto(file2, CustomCoverageMeasuresBuilder.create()).getCoveredLines()).isEqualTo(1);
+    } finally {
+      log.close();
+    }
+  }
+
+  @Test
+  public void conflicting_conditions() throws Exception {
+    CoverageSpillLog log = new CoverageSpillLog(temp.getRoot(), 64);
+    try {
+      log.spill(file1, CustomCoverageMeasuresBuilder.create().setConditions(1, 2, 1));
+      assertThat(log.mergeInto(file1, CustomCoverageMeasuresBuilder.create().setConditions(1, 3, 1))).isNull();
+    } finally {
+      log.close();
+    }
+  }
+
+  @Test
+  public void append_records_of_another_log() throws Exception {
+    CoverageSpillLog log = new CoverageSpillLog(temp.getRoot(), 64);
+    CoverageSpillLog other = new CoverageSpillLog(temp.getRoot(), 64);
+    try {
+      log.spill(file1, builder(1, 0));
+      other.spill(file1, builder(1, 1, 2, 1));
+      other.spill(file2, builder(3, 0));
+      log.appendAll(other);
+      assertThat(log.files()).containsOnly(file1, file2);
+      CustomCoverageMeasuresBuilder merged = log.mergeInto(file1, CustomCoverageMeasuresBuilder.create());
+      assertThat(merged.getLinesToCover()).isEqualTo(2);
+      assertThat(merged.getCoveredLines()).isEqualTo(2);
+      assertThat(log.mergeInto(file2, CustomCoverageMeasuresBuilder.create()).getLinesToCover()).isEqualTo(1);
+    } finally {
+      log.close();
+      other.close();
+    }
+  }
+
+  @Test
+  public void file_is_deleted_once_closed() throws Exception {
+    CoverageSpillLog log = new CoverageSpillLog(new File(temp.getRoot(), "spill"));
+    log.spill(file1, builder(1, 0));
+    File file = log.file();
+    assertThat(file.getParentFile().getName()).isEqualTo("spill");
+    assertThat(file).exists();
+    log.close();
+    assertThat(file).doesNotExist();
+  }
+
+  private static CustomCoverageMeasuresBuilder builder(int... linesAndHits) {
+    CustomCoverageMeasuresBuilder builder = CustomCoverageMeasuresBuilder.create();
+    for (int i = 0; i < linesAndHits.length; i += 2) {
+      builder.setHits(linesAndHits[i], linesAndHits[i + 1]);
+    }
+    return builder;
+  }
+
+}
@@ -22,10 +22,13 @@ package org.sonar.plugins.coverage.generic;
 import org.junit.Test;
 import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.measures.Measure;
+import org.sonar.api.utils.KeyValueFormat;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.MapAssert.entry;
 
 public class CustomCoverageMeasuresBuilderTest {
 
@@ -153,6 +156,94 @@ public class CustomCoverageMeasuresBuilderTest {
     assertThat(builder.getCoveredConditionsByLine().get(1)).isEqualTo(2);
   }
 
+  @Test
+  public void shouldMergeOtherBuilder() {
+    CustomCoverageMeasuresBuilder builder = CustomCoverageMeasuresBuilder.create();
+    builder.setHits(1, 0);
+    builder.setHits(2, 1);
+    builder.setConditions(2, 4, 1);
+    CustomCoverageMeasuresBuilder other = CustomCoverageMeasuresBuilder.create();
+    other.setHits(1, 1);
+    other.setHits(3, 0);
+    other.setConditions(2, 4, 3);
+    other.setConditions(3, 2, 0);
+    assertThat(builder.merge(other)).isSameAs(builder);
+    assertThat(builder.getLinesToCover()).isEqualTo(3);
+    assertThat(builder.getCoveredLines()).isEqualTo(2);
+    assertThat(builder.getConditions()).isEqualTo(6);
+    assertThat(builder.getCoveredConditions()).isEqualTo(3);
+    assertThat(builder.getCoveredConditionsByLine().get(2)).isEqualTo(3);
+  }
+
+  @Test
+  public void shouldReturnNullOnConflictingMerge() {
+    CustomCoverageMeasuresBuilder builder = CustomCoverageMeasuresBuilder.create();
+    builder.setConditions(1, 3, 2);
+    CustomCoverageMeasuresBuilder other = CustomCoverageMeasuresBuilder.create();
+    other.setConditions(1, 2, 2);
+    assertThat(builder.merge(other)).isNull();
+  }
+
+  @Test
+  public void shouldKeepLinesReportedInAnyOrder() {
+    CustomCoverageMeasuresBuilder builder = CustomCoverageMeasuresBuilder.create();
+    builder.setHits(10, 1);
+    builder.setHits(Integer.MAX_VALUE, 0);
+    for (int line = 40; line > 0; line--) {
+      builder.setHits(line, line % 2);
+    }
+    builder.setConditions(5, 2, 1);
+    builder.setConditions(100, 4, 0);
+    builder.setHits(10, 0);
+    assertThat(builder.getLinesToCover()).isEqualTo(41);
+    assertThat(builder.getCoveredLines()).isEqualTo(21);
+    assertThat(builder.getHitsByLine().firstKey()).isEqualTo(1);
+    assertThat(builder.getHitsByLine().lastKey()).isEqualTo(Integer.MAX_VALUE);
+    assertThat(builder.getHitsByLine().get(10)).isEqualTo(1);
+    assertThat(builder.getHitsByLine()).excludes(entry(100, 0));
+    assertThat(builder.getConditionsByLine().keySet()).containsOnly(5, 100);
+    assertThat(builder.getCoveredConditionsByLine().get(5)).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldFormatDataLikeKeyValueFormat() {
+    CustomCoverageMeasuresBuilder builder = CustomCoverageMeasuresBuilder.create();
+    builder.setHits(Integer.MAX_VALUE, Integer.MAX_VALUE);
+    for (int line = 1; line <= 1000; line += 7) {
+      builder.setHits(line, line * 31 % 12);
+      builder.setConditions(line * 3, line % 5, line % 3 == 0 ? 0 : 1);
+    }
+    Collection<Measure> measures = builder.createMeasures();
+    assertThat(find(measures, CoreMetrics.COVERAGE_LINE_HITS_DATA_KEY).getData()).isEqualTo(KeyValueFormat.format(builder.getHitsByLine()));
+    assertThat(find(measures, CoreMetrics.CONDITIONS_BY_LINE_KEY).getData()).isEqualTo(KeyValueFormat.format(builder.getConditionsByLine()));
+    assertThat(find(measures, CoreMetrics.COVERED_CONDITIONS_BY_LINE_KEY).getData())
+      .isEqualTo(KeyValueFormat.format(builder.getCoveredConditionsByLine()));
+  }
+
+  @Test
+  public void shouldMergeWrittenBuilder() {
+    CustomCoverageMeasuresBuilder written = CustomCoverageMeasuresBuilder.create();
+    written.setHits(1, 1);
+    written.setConditions(2, 4, 3);
+    written.setHits(3, 0);
+    ByteBuffer buffer = ByteBuffer.allocate(written.serializedSize());
+    written.writeTo(buffer);
+    assertThat(buffer.hasRemaining()).isFalse();
+
+    CustomCoverageMeasuresBuilder builder = CustomCoverageMeasuresBuilder.create();
+    builder.setHits(1, 0);
+    builder.setConditions(2, 4, 1);
+    buffer.flip();
+    assertThat(builder.merge(buffer)).isSameAs(builder);
+    assertThat(builder.getLinesToCover()).isEqualTo(2);
+    assertThat(builder.getCoveredLines()).isEqualTo(1);
+    assertThat(builder.getConditions()).isEqualTo(4);
+    assertThat(builder.getCoveredConditions()).isEqualTo(3);
+
+    buffer.flip();
+    assertThat(CustomCoverageMeasuresBuilder.create().setConditions(2, 2, 0).merge(buffer)).isNull();
+  }
+
   private Measure find(Collection<Measure> measures, String metricKey) {
     for (Measure measure : measures) {
       if (metricKey.equals(measure.getMetricKey())) {
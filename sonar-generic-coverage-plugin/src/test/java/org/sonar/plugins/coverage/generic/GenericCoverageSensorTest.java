@@ -19,11 +19,14 @@
  */
 package org.sonar.plugins.coverage.generic;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Splitter;
+import com.google.common.io.Files;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.sonar.api.batch.SensorContext;
@@ -40,9 +43,11 @@ import java.io.File;
 import java.util.List;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -52,6 +57,8 @@ public class GenericCoverageSensorTest {
 
   @Rule
   public ExpectedException thrown = ExpectedException.none();
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
 
   @Mock
   private Project project;
@@ -182,6 +189,333 @@ public class GenericCoverageSensorTest {
     assertThat(getLoggingEvents().get(11).getMessage()).isEqualTo("Imported unit test data for 2 files");
   }
 
+  @Test
+  public void analyse_multiple_reports_in_parallel() throws Exception {
+    settings.setProperty(GenericCoveragePlugin.PARSING_THREADS_PROPERTY_KEY, "4");
+    configureReportPaths("coverage.xml,coverage2.xml");
+    configureUTReportPaths("unittest.xml,unittest2.xml");
+    InputFile resource1 = addFileToContext("src/foobar.js");
+    InputFile resource2 = addFileToContext("src/helloworld.js");
+    InputFile testResource1 = addFileToContext("test/foobar_test.js");
+    InputFile testResource2 = addFileToContext("test/helloworld_test.js");
+    sensor.analyseWithLogger(context, logger);
+    verify(context, times(3)).saveMeasure(eq(resource1), any(Measure.class));
+    verify(context, times(3)).saveMeasure(eq(resource2), any(Measure.class));
+    verify(context, times(6)).saveMeasure(eq(testResource1), any(Measure.class));
+    verify(context, times(6)).saveMeasure(eq(testResource2), any(Measure.class));
+
+    assertThat(getLoggingEvents().get(0).getMessage()).contains("Parsing").contains("coverage.xml");
+    assertThat(getLoggingEvents().get(1).getMessage()).contains("Parsing").contains("coverage2.xml");
+    assertThat(getLoggingEvents().get(2).getMessage()).isEqualTo("Imported coverage data for 2 files");
+    assertThat(getLoggingEvents().get(3).getMessage()).isEqualTo("coverage data ignored for 1 unknown files, including:\nsrc/third.js");
+    assertThat(getLoggingEvents().get(6).getMessage()).contains("Parsing").contains("unittest.xml");
+    assertThat(getLoggingEvents().get(7).getMessage()).contains("Parsing").contains("unittest2.xml");
+    assertThat(getLoggingEvents().get(8).getMessage()).isEqualTo("Imported unit test data for 2 files");
+  }
+
+  @Test
+  public void analyse_reports_matching_patterns() throws Exception {
+    configureReportPaths("coverage.xml,coverage?.xml");
+    configureUTReportPaths("unittest?.xml,unittest.xml");
+    InputFile resource1 = addFileToContext("src/foobar.js");
+    InputFile resource2 = addFileToContext("src/helloworld.js");
+    InputFile testResource1 = addFileToContext("test/foobar_test.js");
+    InputFile testResource2 = addFileToContext("test/helloworld_test.js");
+    sensor.analyseWithLogger(context, logger);
+    verify(context, times(3)).saveMeasure(eq(resource1), any(Measure.class));
+    verify(context, times(3)).saveMeasure(eq(resource2), any(Measure.class));
+    verify(context, times(6)).saveMeasure(eq(testResource1), any(Measure.class));
+    verify(context, times(6)).saveMeasure(eq(testResource2), any(Measure.class));
+    assertThat(getLoggingEvents().get(0).getMessage()).contains("Parsing").endsWith("coverage.xml");
+    assertThat(getLoggingEvents().get(1).getMessage()).contains("Parsing").endsWith("coverage2.xml");
+  }
+
+  @Test
+  public void stop_on_pattern_without_report() throws Exception {
+    configureReportPaths("build/**/*.xml");
+    sensor.analyseWithLogger(context, logger);
+    verifyZeroInteractions(context);
+    assertThat(getLoggingEvents().get(1).getMessage()).startsWith("Cannot find coverage report to parse: ").endsWith("build/**/*.xml");
+  }
+
+  @Test
+  public void fail_on_invalid_pattern() throws Exception {
+    configureReportPaths("coverage[.xml");
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Invalid report path pattern: coverage[.xml");
+    sensor.analyseWithLogger(context, logger);
+  }
+
+  @Test
+  public void analyse_disjoint_reports() throws Exception {
+    settings.setProperty(GenericCoveragePlugin.DISJOINT_REPORTS_PROPERTY_KEY, "true");
+    settings.setProperty(GenericCoveragePlugin.PARSING_THREADS_PROPERTY_KEY, "4");
+    configureReportPaths("coverage.xml");
+    configureUTReportPaths("unittest.xml,unittest2.xml");
+    InputFile resource1 = addFileToContext("src/foobar.js");
+    InputFile resource2 = addFileToContext("src/third.js");
+    InputFile testResource1 = addFileToContext("test/foobar_test.js");
+    InputFile testResource2 = addFileToContext("test/helloworld_test.js");
+    sensor.analyseWithLogger(context, logger);
+    verify(context, times(3)).saveMeasure(eq(resource1), any(Measure.class));
+    verify(context, times(3)).saveMeasure(eq(resource2), any(Measure.class));
+    verify(context, times(6)).saveMeasure(eq(testResource1), any(Measure.class));
+    verify(context, times(6)).saveMeasure(eq(testResource2), any(Measure.class));
+  }
+
+  @Test
+  public void analyse_disjoint_reports_saves_nothing_when_a_report_is_missing() throws Exception {
+    settings.setProperty(GenericCoveragePlugin.DISJOINT_REPORTS_PROPERTY_KEY, "true");
+    configureReportPaths("coverage.xml,missing.xml");
+    addFileToContext("src/foobar.js");
+    sensor.analyseWithLogger(context, logger);
+    verify(context, never()).saveMeasure(any(InputFile.class), any(Measure.class));
+    assertThat(getLoggingEvents().get(2).getMessage()).startsWith("Cannot find coverage report to parse: ").endsWith("missing.xml");
+  }
+
+  @Test
+  public void analyse_reports_from_cache() throws Exception {
+    File workDir = temp.newFolder();
+    fs.setWorkDir(workDir);
+    settings.setProperty(GenericCoveragePlugin.REPORT_CACHE_PROPERTY_KEY, "true");
+    configureReportPaths("coverage.xml");
+    InputFile resource = addFileToContext("src/foobar.js");
+    sensor.analyseWithLogger(context, logger);
+    verify(context, times(3)).saveMeasure(eq(resource), any(Measure.class));
+    File cacheDirectory = new File(workDir, "genericcoverage-cache");
+    assertThat(cacheDirectory.list()).hasSize(2);
+
+    sensor.analyseWithLogger(context, logger);
+    verify(context, times(6)).saveMeasure(eq(resource), any(Measure.class));
+    assertThat(cacheDirectory.list()).hasSize(2);
+  }
+
+  @Test
+  public void snapshot_written_by_pipeline_keeps_unknown_files() throws Exception {
+    fs.setWorkDir(temp.newFolder());
+    settings.setProperty(GenericCoveragePlugin.REPORT_CACHE_PROPERTY_KEY, "true");
+    settings.setProperty(GenericCoveragePlugin.PIPELINE_WORKERS_PROPERTY_KEY, "2");
+    configureReportPaths("coverage.xml");
+    InputFile resource = addFileToContext("src/foobar.js");
+    sensor.analyseWithLogger(context, logger);
+    verify(context, times(3)).saveMeasure(eq(resource), any(Measure.class));
+
+    InputFile other = addFileToContext("src/third.js");
+    sensor.analyseWithLogger(context, logger);
+    verify(context, times(6)).saveMeasure(eq(resource), any(Measure.class));
+    verify(context, times(3)).saveMeasure(eq(other), any(Measure.class));
+  }
+
+  @Test
+  public void analyse_report_shared_by_modules() throws Exception {
+    settings.setProperty(GenericCoveragePlugin.SHARED_REPORTS_PROPERTY_KEY, "true");
+    configureReportPaths("coverage.xml");
+    SharedReportStore store = new SharedReportStore();
+    InputFile resource1 = addFileToContext("src/foobar.js");
+    new GenericCoverageSensor(settings, fs, perspectives, store).analyseWithLogger(context, logger);
+
+    fs = new DefaultFileSystem().setBaseDir(baseDir);
+    InputFile resource2 = addFileToContext("src/third.js");
+    new GenericCoverageSensor(settings, fs, perspectives, store).analyseWithLogger(context, logger);
+
+    verify(context, times(3)).saveMeasure(eq(resource1), any(Measure.class));
+    verify(context, times(3)).saveMeasure(eq(resource2), any(Measure.class));
+    int importedFiles = 0;
+    for (StubLogger.LoggingEvent event : getLoggingEvents()) {
+      if ("Imported coverage data for 1 files".equals(event.getMessage())) {
+        importedFiles++;
+      }
+    }
+    assertThat(importedFiles).isEqualTo(2);
+  }
+
+  @Test
+  public void report_shared_by_modules_is_read_once() throws Exception {
+    settings.setProperty(GenericCoveragePlugin.SHARED_REPORTS_PROPERTY_KEY, "true");
+    configureReportPaths("coverage.xml");
+    SharedReportStore store = new SharedReportStore();
+    File workDir1 = temp.newFolder();
+    fs.setWorkDir(workDir1);
+    addFileToContext("src/foobar.js");
+    new GenericCoverageSensor(settings, fs, perspectives, store).analyseWithLogger(context, logger);
+
+    fs = new DefaultFileSystem().setBaseDir(baseDir);
+    File workDir2 = temp.newFolder();
+    fs.setWorkDir(workDir2);
+    addFileToContext("src/third.js");
+    new GenericCoverageSensor(settings, fs, perspectives, store).analyseWithLogger(context, logger);
+
+    String json1 = Files.toString(new File(workDir1, GenericCoverageSensor.METRICS_FILE), Charsets.UTF_8);
+    assertThat(json1).contains("{\"mode\": \"coverage\", \"bytes\": " + new File(baseDir, "coverage.xml").length() + ", ");
+    String json2 = Files.toString(new File(workDir2, GenericCoverageSensor.METRICS_FILE), Charsets.UTF_8);
+    assertThat(json2).contains("{\"mode\": \"coverage\", \"bytes\": 0, ");
+  }
+
+  @Test
+  public void analyse_report_directory_with_indexes() throws Exception {
+    File workDir = temp.newFolder();
+    fs.setWorkDir(workDir);
+    File reportDirectory = temp.newFolder();
+    Files.copy(new File(baseDir, "coverage.xml"), new File(reportDirectory, "coverage.xml"));
+    settings.setProperty(GenericCoveragePlugin.REPORT_INDEX_PROPERTY_KEY, "true");
+    configureReportPaths(reportDirectory.getAbsolutePath());
+    InputFile resource = addFileToContext("src/foobar.js");
+    sensor.analyseWithLogger(context, logger);
+    assertThat(new File(workDir, GenericCoverageSensor.INDEX_DIRECTORY).list()).hasSize(1);
+
+    sensor.analyseWithLogger(context, logger);
+    verify(context, times(6)).saveMeasure(eq(resource), any(Measure.class));
+    assertThat(reportDirectory.list()).containsOnly("coverage.xml");
+    assertThat(new File(workDir, GenericCoverageSensor.INDEX_DIRECTORY).list()).hasSize(1);
+  }
+
+  @Test
+  public void report_index_shared_by_modules_is_built_once() throws Exception {
+    settings.setProperty(GenericCoveragePlugin.REPORT_INDEX_PROPERTY_KEY, "true");
+    configureReportPaths("coverage.xml");
+    SharedReportIndexes indexes = new SharedReportIndexes();
+    File workDir1 = temp.newFolder();
+    fs.setWorkDir(workDir1);
+    InputFile resource1 = addFileToContext("src/foobar.js");
+    new GenericCoverageSensor(settings, fs, perspectives, null, indexes).analyseWithLogger(context, logger);
+
+    fs = new DefaultFileSystem().setBaseDir(baseDir);
+    File workDir2 = temp.newFolder();
+    fs.setWorkDir(workDir2);
+    InputFile resource2 = addFileToContext("src/third.js");
+    new GenericCoverageSensor(settings, fs, perspectives, null, indexes).analyseWithLogger(context, logger);
+
+    verify(context, times(3)).saveMeasure(eq(resource1), any(Measure.class));
+    verify(context, times(3)).saveMeasure(eq(resource2), any(Measure.class));
+    assertThat(new File(workDir1, GenericCoverageSensor.INDEX_DIRECTORY).list()).hasSize(1);
+    // the second module neither scanned the report nor wrote its own index
+    assertThat(new File(workDir2, GenericCoverageSensor.INDEX_DIRECTORY)).doesNotExist();
+  }
+
+  @Test
+  public void analyse_report_with_pipeline_workers() throws Exception {
+    settings.setProperty(GenericCoveragePlugin.PIPELINE_WORKERS_PROPERTY_KEY, "2");
+    configureReportPaths("coverage.xml");
+    InputFile resource = addFileToContext("src/foobar.js");
+    sensor.analyseWithLogger(context, logger);
+    verify(context, times(3)).saveMeasure(eq(resource), any(Measure.class));
+    assertThat(getLoggingEvents().get(1).getMessage()).isEqualTo("Imported coverage data for 1 files");
+    assertThat(getLoggingEvents().get(2).getMessage()).startsWith("coverage data ignored for 1 unknown files, including:\nsrc/third.js");
+  }
+
+  @Test
+  public void write_import_metrics() throws Exception {
+    File workDir = temp.newFolder();
+    fs.setWorkDir(workDir);
+    configureReportPaths("coverage.xml");
+    configureUTReportPaths("unittest.xml");
+    addFileToContext("src/foobar.js");
+    addFileToContext("test/foobar_test.js");
+    sensor.analyseWithLogger(context, logger);
+    String json = Files.toString(new File(workDir, GenericCoverageSensor.METRICS_FILE), Charsets.UTF_8);
+    assertThat(json).contains("{\"mode\": \"coverage\", \"bytes\": " + new File(baseDir, "coverage.xml").length() + ", \"elements\": 2, ");
+    assertThat(json).contains("{\"mode\": \"unit test\", ");
+    assertThat(json).contains("\"peakBuilders\": 1, \"reports\": [\n      {\"report\": \"coverage.xml\", ");
+  }
+
+  @Test
+  public void analyse_conflicting_reports_in_parallel() throws Exception {
+    settings.setProperty(GenericCoveragePlugin.PARSING_THREADS_PROPERTY_KEY, "2");
+    configureReportPaths("coverage_with_branches.xml,coverage_with_other_branches.xml");
+    addFileToContext("src/foobar.js");
+
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("Error at line 5 of coverage report");
+    thrown.expectMessage("coverage_with_other_branches.xml");
+
+    sensor.analyseWithLogger(context, logger);
+  }
+
+  @Test
+  public void analyse_modes_concurrently() throws Exception {
+    settings.setProperty(GenericCoveragePlugin.CONCURRENT_MODES_PROPERTY_KEY, "true");
+    configureReportPaths("coverage.xml,coverage2.xml");
+    configureITReportPaths("coverage.xml,coverage2.xml");
+    configureOverallReportPaths("coverage.xml,coverage2.xml");
+    configureUTReportPaths("unittest.xml,unittest2.xml");
+    InputFile resource1 = addFileToContext("src/foobar.js");
+    InputFile resource2 = addFileToContext("src/helloworld.js");
+    InputFile resource3 = addFileToContext("src/third.js");
+    InputFile testResource1 = addFileToContext("test/foobar_test.js");
+    InputFile testResource2 = addFileToContext("test/helloworld_test.js");
+    sensor.analyseWithLogger(context, logger);
+    verify(context, times(9)).saveMeasure(eq(resource1), any(Measure.class));
+    verify(context, times(9)).saveMeasure(eq(resource2), any(Measure.class));
+    verify(context, times(9)).saveMeasure(eq(resource3), any(Measure.class));
+    verify(context, times(6)).saveMeasure(eq(testResource1), any(Measure.class));
+    verify(context, times(6)).saveMeasure(eq(testResource2), any(Measure.class));
+
+    assertThat(getLoggingEvents().get(0).getMessage()).contains("Parsing").contains("coverage.xml");
+    assertThat(getLoggingEvents().get(7).getMessage()).contains("Parsing").contains("unittest2.xml");
+    assertThat(getLoggingEvents().get(8).getMessage()).isEqualTo("Imported coverage data for 3 files");
+    assertThat(getLoggingEvents().get(9).getMessage()).isEqualTo("Imported IT coverage data for 3 files");
+    assertThat(getLoggingEvents().get(10).getMessage()).isEqualTo("Imported Overall coverage data for 3 files");
+    assertThat(getLoggingEvents().get(11).getMessage()).isEqualTo("Imported unit test data for 2 files");
+  }
+
+  @Test
+  public void analyse_modes_concurrently_stops_at_missing_report() throws Exception {
+    settings.setProperty(GenericCoveragePlugin.CONCURRENT_MODES_PROPERTY_KEY, "true");
+    configureReportPaths("coverage.xml");
+    configureITReportPaths("xxx");
+    configureUTReportPaths("unittest.xml");
+    InputFile resource = addFileToContext("src/foobar.js");
+    InputFile testResource = addFileToContext("test/foobar_test.js");
+    sensor.analyseWithLogger(context, logger);
+    verify(context, times(3)).saveMeasure(eq(resource), any(Measure.class));
+    verify(context, never()).saveMeasure(eq(testResource), any(Measure.class));
+
+    assertThat(getLoggingEvents().get(2).getLevel()).isEqualTo("warn");
+    assertThat(getLoggingEvents().get(2).getMessage()).contains("Cannot find IT coverage");
+    assertThat(getLoggingEvents().get(3).getMessage()).isEqualTo("Imported coverage data for 1 files");
+    assertThat(getLoggingEvents()).hasSize(5);
+  }
+
+  @Test
+  public void analyse_modes_concurrently_with_invalid_report() throws Exception {
+    settings.setProperty(GenericCoveragePlugin.CONCURRENT_MODES_PROPERTY_KEY, "true");
+    configureReportPaths("coverage.xml");
+    configureUTReportPaths("invalid-unittest.xml");
+
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("unit test report");
+
+    sensor.analyseWithLogger(context, logger);
+  }
+
+  @Test
+  public void analyse_modes_concurrently_saves_nothing_before_all_modes_are_parsed() throws Exception {
+    settings.setProperty(GenericCoveragePlugin.CONCURRENT_MODES_PROPERTY_KEY, "true");
+    configureReportPaths("coverage.xml");
+    configureUTReportPaths("invalid-unittest.xml");
+    addFileToContext("src/foobar.js");
+    try {
+      sensor.analyseWithLogger(context, logger);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage()).contains("unit test report");
+    }
+    verify(context, never()).saveMeasure(any(InputFile.class), any(Measure.class));
+  }
+
+  @Test
+  public void analyse_disjoint_reports_ignores_concurrent_modes() throws Exception {
+    settings.setProperty(GenericCoveragePlugin.CONCURRENT_MODES_PROPERTY_KEY, "true");
+    settings.setProperty(GenericCoveragePlugin.DISJOINT_REPORTS_PROPERTY_KEY, "true");
+    configureReportPaths("coverage_with_branches.xml,coverage_with_other_branches.xml");
+    addFileToContext("src/foobar.js");
+
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("refers to a file which was already reported, although reports are declared disjoint: src/foobar.js");
+
+    sensor.analyseWithLogger(context, logger);
+  }
+
   @Test
   public void analyse_report_with_absolute_path() throws Exception {
     File reportFile = new File(baseDir, "coverage.xml");
@@ -377,6 +711,38 @@ public class GenericCoverageSensorTest {
     settings.setProperty(GenericCoveragePlugin.OLD_REPORT_PATH_PROPERTY_KEY, reportPath);
   }
 
+  @Test
+  public void failed_analysis_leaves_no_spilled_data() throws Exception {
+    File workDir = temp.newFolder();
+    fs.setWorkDir(workDir);
+    settings.setProperty(GenericCoveragePlugin.MEMORY_BUDGET_PROPERTY_KEY, "1");
+    StringBuilder report = new StringBuilder("<coverage version=\"1\">");
+    for (int file = 0; file < 3; file++) {
+      addFileToContext("src/big" + file + ".js");
+      report.append("<file path=\"src/big").append(file).append(".js\">");
+      for (int line = 1; line <= 60000; line++) {
+        report.append("<lineToCover lineNumber=\"").append(line).append("\" covered=\"true\"/>");
+      }
+      report.append("</file>");
+    }
+    report.append("</coverage>");
+    File bigReport = temp.newFile("big.xml");
+    Files.write(report, bigReport, Charsets.UTF_8);
+    File invalidReport = temp.newFile("invalid.xml");
+    Files.write("<coverage version=\"1\"><file path=\"src/big0.js\"><lineToCover lineNumber=\"0\" covered=\"true\"/></file></coverage>",
+      invalidReport, Charsets.UTF_8);
+    configureReportPaths(bigReport.getAbsolutePath() + "," + invalidReport.getAbsolutePath());
+    try {
+      sensor.analyseWithLogger(context, logger);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage()).contains("invalid.xml");
+    }
+    for (String name : workDir.list()) {
+      assertThat(name).doesNotMatch(".*\\.spill");
+    }
+  }
+
   private void configureReportPaths(String reportPaths) {
     settings.setProperty(GenericCoveragePlugin.COVERAGE_REPORT_PATHS_PROPERTY_KEY, reportPaths);
   }
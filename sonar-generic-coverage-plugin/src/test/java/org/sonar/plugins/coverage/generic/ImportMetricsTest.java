@@ -0,0 +1,87 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ImportMetricsTest {
+
+  @Test
+  public void adds_up_metrics_of_parallel_parsers() {
+    ImportMetrics metrics = new ImportMetrics();
+    metrics.elementParsed();
+    metrics.bytesRead(50);
+    metrics.builders(3);
+    metrics.builders(2);
+    metrics.addReport("report1.xml", 100, 1, 10);
+    ImportMetrics other = new ImportMetrics();
+    other.elementParsed();
+    other.elementParsed();
+    other.bytesRead(150);
+    other.builders(4);
+    other.addReport("report2.xml", 200, 2, 10);
+    metrics.add(other);
+    assertThat(metrics.elements()).isEqualTo(3);
+    assertThat(metrics.bytesRead()).isEqualTo(200);
+    assertThat(metrics.peakBuilders()).isEqualTo(7);
+    assertThat(metrics.bytes()).isEqualTo(300);
+    assertThat(metrics.reports()).hasSize(2);
+  }
+
+  @Test
+  public void summarizes_metrics() {
+    ImportMetrics metrics = new ImportMetrics();
+    for (int i = 0; i < 1000; i++) {
+      metrics.elementParsed();
+    }
+    metrics.addReport("report.xml", 4096, 1000, TimeUnit.MILLISECONDS.toNanos(500));
+    metrics.setParsingNanos(TimeUnit.SECONDS.toNanos(1));
+    metrics.addPathResolution(TimeUnit.MILLISECONDS.toNanos(2));
+    metrics.builders(1);
+    assertThat(metrics.summary("coverage")).isEqualTo("coverage import: 1 reports, 4096 bytes, 1000 elements parsed in 1000 ms (1000 elements/s), "
+      + "path resolution 2 ms, measure building 0 ms, saving 0 ms, peak of 1 builders");
+    assertThat(ImportMetrics.summary(metrics.reports().get(0))).isEqualTo("report.xml: 4096 bytes, 1000 elements parsed in 500 ms (2000 elements/s)");
+  }
+
+  @Test
+  public void writes_json() throws Exception {
+    ImportMetrics metrics = new ImportMetrics();
+    metrics.elementParsed();
+    metrics.addReport("dir\\\"report\".xml", 10, 1, 0);
+    StringWriter writer = new StringWriter();
+    ImportMetrics.writeJson(ImmutableMap.of("coverage", metrics, "unit test", new ImportMetrics()), writer);
+    assertThat(writer.toString()).isEqualTo("{\n"
+      + "  \"modes\": [\n"
+      + "    {\"mode\": \"coverage\", \"bytes\": 10, \"elements\": 1, \"parsingMs\": 0, \"elementsPerSecond\": 0, \"pathResolutionMs\": 0, "
+      + "\"measureBuildingMs\": 0, \"savingMs\": 0, \"peakBuilders\": 0, \"reports\": [\n"
+      + "      {\"report\": \"dir\\\\\\\"report\\\".xml\", \"bytes\": 10, \"elements\": 1, \"parsingMs\": 0, \"elementsPerSecond\": 0}]},\n"
+      + "    {\"mode\": \"unit test\", \"bytes\": 0, \"elements\": 0, \"parsingMs\": 0, \"elementsPerSecond\": 0, \"pathResolutionMs\": 0, "
+      + "\"measureBuildingMs\": 0, \"savingMs\": 0, \"peakBuilders\": 0, \"reports\": []}\n"
+      + "  ]\n"
+      + "}\n");
+  }
+
+}
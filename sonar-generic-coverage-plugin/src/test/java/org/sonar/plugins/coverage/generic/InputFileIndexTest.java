@@ -0,0 +1,88 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultFileSystem;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.resources.Resource;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class InputFileIndexTest {
+
+  private SensorContext context;
+  private DefaultInputFile file1;
+  private DefaultInputFile notIndexedFile;
+  private InputFileIndex index;
+
+  @Before
+  public void before() {
+    DefaultFileSystem fs = new DefaultFileSystem().setBaseDir(new File("project"));
+    file1 = new DefaultInputFile("src/file1.js").setAbsolutePath(new File("project/src/file1.js").getAbsolutePath().replace('\\', '/'));
+    notIndexedFile = new DefaultInputFile("src/file2.js").setAbsolutePath(new File("project/src/file2.js").getAbsolutePath().replace('\\', '/'));
+    fs.add(file1);
+    fs.add(notIndexedFile);
+    context = mock(SensorContext.class);
+    when(context.getResource(file1)).thenReturn(mock(Resource.class));
+    index = new InputFileIndex(fs, context);
+  }
+
+  @Test
+  public void relative_paths() {
+    assertThat(index.inputFile("src/file1.js")).isSameAs(file1);
+    assertThat(index.inputFile("./src/lib/../file1.js")).isSameAs(file1);
+    assertThat(index.inputFile("src\\file1.js")).isSameAs(file1);
+    assertThat(index.inputFile("file1.js")).isNull();
+    assertThat(index.inputFile("../../file1.js")).isNull();
+  }
+
+  @Test
+  public void absolute_paths() {
+    assertThat(index.inputFile(file1.absolutePath())).isSameAs(file1);
+    assertThat(index.inputFile(new File("other/src/file1.js").getAbsolutePath())).isNull();
+  }
+
+  @Test
+  public void files_unknown_to_sonarqube() {
+    assertThat(index.inputFile("src/file2.js")).isNull();
+    assertThat(index.inputFile(notIndexedFile.absolutePath())).isNull();
+  }
+
+  @Test
+  public void paths_are_resolved_once() {
+    for (int i = 0; i < 3; i++) {
+      assertThat(index.inputFile("src/file1.js")).isSameAs(file1);
+      assertThat(index.inputFile("src/file2.js")).isNull();
+    }
+    verify(context, times(2)).getResource(any(InputFile.class));
+  }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.InputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class MappedFileInputStreamTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void read_across_windows() throws Exception {
+    byte[] content = content(1000);
+    File file = temp.newFile();
+    Files.write(content, file);
+    try (InputStream inputStream = new MappedFileInputStream(file, 64)) {
+      assertThat(inputStream.available()).isEqualTo(1000);
+      assertThat(inputStream.read()).isEqualTo(0);
+      byte[] bytes = new byte[999];
+      ByteStreams.readFully(inputStream, bytes);
+      assertThat(bytes[62]).isEqualTo(content[63]);
+      assertThat(bytes[998]).isEqualTo(content[999]);
+      assertThat(inputStream.read()).isEqualTo(-1);
+      assertThat(inputStream.read(bytes, 0, 10)).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  public void skip() throws Exception {
+    byte[] content = content(300);
+    File file = temp.newFile();
+    Files.write(content, file);
+    try (InputStream inputStream = new MappedFileInputStream(file, 64)) {
+      assertThat(inputStream.skip(10)).isEqualTo(10);
+      assertThat(inputStream.read()).isEqualTo(content[10] & 0xFF);
+      assertThat(inputStream.skip(100)).isEqualTo(100);
+      assertThat(inputStream.read()).isEqualTo(content[111] & 0xFF);
+      assertThat(inputStream.skip(1000)).isEqualTo(188);
+      assertThat(inputStream.available()).isEqualTo(0);
+      assertThat(inputStream.read()).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  public void empty_file() throws Exception {
+    try (InputStream inputStream = new MappedFileInputStream(temp.newFile())) {
+      assertThat(inputStream.read()).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  public void file_can_be_deleted_once_closed() throws Exception {
+    File file = temp.newFile();
+    Files.write(content(100), file);
+    InputStream inputStream = new MappedFileInputStream(file, 64);
+    assertThat(inputStream.read()).isEqualTo(0);
+    inputStream.close();
+    assertThat(inputStream.read()).isEqualTo(-1);
+    assertThat(file.delete()).isTrue();
+  }
+
+  private static byte[] content(int size) {
+    byte[] content = new byte[size];
+    for (int i = 0; i < size; i++) {
+      content[i] = (byte) i;
+    }
+    return content;
+  }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultFileSystem;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.component.ResourcePerspectives;
+import org.sonar.api.measures.Measure;
+import org.sonar.api.resources.Resource;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ParallelReportParserTest {
+
+  private static final String REPORT = "<coverage version=\"1\"><file path=\"%s\"><lineToCover lineNumber=\"1\" covered=\"true\"/></file>"
+    + "<file path=\"file1\"><lineToCover lineNumber=\"2\" covered=\"true\" branchesToCover=\"%d\" coveredBranches=\"1\"/></file></coverage>";
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Mock
+  private SensorContext context;
+  @Mock
+  private ResourcePerspectives perspectives;
+  private DefaultFileSystem fs;
+  private File spillDirectory;
+  private InputFile file1;
+  private InputFile file2;
+
+  @Before
+  public void before() throws Exception {
+    MockitoAnnotations.initMocks(this);
+    fs = new DefaultFileSystem().setBaseDir(new File(""));
+    spillDirectory = temp.newFolder();
+    file1 = addFile("file1");
+    file2 = addFile("file2");
+    addFile("file3");
+  }
+
+  @Test
+  public void merges_the_data_of_all_workers() throws Exception {
+    ReportParser parser = parallelParser().parse(ImmutableList.of(report("file2", 2), report("file3", 2)), ImmutableList.of("report1.xml", "report2.xml"));
+    assertThat(parser.numberOfMatchedFiles()).isEqualTo(3);
+    parser.saveMeasures();
+    verify(context, times(7)).saveMeasure(eq(file1), any(Measure.class));
+    verify(context, times(3)).saveMeasure(eq(file2), any(Measure.class));
+    assertThat(spillDirectory.list()).isEmpty();
+  }
+
+  @Test
+  public void conflicting_reports_leave_no_spilled_data() throws Exception {
+    // file1 is in memory when the second report is parsed, whether by the same worker or not
+    File conflictingReport = temp.newFile();
+    Files.write("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"2\" covered=\"true\" branchesToCover=\"3\"/></file></coverage>",
+      conflictingReport, Charsets.UTF_8);
+    ReportParser parser = parallelParser().parse(ImmutableList.of(report("file2", 2), conflictingReport), ImmutableList.of("report1.xml", "report2.xml"));
+    assertThat(parser).isNull();
+    assertThat(spillDirectory.list()).isEmpty();
+  }
+
+  @Test
+  public void invalid_report_leaves_no_spilled_data() throws Exception {
+    File invalidReport = temp.newFile();
+    Files.write("<coverage version=\"1\"><file path=\"file3\"><lineToCover lineNumber=\"0\" covered=\"true\"/></file></coverage>", invalidReport,
+      Charsets.UTF_8);
+    ReportParser parser = parallelParser().parse(ImmutableList.of(report("file2", 2), invalidReport), ImmutableList.of("report1.xml", "report2.xml"));
+    assertThat(parser).isNull();
+    assertThat(spillDirectory.list()).isEmpty();
+  }
+
+  private ParallelReportParser parallelParser() {
+    ReportParser template = new ReportParser(fs, context, perspectives, ReportParser.Mode.COVERAGE);
+    // the first file of each report is spilled when the second one starts
+    template.enableSpilling(2, spillDirectory);
+    return new ParallelReportParser(template, 2);
+  }
+
+  private File report(String firstPath, int branchesToCover) throws Exception {
+    File report = temp.newFile();
+    Files.write(String.format(REPORT, firstPath, branchesToCover), report, Charsets.UTF_8);
+    return report;
+  }
+
+  private InputFile addFile(String path) {
+    DefaultInputFile inputFile = new DefaultInputFile(path).setAbsolutePath("/root/" + path).setLanguage("bla").setType(InputFile.Type.TEST);
+    fs.add(inputFile);
+    when(context.getResource(inputFile)).thenReturn(mock(Resource.class));
+    return inputFile;
+  }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ProgressInputStreamTest {
+
+  private final List<ReportProgress> events = new ArrayList<>();
+  private final ReportProgress.Listener listener = new ReportProgress.Listener() {
+    @Override
+    public void progress(ReportProgress progress) {
+      events.add(progress);
+    }
+  };
+
+  @Test
+  public void sends_progress_every_checked_bytes_without_interval() throws Exception {
+    ImportMetrics metrics = new ImportMetrics();
+    metrics.fileParsed();
+    metrics.elementParsed();
+    byte[] content = new byte[3 * ProgressInputStream.CHECK_BYTES + 10];
+    InputStream inputStream = new ProgressInputStream(new ByteArrayInputStream(content), "report.xml", content.length, 0, listener, metrics);
+    metrics.fileParsed();
+    metrics.elementParsed();
+    metrics.elementParsed();
+    ByteStreams.toByteArray(inputStream);
+
+    assertThat(events).hasSize(3);
+    ReportProgress first = events.get(0);
+    assertThat(first.reportName()).isEqualTo("report.xml");
+    assertThat(first.bytesRead()).isGreaterThanOrEqualTo(ProgressInputStream.CHECK_BYTES);
+    assertThat(first.totalBytes()).isEqualTo(content.length);
+    // only counts what was parsed since the stream was opened
+    assertThat(first.files()).isEqualTo(1);
+    assertThat(first.elements()).isEqualTo(2);
+  }
+
+  @Test
+  public void waits_for_the_interval() throws Exception {
+    byte[] content = new byte[3 * ProgressInputStream.CHECK_BYTES];
+    InputStream inputStream = new ProgressInputStream(new ByteArrayInputStream(content), "report.xml", content.length, TimeUnit.HOURS.toNanos(1), listener,
+      new ImportMetrics());
+    ByteStreams.toByteArray(inputStream);
+    assertThat(events).isEmpty();
+  }
+
+  @Test
+  public void counts_single_bytes_skipped_bytes_and_resets() throws Exception {
+    byte[] content = new byte[2 * ProgressInputStream.CHECK_BYTES];
+    InputStream inputStream = new ProgressInputStream(new ByteArrayInputStream(content), "report.xml", content.length, 0, listener, new ImportMetrics());
+    inputStream.mark(10);
+    inputStream.read();
+    inputStream.reset();
+    assertThat(inputStream.skip(ProgressInputStream.CHECK_BYTES - 1)).isEqualTo(ProgressInputStream.CHECK_BYTES - 1);
+    assertThat(events).isEmpty();
+    inputStream.read();
+    assertThat(events).hasSize(1);
+    assertThat(events.get(0).bytesRead()).isEqualTo(ProgressInputStream.CHECK_BYTES);
+  }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ReportCacheTest {
+
+  private static final String REPORT = "<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"true\"/></file></coverage>";
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void reuses_snapshot_of_unchanged_report() throws Exception {
+    File directory = new File(temp.newFolder(), "cache");
+    File report = temp.newFile();
+    Files.write(REPORT, report, Charsets.UTF_8);
+
+    ReportCache cache = new ReportCache(directory);
+    File snapshot = snapshot(cache, report);
+    assertThat(snapshot.isFile()).isTrue();
+    try (ReportCache.Entry entry = cache.entry(report)) {
+      assertThat(entry.snapshot()).isEqualTo(snapshot);
+    }
+    cache.save();
+
+    try (ReportCache.Entry entry = new ReportCache(directory).entry(report)) {
+      assertThat(entry.snapshot()).isEqualTo(snapshot);
+    }
+  }
+
+  @Test
+  public void converts_changed_report_again() throws Exception {
+    File directory = temp.newFolder();
+    File report = temp.newFile();
+    Files.write(REPORT, report, Charsets.UTF_8);
+    ReportCache cache = new ReportCache(directory);
+    File snapshot = snapshot(cache, report);
+    cache.save();
+
+    Files.write(REPORT.replace("true", "false"), report, Charsets.UTF_8);
+    cache = new ReportCache(directory);
+    File newSnapshot = snapshot(cache, report);
+    assertThat(newSnapshot).isNotEqualTo(snapshot);
+    cache.save();
+    // the snapshot of the previous content is not used anymore
+    assertThat(directory.list()).containsOnly("index.properties", newSnapshot.getName());
+  }
+
+  @Test
+  public void checks_content_of_report_with_same_size_and_time() throws Exception {
+    File directory = temp.newFolder();
+    File report = temp.newFile();
+    Files.write(REPORT, report, Charsets.UTF_8);
+    long lastModified = report.lastModified();
+    ReportCache cache = new ReportCache(directory);
+    snapshot(cache, report);
+    cache.save();
+
+    Files.write(REPORT.replace("lineNumber=\"1\"", "lineNumber=\"2\""), report, Charsets.UTF_8);
+    assertThat(report.setLastModified(lastModified)).isTrue();
+    try (ReportCache.Entry entry = new ReportCache(directory).entry(report)) {
+      assertThat(entry.snapshot()).isNull();
+    }
+  }
+
+  @Test
+  public void forgets_reports_which_are_not_used() throws Exception {
+    File directory = temp.newFolder();
+    File report = temp.newFile();
+    Files.write(REPORT, report, Charsets.UTF_8);
+    ReportCache cache = new ReportCache(directory);
+    snapshot(cache, report);
+    cache.save();
+
+    new ReportCache(directory).save();
+    assertThat(directory.list()).containsOnly("index.properties");
+  }
+
+  @Test
+  public void does_not_cache_binary_reports() throws Exception {
+    File report = temp.newFile();
+    try (BinaryReportWriter writer = new BinaryReportWriter(new FileOutputStream(report))) {
+      writer.startFile("file1").addLineToCover(1, true);
+    }
+    assertThat(new ReportCache(temp.newFolder()).entry(report)).isNull();
+  }
+
+  @Test
+  public void does_not_keep_snapshot_of_invalid_report() throws Exception {
+    File directory = temp.newFolder();
+    File report = temp.newFile();
+    Files.write("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"0\" covered=\"true\"/></file></coverage>", report, Charsets.UTF_8);
+    ReportCache cache = new ReportCache(directory);
+    try {
+      snapshot(cache, report);
+    } catch (ReportParsingException e) {
+      assertThat(directory.list()).isEmpty();
+      try (ReportCache.Entry entry = cache.entry(report)) {
+        assertThat(entry.snapshot()).isNull();
+      }
+      return;
+    }
+    throw new AssertionError("should fail");
+  }
+
+  /**
+   * Parses the report into a new snapshot unless it is unchanged, as {@link ReportParser} does.
+   */
+  private static File snapshot(ReportCache cache, File report) throws Exception {
+    try (ReportCache.Entry entry = cache.entry(report)) {
+      if (entry.snapshot() == null) {
+        new ReportParser(ReportParser.Mode.COVERAGE, entry.newSnapshot()).parse(report, report.getName());
+        entry.commit();
+      }
+      return entry.snapshot();
+    }
+  }
+
+}
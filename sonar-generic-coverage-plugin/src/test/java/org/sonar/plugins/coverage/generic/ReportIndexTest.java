@@ -0,0 +1,187 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultFileSystem;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.component.ResourcePerspectives;
+import org.sonar.api.measures.CoreMetrics;
+import org.sonar.api.measures.Measure;
+import org.sonar.api.measures.Metric;
+import org.sonar.api.resources.Resource;
+import org.sonar.api.utils.KeyValueFormat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.refEq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReportIndexTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Mock
+  private SensorContext context;
+  @Mock
+  private ResourcePerspectives perspectives;
+  private File report;
+  private File indexDirectory;
+
+  @Before
+  public void before() throws Exception {
+    MockitoAnnotations.initMocks(this);
+    report = new File(temp.getRoot(), "coverage.xml");
+    indexDirectory = new File(temp.getRoot(), "indexes");
+    Files.copy(new File("src/test/resources/coverage.xml"), report);
+  }
+
+  @Test
+  public void module_only_reads_the_elements_of_its_files() throws Exception {
+    InputFile fileWithoutBranch = moduleFile("src/main/java/com/example/ClassWithoutBranch.java", "bla");
+    ReportParser parser = parse(fileWithoutBranch);
+    assertThat(ReportIndex.indexFile(indexDirectory, report)).exists();
+    assertThat(parser.numberOfMatchedFiles()).isEqualTo(1);
+    assertThat(parser.numberOfUnknownFiles()).isEqualTo(3);
+    assertThat(parser.firstUnknownFiles()).containsExactly("src/main/java/com/example/NonExisting.java", "src/main/java/com/example/EmptyClass.java",
+      "src/main/java/com/example/ClassWithBranches.java");
+    verify(context).saveMeasure(eq(fileWithoutBranch), dataMeasure(CoreMetrics.COVERAGE_LINE_HITS_DATA, ImmutableMap.of(2, 0, 3, 1, 5, 1, 6, 0)));
+
+    // from the index written by the previous analysis
+    InputFile fileWithBranches = moduleFile("src/main/java/com/example/ClassWithBranches.java", "bla");
+    parser = parse(fileWithBranches);
+    assertThat(parser.numberOfMatchedFiles()).isEqualTo(1);
+    // only the "file" element of the module is read
+    assertThat(parser.metrics().reports().get(0).bytes()).isGreaterThan(0).isLessThan(report.length());
+    verify(context).saveMeasure(eq(fileWithBranches), dataMeasure(CoreMetrics.CONDITIONS_BY_LINE, ImmutableMap.of(3, 8, 4, 2)));
+    verify(context).saveMeasure(eq(fileWithBranches), dataMeasure(CoreMetrics.COVERED_CONDITIONS_BY_LINE, ImmutableMap.of(3, 5, 4, 0)));
+  }
+
+  @Test
+  public void errors_refer_to_the_lines_of_the_report() throws Exception {
+    InputFile file = moduleFile("src/main/java/com/example/ClassWithBranches.java", null);
+    try {
+      parse(file);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Line 10 of report coverage.xml refers to a file with an unknown language: src/main/java/com/example/ClassWithBranches.java");
+    }
+  }
+
+  @Test
+  public void changed_report_is_indexed_again() throws Exception {
+    assertThat(ReportIndex.forReport(report, indexDirectory).numberOfFiles()).isEqualTo(4);
+    Files.write("<coverage version=\"1\"><file path=\"file1\"/></coverage>", report, Charsets.UTF_8);
+    assertThat(report.setLastModified(report.lastModified() - 10000)).isTrue();
+    assertThat(ReportIndex.forReport(report, indexDirectory).numberOfFiles()).isEqualTo(1);
+  }
+
+  @Test
+  public void index_not_matching_the_report() throws Exception {
+    InputFile file = moduleFile("file2", "bla");
+    Files.write("<coverage version=\"1\"><file path=\"file1\"/><file path=\"file2\"/></coverage>", report, Charsets.UTF_8);
+    long lastModified = report.lastModified();
+    ReportIndex.forReport(report, indexDirectory);
+    Files.write("<coverage version=\"1\"><file path=\"file2\"/><file path=\"file1\"/></coverage>", report, Charsets.UTF_8);
+    assertThat(report.setLastModified(lastModified)).isTrue();
+    try {
+      parse(file);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage()).startsWith("The index of the report does not match its content");
+    }
+  }
+
+  @Test
+  public void reports_with_the_same_name_have_different_indexes() throws Exception {
+    File otherReport = new File(temp.newFolder(), "coverage.xml");
+    Files.write("<coverage version=\"1\"><file path=\"file1\"/></coverage>", otherReport, Charsets.UTF_8);
+    assertThat(ReportIndex.indexFile(indexDirectory, otherReport)).isNotEqualTo(ReportIndex.indexFile(indexDirectory, report));
+    assertThat(ReportIndex.forReport(report, indexDirectory).numberOfFiles()).isEqualTo(4);
+    assertThat(ReportIndex.forReport(otherReport, indexDirectory).numberOfFiles()).isEqualTo(1);
+    assertThat(otherReport.getParentFile().list()).containsOnly("coverage.xml");
+    assertThat(indexDirectory.list()).hasSize(2);
+  }
+
+  @Test
+  public void reports_beyond_the_canonical_subset_are_not_indexed() throws Exception {
+    Files.write("<coverage version=\"1\"><!-- comment --></coverage>", report, Charsets.UTF_8);
+    assertThat(ReportIndex.forReport(report, indexDirectory)).isNull();
+    assertThat(ReportIndex.indexFile(indexDirectory, report)).exists();
+    assertThat(ReportIndex.forReport(report, indexDirectory)).isNull();
+
+    try (OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(report))) {
+      outputStream.write("<coverage version=\"1\"/>".getBytes(Charsets.UTF_8));
+    }
+    assertThat(report.setLastModified(report.lastModified() - 10000)).isTrue();
+    assertThat(ReportIndex.forReport(report, indexDirectory)).isNull();
+
+    // parsed as usual
+    InputFile file = moduleFile("file1", "bla");
+    assertThat(parse(file).numberOfMatchedFiles()).isEqualTo(0);
+  }
+
+  @Test
+  public void index_from_command_line() throws Exception {
+    ReportIndex.main(new String[] {indexDirectory.getPath(), report.getPath()});
+    assertThat(ReportIndex.indexFile(indexDirectory, report)).exists();
+    assertThat(ReportIndex.forReport(report, indexDirectory).numberOfFiles()).isEqualTo(4);
+  }
+
+  private InputFile moduleFile(String path, String language) {
+    return new DefaultInputFile(path).setLanguage(language).setType(InputFile.Type.MAIN);
+  }
+
+  private ReportParser parse(InputFile moduleFile) throws Exception {
+    DefaultFileSystem fs = new DefaultFileSystem().setBaseDir(new File(""));
+    fs.add(moduleFile);
+    when(context.getResource(moduleFile)).thenReturn(mock(Resource.class));
+    ReportParser parser = new ReportParser(fs, context, perspectives, ReportParser.Mode.COVERAGE);
+    parser.enableReportIndexes(indexDirectory);
+    parser.parse(report, "coverage.xml");
+    parser.saveMeasures();
+    return parser;
+  }
+
+  private Measure dataMeasure(Metric metric, Map<Integer, Integer> data) {
+    return refEq(new Measure(metric).setData(KeyValueFormat.format(data)), "persistenceMode");
+  }
+
+}
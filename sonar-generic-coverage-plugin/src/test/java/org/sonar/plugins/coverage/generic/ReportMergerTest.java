@@ -0,0 +1,215 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class ReportMergerTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void merges_sorted_coverage_reports() throws Exception {
+    String merged = merge(
+      "<coverage version=\"1\"><file path=\"a\"><lineToCover lineNumber=\"2\" covered=\"false\" branchesToCover=\"2\" coveredBranches=\"1\"/>"
+        + "<lineToCover lineNumber=\"1\" covered=\"false\"/></file><file path=\"c\"><lineToCover lineNumber=\"1\" covered=\"true\"/></file></coverage>",
+      "<coverage version=\"1\"><file path=\"a\"><lineToCover lineNumber=\"1\" covered=\"true\"/>"
+        + "<lineToCover lineNumber=\"2\" covered=\"true\" branchesToCover=\"2\" coveredBranches=\"2\"/></file>"
+        + "<file path=\"b\"><lineToCover lineNumber=\"3\" covered=\"false\" branchesToCover=\"0\"/></file>"
+        + "<file path=\"b\"><lineToCover lineNumber=\"3\" covered=\"true\"/></file></coverage>");
+    assertThat(merged).isEqualTo("<coverage version=\"1\">\n"
+      + "  <file path=\"a\">\n"
+      + "    <lineToCover lineNumber=\"1\" covered=\"true\"/>\n"
+      + "    <lineToCover lineNumber=\"2\" covered=\"true\" branchesToCover=\"2\" coveredBranches=\"2\"/>\n"
+      + "  </file>\n"
+      + "  <file path=\"b\">\n"
+      + "    <lineToCover lineNumber=\"3\" covered=\"true\"/>\n"
+      + "  </file>\n"
+      + "  <file path=\"c\">\n"
+      + "    <lineToCover lineNumber=\"1\" covered=\"true\"/>\n"
+      + "  </file>\n"
+      + "</coverage>\n");
+  }
+
+  @Test
+  public void merges_unsorted_coverage_reports_in_memory() throws Exception {
+    String merged = merge(
+      "<coverage version=\"1\"><file path=\"b\"><lineToCover lineNumber=\"1\" covered=\"false\"/></file>"
+        + "<file path=\"a\"><lineToCover lineNumber=\"1\" covered=\"false\"/></file>"
+        + "<file path=\"b\"><lineToCover lineNumber=\"2\" covered=\"true\"/></file></coverage>",
+      "<coverage version=\"1\"><file path=\"../a\"><lineToCover lineNumber=\"1\" covered=\"true\"/></file></coverage>");
+    assertThat(merged).isEqualTo("<coverage version=\"1\">\n"
+      + "  <file path=\"../a\">\n"
+      + "    <lineToCover lineNumber=\"1\" covered=\"true\"/>\n"
+      + "  </file>\n"
+      + "  <file path=\"a\">\n"
+      + "    <lineToCover lineNumber=\"1\" covered=\"false\"/>\n"
+      + "  </file>\n"
+      + "  <file path=\"b\">\n"
+      + "    <lineToCover lineNumber=\"1\" covered=\"false\"/>\n"
+      + "    <lineToCover lineNumber=\"2\" covered=\"true\"/>\n"
+      + "  </file>\n"
+      + "</coverage>\n");
+  }
+
+  @Test
+  public void merges_unit_test_reports() throws Exception {
+    String merged = merge(
+      "<unitTest version=\"1\"><file path=\"b\"><testCase name=\"test1\" duration=\"5\"/></file></unitTest>",
+      "<unitTest version=\"1\"><file path=\"a\"><testCase name=\"test1\" duration=\"5\"><failure message=\"&lt;m&gt;\">stack &amp; trace</failure></testCase>"
+        + "</file><file path=\"b\"><testCase name=\"test2\" duration=\"7\"><skipped message=\"\"/></testCase></file></unitTest>");
+    assertThat(merged).isEqualTo("<unitTest version=\"1\">\n"
+      + "  <file path=\"a\">\n"
+      + "    <testCase name=\"test1\" duration=\"5\"><failure message=\"&lt;m>\">stack &amp; trace</failure></testCase>\n"
+      + "  </file>\n"
+      + "  <file path=\"b\">\n"
+      + "    <testCase name=\"test1\" duration=\"5\"/>\n"
+      + "    <testCase name=\"test2\" duration=\"7\"><skipped message=\"\"></skipped></testCase>\n"
+      + "  </file>\n"
+      + "</unitTest>\n");
+  }
+
+  @Test
+  public void merges_many_sorted_reports_by_groups() throws Exception {
+    String[] reports = new String[40];
+    StringBuilder expected = new StringBuilder("<coverage version=\"1\">\n");
+    for (int i = 0; i < reports.length; i++) {
+      String path = String.format("file%02d", i);
+      reports[i] = "<coverage version=\"1\"><file path=\"" + path + "\"><lineToCover lineNumber=\"1\" covered=\"true\"/></file>"
+        + "<file path=\"shared\"><lineToCover lineNumber=\"" + (i + 1) + "\" covered=\"false\"/></file></coverage>";
+      expected.append("  <file path=\"").append(path).append("\">\n    <lineToCover lineNumber=\"1\" covered=\"true\"/>\n  </file>\n");
+    }
+    expected.append("  <file path=\"shared\">\n");
+    for (int i = 0; i < reports.length; i++) {
+      expected.append("    <lineToCover lineNumber=\"").append(i + 1).append("\" covered=\"false\"/>\n");
+    }
+    expected.append("  </file>\n</coverage>\n");
+    assertThat(merge(reports)).isEqualTo(expected.toString());
+    // only the merged report and the reports are left
+    assertThat(temp.getRoot().list()).hasSize(reports.length + 1);
+  }
+
+  @Test
+  public void interrupted_reader_stops_quietly() throws Exception {
+    StringBuilder report = new StringBuilder("<coverage version=\"1\">");
+    for (int i = 0; i < 10; i++) {
+      report.append("<file path=\"file").append(i).append("\"><lineToCover lineNumber=\"1\" covered=\"true\"/></file>");
+    }
+    File reportFile = temp.newFile();
+    Files.write(report.append("</coverage>"), reportFile, Charsets.UTF_8);
+    final AtomicReference<Throwable> uncaught = new AtomicReference<>();
+    // the reader blocks once the queue is full, as when the merge stopped reading it
+    Thread thread = new Thread(new ReportMerger.ReportReader(reportFile, ReportParser.Mode.COVERAGE, new ArrayBlockingQueue<ReportMerger.FileData>(1)));
+    thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+      @Override
+      public void uncaughtException(Thread t, Throwable e) {
+        uncaught.set(e);
+      }
+    });
+    thread.start();
+    thread.interrupt();
+    thread.join();
+    assertThat(uncaught.get()).isNull();
+  }
+
+  @Test
+  public void merged_report_is_imported_like_reports() throws Exception {
+    File report = temp.newFile();
+    ReportMerger.merge(ImmutableList.of(new File("src/test/resources/project1/unittest.xml"), new File("src/test/resources/project1/unittest2.xml")), report);
+    assertThat(Files.toString(report, Charsets.UTF_8)).contains("<file path=\"test/foobar_test.js\">");
+  }
+
+  @Test
+  public void fails_on_conflicting_branches() throws Exception {
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("\"branchesToCover\" mismatch between two different reports of file a");
+    merge("<coverage version=\"1\"><file path=\"a\"><lineToCover lineNumber=\"1\" covered=\"true\" branchesToCover=\"2\" coveredBranches=\"1\"/></file></coverage>",
+      "<coverage version=\"1\"><file path=\"a\"><lineToCover lineNumber=\"1\" covered=\"true\" branchesToCover=\"3\" coveredBranches=\"1\"/></file></coverage>");
+  }
+
+  @Test
+  public void fails_on_test_case_reported_twice() throws Exception {
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("A test case of file a is reported by two different reports");
+    merge("<unitTest version=\"1\"><file path=\"a\"><testCase name=\"test1\" duration=\"5\"/></file></unitTest>",
+      "<unitTest version=\"1\"><file path=\"a\"><testCase name=\"test1\" duration=\"5\"/></file></unitTest>");
+  }
+
+  @Test
+  public void fails_on_invalid_report() throws Exception {
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("Cannot merge report");
+    merge("<coverage version=\"1\"><file path=\"a\"><lineToCover lineNumber=\"0\" covered=\"true\"/></file></coverage>");
+  }
+
+  @Test
+  public void failed_merge_keeps_the_previous_merged_report() throws Exception {
+    File directory = temp.newFolder();
+    File report1 = new File(directory, "report1.xml");
+    Files.write("<coverage version=\"1\"><file path=\"a\"><lineToCover lineNumber=\"1\" covered=\"true\"/></file>"
+      + "<file path=\"b\"><lineToCover lineNumber=\"1\" covered=\"true\"/></file></coverage>", report1, Charsets.UTF_8);
+    File report2 = new File(directory, "report2.xml");
+    Files.write("<coverage version=\"1\"><file path=\"b\"><lineToCover lineNumber=\"0\" covered=\"true\"/></file></coverage>", report2,
+      Charsets.UTF_8);
+    File merged = new File(directory, "merged.xml");
+    Files.write("previous", merged, Charsets.UTF_8);
+    try {
+      ReportMerger.merge(ImmutableList.of(report1, report2), merged);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage()).contains("Cannot merge report");
+    }
+    assertThat(Files.toString(merged, Charsets.UTF_8)).isEqualTo("previous");
+    assertThat(directory.list()).containsOnly("report1.xml", "report2.xml", "merged.xml");
+  }
+
+  private String merge(String... reports) throws Exception {
+    List<File> reportFiles = new ArrayList<>();
+    for (String report : reports) {
+      File reportFile = temp.newFile();
+      Files.write(report, reportFile, Charsets.UTF_8);
+      reportFiles.add(reportFile);
+    }
+    File merged = temp.newFile();
+    ReportMerger.merge(reportFiles, merged);
+    String content = Files.toString(merged, Charsets.UTF_8);
+    // without the XML declaration
+    return content.substring(content.indexOf('\n') + 1);
+  }
+
+}
@@ -19,9 +19,13 @@
  */
 package org.sonar.plugins.coverage.generic;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.sonar.api.batch.SensorContext;
@@ -37,11 +41,18 @@ import org.sonar.api.test.MutableTestCase;
 import org.sonar.api.test.MutableTestPlan;
 import org.sonar.api.utils.KeyValueFormat;
 
+import javax.annotation.CheckForNull;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
@@ -49,11 +60,15 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.refEq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ReportParserTest {
 
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   @Mock
   private SensorContext context;
   @Mock
@@ -389,6 +404,375 @@ public class ReportParserTest {
       "<testCase name=\"test1\" duration=\"35\"><error message=\"ff\">ll</error></testCase></file></unitTest>");
   }
 
+  @Test
+  public void coverage_attributes_in_lineToCover_accept_any_case_and_character_references() throws Exception {
+    InputFile file = setupFile("file1");
+    addFileToContext(file);
+    ReportParser parser = parseCoverageReport("<coverage version=\"1\"><file path=\"file1\">"
+      + "<lineToCover lineNumber=\"&#49;2\" covered=\"TRUE\" branchesToCover=\"0004\" coveredBranches=\"-0\"/>"
+      + "<lineToCover lineNumber=\"2147483647\" covered=\"False\"/></file></coverage>");
+    parser.saveMeasures();
+    verify(context).saveMeasure(eq(file), dataMeasure(CoreMetrics.COVERAGE_LINE_HITS_DATA, ImmutableMap.of(12, 1, 2147483647, 0)));
+    verify(context).saveMeasure(eq(file), dataMeasure(CoreMetrics.CONDITIONS_BY_LINE, ImmutableMap.of(12, 4)));
+  }
+
+  @Test
+  public void coverage_lineNumber_in_lineToCover_should_not_be_padded() throws Exception {
+    addFileToContext(setupFile("file1"));
+    try {
+      parseCoverageReport("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\" 3\" covered=\"true\"/></file></coverage>");
+      fail("Expected ReportParsingException");
+    } catch (ReportParsingException e) {
+      assertThat(e.getMessage()).isEqualTo("Expected integer value for attribute \"lineNumber\" but got \" 3\"");
+    }
+  }
+
+  @Test
+  public void coverage_lineNumber_in_lineToCover_should_not_overflow() throws Exception {
+    addFileToContext(setupFile("file1"));
+    try {
+      parseCoverageReport("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"2147483648\" covered=\"true\"/></file></coverage>");
+      fail("Expected ReportParsingException");
+    } catch (ReportParsingException e) {
+      assertThat(e.getMessage()).isEqualTo("Expected integer value for attribute \"lineNumber\" but got \"2147483648\"");
+    }
+  }
+
+  @Test
+  public void coverage_covered_in_lineToCover_should_not_be_padded() throws Exception {
+    addFileToContext(setupFile("file1"));
+    try {
+      parseCoverageReport("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"3\" covered=\"true \"/></file></coverage>");
+      fail("Expected ReportParsingException");
+    } catch (ReportParsingException e) {
+      assertThat(e.getMessage()).isEqualTo("Expected boolean value for attribute \"covered\" but got \"true \"");
+    }
+  }
+
+  @Test
+  public void coverage_negative_branchesToCover_in_lineToCover_is_reported() throws Exception {
+    addFileToContext(setupFile("file1"));
+    try {
+      parseCoverageReport("<coverage version=\"1\"><file path=\"file1\">\n"
+        + "<lineToCover lineNumber=\"1\" covered=\"true\" branchesToCover=\"-12\"/></file></coverage>");
+      fail("Expected ReportParsingException");
+    } catch (ReportParsingException e) {
+      assertThat(e.getMessage()).isEqualTo("Value of attribute \"branchesToCover\" is \"-12\" but it should be greater than or equal to 0");
+      assertThat(e.lineNumber()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void scanned_reports_fail_like_parsed_reports() throws Exception {
+    addFileToContext(setupFile("file1"));
+    DefaultInputFile fileWithoutLanguage = new DefaultInputFile("file2");
+    fs.add(fileWithoutLanguage);
+    addFileToContext(fileWithoutLanguage);
+    String[] reports = {
+      "<coverage version=\"1\">\r\n<file path=\"file1\">\r\n"
+        + "<lineToCover lineNumber=\"1\" covered=\"true\" branchesToCover=\"2\"/>\r\n"
+        + "<lineToCover lineNumber=\"1\" covered=\"true\" branchesToCover=\"3\"/></file></coverage>",
+      "<coverage version=\"1\">\n<file path=\"file1\">\n"
+        + "<lineToCover lineNumber=\"1\" covered=\"true\" branchesToCover=\"2\"/></file>\n<file path=\"file1\">\n"
+        + "<lineToCover lineNumber=\"1\" covered=\"true\" branchesToCover=\"3\"/><!-- comment --></file></coverage>",
+      "<coverage version=\"1\">\n<file path=\"file1\"/>\n<file path=\"file2\">\n</file></coverage>",
+      "<coverage version=\"1\">\n<file path=\"file1\">\n"
+        + "<lineToCover lineNumber=\"1\" covered=\"true\" branchesToCover=\"2\" coveredBranches=\"3\"/></file></coverage>",
+      "<coverage version=\"1\">\n<file path=\"file1\"/>\n<file path=\"file1\">\n<lineToCover lineNumber=\"x\" covered=\"true\"/></file></coverage>"
+    };
+    for (String report : reports) {
+      String failure = failure(report);
+      assertThat(failure).isNotNull();
+      // a leading comment prevents the report from being scanned
+      assertThat(failure).isEqualTo(failure("<!-- comment -->" + report));
+    }
+  }
+
+  @Test
+  public void files_of_scanned_reports_are_not_parsed_twice() throws Exception {
+    addFileToContext(setupFile("file1"));
+    ReportParser parser = parseCoverageReportFile(createReport("<coverage version=\"1\"><file path=\"unknown\"/>"
+      + "<file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"true\"/></file>"
+      + "<!-- comment --><file path=\"other\"/></coverage>").getPath());
+    assertThat(parser.numberOfUnknownFiles()).isEqualTo(2);
+    assertThat(parser.firstUnknownFiles()).containsExactly("unknown", "other");
+    assertThat(parser.numberOfMatchedFiles()).isEqualTo(1);
+  }
+
+  @Test
+  public void gzip_compressed_reports() throws Exception {
+    InputFile file = setupFile("file1");
+    addFileToContext(file);
+    byte[] report = gzip("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"2\" covered=\"true\"/></file></coverage>");
+    File reportFile = temp.newFile("report.xml");
+    Files.write(report, reportFile);
+    ReportParser parser = new ReportParser(fs, context, perspectives, ReportParser.Mode.COVERAGE);
+    parser.parse(reportFile, "report.xml");
+    parser.parse(new ByteArrayInputStream(report));
+    parser.saveMeasures();
+    assertThat(parser.numberOfMatchedFiles()).isEqualTo(1);
+    verify(context).saveMeasure(eq(file), dataMeasure(CoreMetrics.COVERAGE_LINE_HITS_DATA, ImmutableMap.of(2, 1)));
+  }
+
+  @Test
+  public void sends_progress_while_parsing() throws Exception {
+    addFileToContext(setupFile("file1"));
+    StringBuilder report = new StringBuilder("<coverage version=\"1\">");
+    for (int i = 0; i < 500; i++) {
+      report.append("<file path=\"unknown").append(i).append("\"/>");
+    }
+    for (int i = 0; i < 20; i++) {
+      report.append("<file path=\"file1\">");
+      for (int line = 1; line <= 1000; line++) {
+        report.append("<lineToCover lineNumber=\"").append(line).append("\" covered=\"true\"/>");
+      }
+      report.append("</file>");
+    }
+    report.append("</coverage>");
+    File reportFile = createReport(report.toString());
+    final List<ReportProgress> events = new ArrayList<>();
+    ReportParser parser = new ReportParser(fs, context, perspectives, ReportParser.Mode.COVERAGE);
+    parser.enableProgress(0, new ReportProgress.Listener() {
+      @Override
+      public void progress(ReportProgress progress) {
+        events.add(progress);
+      }
+    });
+    parser.parse(reportFile, "report.xml");
+
+    assertThat(events).isNotEmpty();
+    ReportProgress last = events.get(events.size() - 1);
+    assertThat(last.reportName()).isEqualTo("report.xml");
+    assertThat(last.totalBytes()).isEqualTo(reportFile.length());
+    assertThat(last.files()).isGreaterThan(500);
+    assertThat(last.elements()).isGreaterThan(0);
+  }
+
+  @Test
+  public void gzip_compressed_unit_test_report() throws Exception {
+    MutableTestCase testCase = mockMutableTestCase();
+    MutableTestPlan testPlan = mockMutableTestPlan(testCase);
+    when(perspectives.as(eq(MutableTestPlan.class), any(InputFile.class))).thenReturn(testPlan);
+    addFileToContext(setupFile("file1"));
+    File reportFile = temp.newFile("unittest.xml.gz");
+    Files.write(gzip("<unitTest version=\"1\"><file path=\"file1\"><testCase name=\"test1\" duration=\"5\"/></file></unitTest>"), reportFile);
+    parseReportFile(reportFile.getPath(), ReportParser.Mode.UNITTEST).saveMeasures();
+    verify(testPlan).addTestCase("test1");
+  }
+
+  @Test
+  public void zstd_compressed_reports_are_not_supported() throws Exception {
+    File reportFile = temp.newFile("report.xml.zst");
+    Files.write(new byte[] {0x28, (byte) 0xB5, 0x2F, (byte) 0xFD, 0, 0}, reportFile);
+    try {
+      parseCoverageReportFile(reportFile.getPath());
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage()).isEqualTo("Zstandard compressed reports are not supported, use gzip compression instead");
+    }
+  }
+
+  @Test
+  public void merge_parsers() throws Exception {
+    InputFile file1 = setupFile("file1");
+    InputFile file2 = setupFile("file2");
+    ((DefaultInputFile) file1).setAbsolutePath("/root/file1");
+    ((DefaultInputFile) file2).setAbsolutePath("/root/file2");
+    addFileToContext(file1);
+    addFileToContext(file2);
+    ReportParser parser = parseCoverageReport("<coverage version=\"1\"><file path=\"file1\">"
+      + "<lineToCover lineNumber=\"1\" covered=\"false\" branchesToCover=\"2\" coveredBranches=\"1\"/></file>"
+      + "<file path=\"unknown1\"/></coverage>");
+    ReportParser other = parseCoverageReport("<coverage version=\"1\"><file path=\"file1\">"
+      + "<lineToCover lineNumber=\"1\" covered=\"true\" branchesToCover=\"2\" coveredBranches=\"2\"/></file>"
+      + "<file path=\"file2\"><lineToCover lineNumber=\"1\" covered=\"true\"/></file>"
+      + "<file path=\"unknown2\"/></coverage>");
+    assertThat(parser.merge(other)).isTrue();
+    assertThat(parser.numberOfMatchedFiles()).isEqualTo(2);
+    assertThat(parser.numberOfUnknownFiles()).isEqualTo(2);
+    assertThat(parser.firstUnknownFiles()).containsOnly("unknown1", "unknown2");
+    parser.saveMeasures();
+    verify(context).saveMeasure(eq(file1), refEq(new Measure(CoreMetrics.UNCOVERED_CONDITIONS, 0.)));
+    verify(context).saveMeasure(eq(file2), refEq(new Measure(CoreMetrics.LINES_TO_COVER, 1.)));
+  }
+
+  @Test
+  public void merge_conflicting_parsers() throws Exception {
+    addFileToContext(setupFile("file1"));
+    ReportParser parser = parseCoverageReport("<coverage version=\"1\"><file path=\"file1\">"
+      + "<lineToCover lineNumber=\"1\" covered=\"false\" branchesToCover=\"2\" coveredBranches=\"1\"/></file></coverage>");
+    ReportParser other = parseCoverageReport("<coverage version=\"1\"><file path=\"file1\">"
+      + "<lineToCover lineNumber=\"1\" covered=\"true\" branchesToCover=\"3\" coveredBranches=\"2\"/></file></coverage>");
+    assertThat(parser.merge(other)).isFalse();
+  }
+
+  @Test
+  public void unittest_texts_are_truncated() throws Exception {
+    MutableTestCase testCase = mockMutableTestCase();
+    MutableTestPlan testPlan = mockMutableTestPlan(testCase);
+    when(perspectives.as(eq(MutableTestPlan.class), any(InputFile.class))).thenReturn(testPlan);
+    addFileToContext(setupFile("file1"));
+    ReportParser parser = new ReportParser(fs, context, perspectives, ReportParser.Mode.UNITTEST);
+    parser.configureTestCaseTexts(5, true, false);
+    parser.parse(createReport("<unitTest version=\"1\"><file path=\"file1\">"
+      + "<testCase name=\"test1\" duration=\"5\"><failure message=\"long message\">a<![CDATA[bc]]>&amp;de</failure></testCase>"
+      + "<testCase name=\"test2\" duration=\"5\"><error message=\"abcd\uD83D\uDE00\">abcd\uD83D\uDE00</error></testCase>"
+      + "<testCase name=\"test3\" duration=\"5\"><skipped message=\"\">x</skipped></testCase>"
+      + "</file></unitTest>"), "report.xml");
+    parser.saveMeasures();
+    verify(testCase).setMessage("long ");
+    verify(testCase).setStackTrace("abc&d");
+    verify(testCase).setMessage("abcd");
+    verify(testCase).setStackTrace("abcd");
+    verify(testCase).setMessage("");
+    verify(testCase).setStackTrace("x");
+  }
+
+  @Test
+  public void unittest_stack_traces_are_read_back_lazily() throws Exception {
+    MutableTestCase testCase = mockMutableTestCase();
+    MutableTestPlan testPlan = mockMutableTestPlan(testCase);
+    when(perspectives.as(eq(MutableTestPlan.class), any(InputFile.class))).thenReturn(testPlan);
+    addFileToContext(setupFile("file1"));
+    ReportParser parser = new ReportParser(fs, context, perspectives, ReportParser.Mode.UNITTEST);
+    parser.configureTestCaseTexts(0, false, true);
+    parser.parse(createReport("\uFEFF<unitTest version=\"1\">\r\n<file path=\"file1\">\r\n"
+      + "<testCase name=\"test1\" duration=\"5\"><failure message=\"\uD83D\uDE00\">a<![CDATA[<b>]]>&amp;<!-- c -->d\r\ne</failure></testCase>\r\n"
+      + "<testCase name=\"test2\" duration=\"5\"><error message=\"m\">\u00e9\uD83D\uDE00x</error></testCase>\r\n"
+      + "<testCase name=\"test3\" duration=\"5\"><skipped message=\"\"/></testCase>\r\n"
+      + "</file></unitTest>"), "report.xml");
+    parser.saveMeasures();
+    verify(testCase).setMessage("\uD83D\uDE00");
+    verify(testCase).setStackTrace("a<b>&d\ne");
+    verify(testCase).setStackTrace("\u00e9\uD83D\uDE00x");
+    verify(testCase).setStackTrace("");
+  }
+
+  @Test
+  public void streaming_saves_measures_at_the_end_of_each_file() throws Exception {
+    InputFile file1 = setupFile("file1");
+    InputFile file2 = setupFile("file2");
+    ((DefaultInputFile) file1).setAbsolutePath("/root/file1");
+    ((DefaultInputFile) file2).setAbsolutePath("/root/file2");
+    addFileToContext(file1);
+    addFileToContext(file2);
+    String report = "<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"true\"/></file>"
+      + "<file path=\"file2\"><lineToCover lineNumber=\"2\" covered=\"false\"/></file></coverage>";
+    ReportParser parser = new ReportParser(fs, context, perspectives, ReportParser.Mode.COVERAGE);
+    parser.enableStreaming();
+    parser.parse(createReport(report), "report.xml");
+    verify(context).saveMeasure(eq(file1), dataMeasure(CoreMetrics.COVERAGE_LINE_HITS_DATA, ImmutableMap.of(1, 1)));
+    verify(context).saveMeasure(eq(file2), dataMeasure(CoreMetrics.COVERAGE_LINE_HITS_DATA, ImmutableMap.of(2, 0)));
+    parser.saveMeasures();
+    verify(context, times(1)).saveMeasure(eq(file1), dataMeasure(CoreMetrics.COVERAGE_LINE_HITS_DATA, ImmutableMap.of(1, 1)));
+    assertThat(parser.numberOfMatchedFiles()).isEqualTo(2);
+  }
+
+  @Test
+  public void streaming_saves_unit_test_measures_at_the_end_of_each_file() throws Exception {
+    MutableTestCase testCase = mockMutableTestCase();
+    MutableTestPlan testPlan = mockMutableTestPlan(testCase);
+    when(perspectives.as(eq(MutableTestPlan.class), any(InputFile.class))).thenReturn(testPlan);
+    addFileToContext(setupFile("file1"));
+    ReportParser parser = new ReportParser(fs, context, perspectives, ReportParser.Mode.UNITTEST);
+    parser.enableStreaming();
+    parser.parse(createReport("<unitTest version=\"1\"><file path=\"file1\"><testCase name=\"test1\" duration=\"5\"/></file></unitTest>"), "report.xml");
+    verify(testPlan).addTestCase("test1");
+  }
+
+  @Test
+  public void streaming_fails_on_files_reported_twice() throws Exception {
+    addFileToContext(setupFile("file1"));
+    String report = "<coverage version=\"1\">\n<file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"true\"/></file>\n"
+      + "<file path=\"file1\"><lineToCover lineNumber=\"2\" covered=\"true\"/></file></coverage>";
+    String expected = "Line 3 of report report.xml refers to a file which was already reported, although reports are declared disjoint: file1";
+    assertThat(streamingFailure(report)).isEqualTo(expected);
+    // a leading comment prevents the report from being scanned
+    assertThat(streamingFailure("<!-- comment -->" + report)).isEqualTo(expected);
+  }
+
+  @Test
+  public void shards_are_configured_like_their_template() throws Exception {
+    InputFile file1 = setupFile("file1");
+    addFileToContext(file1);
+    ReportParser template = new ReportParser(fs, context, perspectives, ReportParser.Mode.COVERAGE);
+    template.enableStreaming();
+    ReportParser shard = template.newShard(2);
+    String report = "<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"true\"/></file></coverage>";
+    shard.parse(createReport(report), "report.xml");
+    verify(context).saveMeasure(eq(file1), dataMeasure(CoreMetrics.COVERAGE_LINE_HITS_DATA, ImmutableMap.of(1, 1)));
+    assertThat(shard.numberOfMatchedFiles()).isEqualTo(1);
+    assertThat(template.numberOfMatchedFiles()).isEqualTo(0);
+  }
+
+  @Test
+  public void spilled_files_are_saved_with_all_their_data() throws Exception {
+    InputFile file1 = setupFile("file1");
+    InputFile file2 = setupFile("file2");
+    ((DefaultInputFile) file1).setAbsolutePath("/root/file1");
+    ((DefaultInputFile) file2).setAbsolutePath("/root/file2");
+    addFileToContext(file1);
+    addFileToContext(file2);
+    ReportParser parser = new ReportParser(fs, context, perspectives, ReportParser.Mode.IT_COVERAGE);
+    parser.enableSpilling(1, temp.getRoot());
+    parser.parse(createReport("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"false\"/></file>"
+      + "<file path=\"file2\"><lineToCover lineNumber=\"2\" covered=\"true\" branchesToCover=\"2\" coveredBranches=\"1\"/></file>"
+      + "<file path=\"file1\"><lineToCover lineNumber=\"3\" covered=\"true\"/></file></coverage>"), "report1.xml");
+    parser.parse(createReport("<coverage version=\"1\"><file path=\"file2\">"
+      + "<lineToCover lineNumber=\"2\" covered=\"true\" branchesToCover=\"2\" coveredBranches=\"2\"/></file>"
+      + "<file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"true\"/></file></coverage>"), "report2.xml");
+    parser.saveMeasures();
+    verify(context).saveMeasure(eq(file1), dataMeasure(CoreMetrics.IT_COVERAGE_LINE_HITS_DATA, ImmutableMap.of(1, 1, 3, 1)));
+    verify(context).saveMeasure(eq(file2), dataMeasure(CoreMetrics.IT_COVERAGE_LINE_HITS_DATA, ImmutableMap.of(2, 1)));
+    verify(context).saveMeasure(eq(file2), refEq(new Measure(CoreMetrics.IT_UNCOVERED_CONDITIONS, 0.)));
+    assertThat(temp.getRoot().listFiles()).hasSize(2);
+  }
+
+  @Test
+  public void spilled_files_with_conflicting_branches() throws Exception {
+    InputFile file1 = setupFile("file1");
+    InputFile file2 = setupFile("file2");
+    ((DefaultInputFile) file1).setAbsolutePath("/root/file1");
+    ((DefaultInputFile) file2).setAbsolutePath("/root/file2");
+    addFileToContext(file1);
+    addFileToContext(file2);
+    ReportParser parser = new ReportParser(fs, context, perspectives, ReportParser.Mode.COVERAGE);
+    parser.enableSpilling(1, temp.getRoot());
+    parser.parse(createReport("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"true\" branchesToCover=\"2\"/></file>"
+      + "<file path=\"file2\"><lineToCover lineNumber=\"1\" covered=\"true\"/></file>"
+      + "<file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"true\" branchesToCover=\"3\"/></file></coverage>"), "report.xml");
+    try {
+      parser.saveMeasures();
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage()).isEqualTo("\"branchesToCover\" mismatch between two different reports of file file1");
+    }
+  }
+
+  @Test
+  public void merge_spilled_parsers() throws Exception {
+    InputFile file1 = setupFile("file1");
+    InputFile file2 = setupFile("file2");
+    ((DefaultInputFile) file1).setAbsolutePath("/root/file1");
+    ((DefaultInputFile) file2).setAbsolutePath("/root/file2");
+    addFileToContext(file1);
+    addFileToContext(file2);
+    String report = "<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"%s\"/></file>"
+      + "<file path=\"file2\"><lineToCover lineNumber=\"2\" covered=\"%s\"/></file></coverage>";
+    ReportParser parser = new ReportParser(fs, context, perspectives, ReportParser.Mode.COVERAGE);
+    parser.enableSpilling(1, temp.getRoot());
+    parser.parse(createReport(String.format(report, "true", "false")), "report1.xml");
+    ReportParser other = new ReportParser(fs, context, perspectives, ReportParser.Mode.COVERAGE);
+    other.enableSpilling(1, temp.getRoot());
+    other.parse(createReport(String.format(report, "false", "true")), "report2.xml");
+    assertThat(parser.merge(other)).isTrue();
+    parser.saveMeasures();
+    verify(context).saveMeasure(eq(file1), dataMeasure(CoreMetrics.COVERAGE_LINE_HITS_DATA, ImmutableMap.of(1, 1)));
+    verify(context).saveMeasure(eq(file2), dataMeasure(CoreMetrics.COVERAGE_LINE_HITS_DATA, ImmutableMap.of(2, 1)));
+    // only the two reports are left
+    assertThat(temp.getRoot().listFiles()).hasSize(2);
+  }
+
   @Test(expected = IllegalStateException.class)
   public void testUnknownFile() throws Exception {
     parseCoverageReportFile("xxx.xml");
@@ -413,6 +797,44 @@ public class ReportParserTest {
     return reportParser;
   }
 
+  @CheckForNull
+  private String failure(String report) throws Exception {
+    try {
+      new ReportParser(fs, context, perspectives, ReportParser.Mode.COVERAGE).parse(createReport(report), "report.xml");
+      return null;
+    } catch (ReportParsingException e) {
+      return e.lineNumber() + ": " + e.getMessage();
+    } catch (IllegalStateException e) {
+      return e.getMessage();
+    }
+  }
+
+  @CheckForNull
+  private String streamingFailure(String report) throws Exception {
+    ReportParser parser = new ReportParser(fs, context, perspectives, ReportParser.Mode.COVERAGE);
+    parser.enableStreaming();
+    try {
+      parser.parse(createReport(report), "report.xml");
+      return null;
+    } catch (IllegalStateException e) {
+      return e.getMessage();
+    }
+  }
+
+  private static byte[] gzip(String report) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (OutputStream outputStream = new GZIPOutputStream(bytes)) {
+      outputStream.write(report.getBytes(Charsets.UTF_8));
+    }
+    return bytes.toByteArray();
+  }
+
+  private File createReport(String report) throws Exception {
+    File reportFile = temp.newFile();
+    Files.write(report, reportFile, Charsets.UTF_8);
+    return reportFile;
+  }
+
   private ReportParser parseCoverageReportFile(String reportLocation) throws Exception {
     return parseReportFile(reportLocation, ReportParser.Mode.COVERAGE);
   }
@@ -0,0 +1,86 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ReportPathPatternsTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private File baseDir;
+
+  @Before
+  public void before() throws Exception {
+    baseDir = temp.newFolder();
+    for (String path : new String[] {"build/coverage/b.xml", "build/coverage/a.xml", "build/coverage/shard2/c.xml", "build/coverage/shard1/d.xml",
+      "build/coverage/shard1/e.txt", "report.xml"}) {
+      File file = new File(baseDir, path);
+      file.getParentFile().mkdirs();
+      file.createNewFile();
+    }
+  }
+
+  @Test
+  public void keeps_literal_paths() {
+    assertThat(ReportPathPatterns.expand(baseDir, ImmutableList.of("report.xml", "missing.xml"))).containsExactly("report.xml", "missing.xml");
+  }
+
+  @Test
+  public void expands_glob_patterns_in_order() {
+    assertThat(ReportPathPatterns.expand(baseDir, ImmutableList.of("build/coverage/**/*.xml"))).containsExactly(
+      path("build/coverage/a.xml"), path("build/coverage/b.xml"), path("build/coverage/shard1/d.xml"), path("build/coverage/shard2/c.xml"));
+    assertThat(ReportPathPatterns.expand(baseDir, ImmutableList.of("build/*/shard*/*"))).containsExactly(
+      path("build/coverage/shard1/d.xml"), path("build/coverage/shard1/e.txt"), path("build/coverage/shard2/c.xml"));
+    assertThat(ReportPathPatterns.expand(baseDir, ImmutableList.of(new File(baseDir, "build").getAbsolutePath() + "/**/?.txt"))).containsExactly(
+      path("build/coverage/shard1/e.txt"));
+  }
+
+  @Test
+  public void expands_directories() {
+    assertThat(ReportPathPatterns.expand(baseDir, ImmutableList.of("build/coverage/shard1", "build/coverage/shard2/"))).containsExactly(
+      path("build/coverage/shard1/d.xml"), path("build/coverage/shard1/e.txt"), path("build/coverage/shard2/c.xml"));
+  }
+
+  @Test
+  public void keeps_each_file_once() {
+    assertThat(ReportPathPatterns.expand(baseDir, ImmutableList.of("build/coverage/shard2", "build/**/c.xml"))).containsExactly(
+      path("build/coverage/shard2/c.xml"));
+  }
+
+  @Test
+  public void keeps_patterns_without_match() {
+    assertThat(ReportPathPatterns.expand(baseDir, ImmutableList.of("build/**/*.bin", "missing/*.xml"))).containsExactly("build/**/*.bin", "missing/*.xml");
+  }
+
+  private String path(String relativePath) {
+    return new File(baseDir, relativePath).getAbsolutePath();
+  }
+
+}
@@ -0,0 +1,217 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultFileSystem;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.component.ResourcePerspectives;
+import org.sonar.api.resources.Resource;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ReportPipelineTest {
+
+  private static final int FILES = 60;
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Mock
+  private SensorContext context;
+  @Mock
+  private ResourcePerspectives perspectives;
+  private DefaultFileSystem fs;
+
+  @Before
+  public void before() {
+    MockitoAnnotations.initMocks(this);
+    fs = new DefaultFileSystem().setBaseDir(temp.getRoot());
+    for (int i = 0; i < FILES; i++) {
+      String path = "src/dir" + (i % 7) + "/File" + i + ".java";
+      DefaultInputFile inputFile = new DefaultInputFile(path).setAbsolutePath(new File(temp.getRoot(), path).getAbsolutePath())
+        .setLanguage(i == FILES - 1 ? null : "bla").setType(InputFile.Type.MAIN);
+      fs.add(inputFile);
+      when(context.getResource(inputFile)).thenReturn(mock(Resource.class));
+    }
+  }
+
+  @Test
+  public void same_data_as_a_single_thread() throws Exception {
+    StringBuilder report = new StringBuilder("<coverage version=\"1\">\n");
+    for (int i = 0; i < FILES - 1; i++) {
+      appendFile(report, "src/dir" + (i % 7) + "/File" + i + ".java", i, 2);
+      appendFile(report, "unknown/File" + i + ".java", i, 0);
+    }
+    // the same files again, by absolute path
+    for (int i = 0; i < FILES - 1; i += 3) {
+      appendFile(report, new File(temp.getRoot(), "src/dir" + (i % 7) + "/File" + i + ".java").getAbsolutePath(), i + 1, 2);
+    }
+    report.append("</coverage>\n");
+    File reportFile = write(report.toString());
+
+    ReportParser expected = parse(reportFile, 0);
+    ReportParser actual = parse(reportFile, 4);
+    assertSameData(actual, expected);
+    assertThat(actual.numberOfUnknownFiles()).isEqualTo(FILES - 1);
+    assertThat(actual.firstUnknownFiles()).containsExactly("unknown/File0.java", "unknown/File1.java", "unknown/File2.java", "unknown/File3.java",
+      "unknown/File4.java");
+  }
+
+  @Test
+  public void first_error_of_the_report_wins() throws Exception {
+    StringBuilder report = new StringBuilder("<coverage version=\"1\">\n");
+    for (int i = 0; i < 20; i++) {
+      appendFile(report, "src/dir" + (i % 7) + "/File" + i + ".java", i, 2);
+    }
+    // line 82
+    report.append("<file path=\"src/dir0/File0.java\"><lineToCover lineNumber=\"1\" covered=\"true\" branchesToCover=\"5\"/></file>\n");
+    report.append("<file path=\"src/dir" + ((FILES - 1) % 7) + "/File" + (FILES - 1) + ".java\"/>\n");
+    report.append("</coverage>\n");
+    File reportFile = write(report.toString());
+    for (int workers = 0; workers < 10; workers++) {
+      try {
+        parse(reportFile, workers % 4);
+        fail();
+      } catch (ReportParsingException e) {
+        assertThat(e.lineNumber()).isEqualTo(82);
+      }
+    }
+  }
+
+  @Test
+  public void data_of_previous_reports_is_kept() throws Exception {
+    StringBuilder report = new StringBuilder("<coverage version=\"1\">\n");
+    for (int i = 0; i < 20; i++) {
+      appendFile(report, "src/dir" + (i % 7) + "/File" + i + ".java", i, 2);
+    }
+    report.append("</coverage>\n");
+    File reportFile = write(report.toString());
+    File otherReportFile = write(report.toString().replace("covered=\"false\"", "covered=\"true\""));
+
+    ReportParser expected = parse(reportFile, 0);
+    expected.parse(otherReportFile, "other.xml");
+    ReportParser actual = parse(reportFile, 3);
+    actual.parse(otherReportFile, "other.xml");
+    assertSameData(actual, expected);
+  }
+
+  @Test
+  public void report_beyond_the_canonical_subset_is_parsed_by_staxmate_after_the_committed_files() throws Exception {
+    StringBuilder report = new StringBuilder("<coverage version=\"1\">\n");
+    for (int i = 0; i < 20; i++) {
+      appendFile(report, "src/dir" + (i % 7) + "/File" + i + ".java", i, 2);
+      if (i == 10) {
+        report.append("<!-- comment -->\n");
+      }
+    }
+    report.append("</coverage>\n");
+    File reportFile = write(report.toString());
+    assertSameData(parse(reportFile, 3), parse(reportFile, 0));
+  }
+
+  @Test
+  public void progress_counts_files_and_elements_while_workers_parse() throws Exception {
+    StringBuilder report = new StringBuilder("<coverage version=\"1\">\n");
+    for (int i = 0; i < 2000; i++) {
+      appendFile(report, "src/dir" + (i % 7) + "/File" + (i % (FILES - 1)) + ".java", i, 3);
+    }
+    report.append("</coverage>\n");
+    File reportFile = write(report.toString());
+    final List<ReportProgress> events = new ArrayList<>();
+    ReportParser parser = new ReportParser(fs, context, perspectives, ReportParser.Mode.COVERAGE);
+    parser.enablePipeline(3);
+    parser.enableProgress(0, new ReportProgress.Listener() {
+      @Override
+      public void progress(ReportProgress progress) {
+        events.add(progress);
+      }
+    });
+    parser.parse(reportFile, "report.xml");
+
+    assertThat(events).isNotEmpty();
+    assertThat(events.get(0).files()).isGreaterThan(0);
+    assertThat(events.get(0).elements()).isGreaterThan(0);
+    // counted once
+    assertThat(parser.metrics().files()).isEqualTo(2000);
+    assertThat(parser.metrics().elements()).isEqualTo(6000);
+  }
+
+  private static void appendFile(StringBuilder report, String path, int seed, int lineCount) {
+    report.append("<file path=\"").append(path).append("\">\n");
+    for (int line = 1; line <= lineCount; line++) {
+      report.append("<lineToCover lineNumber=\"").append(line).append("\" covered=\"").append((seed + line) % 2 == 0)
+        .append("\" branchesToCover=\"2\" coveredBranches=\"").append((seed + line) % 3 == 0 ? 0 : 1).append("\"/>\n");
+    }
+    report.append("</file>\n");
+  }
+
+  private File write(String report) throws Exception {
+    File reportFile = temp.newFile();
+    Files.write(report, reportFile, Charsets.UTF_8);
+    return reportFile;
+  }
+
+  private ReportParser parse(File reportFile, int workers) throws Exception {
+    ReportParser parser = new ReportParser(fs, context, perspectives, ReportParser.Mode.COVERAGE);
+    if (workers > 0) {
+      parser.enablePipeline(workers);
+    }
+    parser.parse(reportFile, "report.xml");
+    return parser;
+  }
+
+  private static void assertSameData(ReportParser actual, ReportParser expected) {
+    assertThat(actual.numberOfMatchedFiles()).isEqualTo(expected.numberOfMatchedFiles());
+    assertThat(actual.numberOfUnknownFiles()).isEqualTo(expected.numberOfUnknownFiles());
+    assertThat(actual.firstUnknownFiles()).isEqualTo(expected.firstUnknownFiles());
+    Map<InputFile, CustomCoverageMeasuresBuilder> expectedMeasures = expected.coverageMeasures();
+    assertThat(actual.coverageMeasures().keySet()).isEqualTo(expectedMeasures.keySet());
+    for (Map.Entry<InputFile, CustomCoverageMeasuresBuilder> entry : actual.coverageMeasures().entrySet()) {
+      CustomCoverageMeasuresBuilder actualBuilder = entry.getValue();
+      CustomCoverageMeasuresBuilder expectedBuilder = expectedMeasures.get(entry.getKey());
+      assertThat(actualBuilder.lineCount()).isEqualTo(expectedBuilder.lineCount());
+      for (int i = 0; i < actualBuilder.lineCount(); i++) {
+        assertThat(actualBuilder.lineAt(i)).isEqualTo(expectedBuilder.lineAt(i));
+        assertThat(actualBuilder.hitsAt(i)).isEqualTo(expectedBuilder.hitsAt(i));
+        assertThat(actualBuilder.conditionsAt(i)).isEqualTo(expectedBuilder.conditionsAt(i));
+        assertThat(actualBuilder.coveredConditionsAt(i)).isEqualTo(expectedBuilder.coveredConditionsAt(i));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ReportProgressTest {
+
+  private static final long MEGABYTE = 1024 * 1024;
+
+  @Test
+  public void estimates_remaining_time_from_throughput() {
+    ReportProgress progress = new ReportProgress("coverage.xml", 10 * MEGABYTE, 40 * MEGABYTE, 3, 1200, TimeUnit.SECONDS.toNanos(5));
+    assertThat(progress.bytesPerSecond()).isEqualTo(2 * MEGABYTE);
+    assertThat(progress.remainingSeconds()).isEqualTo(15);
+    assertThat(progress.toString()).isEqualTo("coverage.xml: 10.0 of 40.0 MB (25%), 3 files, 1200 elements, 2.0 MB/s, about 15 s left");
+  }
+
+  @Test
+  public void remaining_time_is_unknown_without_throughput() {
+    ReportProgress progress = new ReportProgress("coverage.xml", 0, MEGABYTE, 0, 0, 0);
+    assertThat(progress.remainingSeconds()).isEqualTo(-1);
+    assertThat(progress.toString()).endsWith("(0%), 0 files, 0 elements, 0.0 MB/s, remaining time unknown");
+  }
+
+  @Test
+  public void remaining_time_is_unknown_when_file_grew() {
+    ReportProgress progress = new ReportProgress("coverage.xml", 2 * MEGABYTE, MEGABYTE, 0, 0, TimeUnit.SECONDS.toNanos(1));
+    assertThat(progress.remainingSeconds()).isEqualTo(-1);
+    assertThat(progress.toString()).contains("(100%)");
+  }
+
+}
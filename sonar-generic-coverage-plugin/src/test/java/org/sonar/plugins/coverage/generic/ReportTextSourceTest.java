@@ -0,0 +1,79 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ReportTextSourceTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void reads_back_text_from_character_offsets() throws Exception {
+    String content = "\uFEFF<a>\r\n\u00e9\uD83D\uDE00<b>x&amp;y<![CDATA[<z>]]><!-- c --></b></a>";
+    ReportTextSource source = trackedSource(content);
+    // offsets do not count the byte order mark
+    String xml = content.substring(1);
+    int start = xml.indexOf("<b>") + 3;
+    int end = xml.indexOf("</b>");
+    assertThat(source.text(start, end)).isEqualTo("x&y<z>");
+    assertThat(source.text(xml.indexOf('\u00e9'), start - 3)).isEqualTo("\u00e9\uD83D\uDE00");
+    assertThat(source.text(end, start)).isEmpty();
+    source.close();
+  }
+
+  @Test
+  public void reads_back_text_far_in_the_report() throws Exception {
+    StringBuilder content = new StringBuilder("<a>");
+    for (int i = 0; i < 10000; i++) {
+      content.append("\u00e9\uD83D\uDE00").append(i);
+    }
+    int start = content.length();
+    content.append("<b>text</b>");
+    content.append("</a>");
+    ReportTextSource source = trackedSource(content.toString());
+    assertThat(source.text(start + 3, start + 7)).isEqualTo("text");
+    assertThat(source.text(3, 6)).isEqualTo("\u00e9\uD83D\uDE00");
+    source.close();
+  }
+
+  private ReportTextSource trackedSource(String content) throws Exception {
+    File file = temp.newFile();
+    Files.write(content, file, Charsets.UTF_8);
+    ReportTextSource source = new ReportTextSource(file);
+    try (InputStream inputStream = source.track(new FileInputStream(file))) {
+      ByteStreams.toByteArray(inputStream);
+    }
+    return source;
+  }
+
+}
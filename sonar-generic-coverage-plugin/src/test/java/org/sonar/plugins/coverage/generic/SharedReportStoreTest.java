@@ -0,0 +1,211 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultFileSystem;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.component.ResourcePerspectives;
+import org.sonar.api.measures.CoreMetrics;
+import org.sonar.api.measures.Measure;
+import org.sonar.api.measures.Metric;
+import org.sonar.api.resources.Resource;
+import org.sonar.api.utils.KeyValueFormat;
+
+import java.io.File;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.refEq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SharedReportStoreTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Mock
+  private SensorContext context;
+  @Mock
+  private ResourcePerspectives perspectives;
+  private final SharedReportStore store = new SharedReportStore();
+  private final File report = new File("src/test/resources/coverage.xml");
+
+  @Before
+  public void before() {
+    MockitoAnnotations.initMocks(this);
+  }
+
+  @Test
+  public void each_module_takes_the_data_of_its_own_files() throws Exception {
+    InputFile fileWithoutBranch = moduleFile("src/main/java/com/example/ClassWithoutBranch.java", "bla");
+    InputFile fileWithBranches = moduleFile("src/main/java/com/example/ClassWithBranches.java", "bla");
+
+    ReportParser module1 = parse(fileWithoutBranch);
+    ReportParser module2 = parse(fileWithBranches);
+
+    assertThat(module1.numberOfMatchedFiles()).isEqualTo(1);
+    assertThat(module1.numberOfUnknownFiles()).isEqualTo(3);
+    assertThat(module1.firstUnknownFiles()).containsExactly("src/main/java/com/example/NonExisting.java", "src/main/java/com/example/EmptyClass.java",
+      "src/main/java/com/example/ClassWithBranches.java");
+    verify(context).saveMeasure(eq(fileWithoutBranch), dataMeasure(CoreMetrics.COVERAGE_LINE_HITS_DATA, ImmutableMap.of(2, 0, 3, 1, 5, 1, 6, 0)));
+    assertThat(module2.numberOfMatchedFiles()).isEqualTo(1);
+    verify(context).saveMeasure(eq(fileWithBranches), dataMeasure(CoreMetrics.CONDITIONS_BY_LINE, ImmutableMap.of(3, 8, 4, 2)));
+    verify(context).saveMeasure(eq(fileWithBranches), dataMeasure(CoreMetrics.COVERED_CONDITIONS_BY_LINE, ImmutableMap.of(3, 5, 4, 0)));
+  }
+
+  @Test
+  public void report_is_parsed_once() throws Exception {
+    ImportMetrics metrics = new ImportMetrics();
+    SharedReportStore.StoredReport storedReport = store.report(report, "coverage.xml", SharedReportStore.DEFAULT_BUDGET, metrics);
+    assertThat(storedReport.numberOfFiles()).isEqualTo(4);
+    assertThat(metrics.bytesRead()).isEqualTo(report.length());
+    ImportMetrics otherMetrics = new ImportMetrics();
+    assertThat(store.report(report, "coverage.xml", SharedReportStore.DEFAULT_BUDGET, otherMetrics)).isSameAs(storedReport);
+    assertThat(otherMetrics.bytesRead()).isEqualTo(0);
+  }
+
+  @Test
+  public void changed_report_is_parsed_again() throws Exception {
+    File changedReport = temp.newFile("coverage.xml");
+    Files.write("<coverage version=\"1\"><file path=\"file1\"/></coverage>", changedReport, Charsets.UTF_8);
+    SharedReportStore.StoredReport storedReport = store.report(changedReport, "coverage.xml", SharedReportStore.DEFAULT_BUDGET, new ImportMetrics());
+    Files.write("<coverage version=\"1\"><file path=\"file1\"/><file path=\"file2\"/></coverage>", changedReport, Charsets.UTF_8);
+    assertThat(changedReport.setLastModified(changedReport.lastModified() - 10000)).isTrue();
+    SharedReportStore.StoredReport changedStoredReport = store.report(changedReport, "coverage.xml", SharedReportStore.DEFAULT_BUDGET, new ImportMetrics());
+    assertThat(changedStoredReport).isNotSameAs(storedReport);
+    assertThat(changedStoredReport.numberOfFiles()).isEqualTo(2);
+    // the previous version is released
+    assertThat(store.numberOfStoredReports()).isEqualTo(1);
+    assertThat(store.storedBytes()).isEqualTo(changedStoredReport.size());
+  }
+
+  @Test
+  public void report_too_large_is_not_parsed_again_until_it_changes() throws Exception {
+    File changedReport = temp.newFile("coverage.xml");
+    Files.copy(report, changedReport);
+    ImportMetrics metrics = new ImportMetrics();
+    assertThat(store.report(changedReport, "coverage.xml", 100, metrics)).isNull();
+    assertThat(metrics.bytesRead()).isGreaterThan(0);
+    metrics = new ImportMetrics();
+    assertThat(store.report(changedReport, "coverage.xml", 100, metrics)).isNull();
+    assertThat(metrics.bytesRead()).isEqualTo(0);
+    assertThat(store.numberOfStoredReports()).isEqualTo(0);
+
+    Files.write("<coverage version=\"1\"><file path=\"file1\"/></coverage>", changedReport, Charsets.UTF_8);
+    assertThat(store.report(changedReport, "coverage.xml", 100, new ImportMetrics())).isNotNull();
+    assertThat(store.storedBytes()).isLessThanOrEqualTo(100);
+  }
+
+  @Test
+  public void least_recently_used_reports_are_released_beyond_the_budget() throws Exception {
+    File report1 = smallReport("report1.xml");
+    File report2 = smallReport("report2.xml");
+    File report3 = smallReport("report3.xml");
+    SharedReportStore.StoredReport storedReport1 = store.report(report1, "report1.xml", SharedReportStore.DEFAULT_BUDGET, new ImportMetrics());
+    store.report(report2, "report2.xml", SharedReportStore.DEFAULT_BUDGET, new ImportMetrics());
+    long budget = store.storedBytes();
+    assertThat(store.report(report1, "report1.xml", budget, new ImportMetrics())).isSameAs(storedReport1);
+
+    store.report(report3, "report3.xml", budget, new ImportMetrics());
+    assertThat(store.numberOfStoredReports()).isEqualTo(2);
+    assertThat(store.storedBytes()).isEqualTo(budget);
+    assertThat(store.report(report1, "report1.xml", budget, new ImportMetrics())).isSameAs(storedReport1);
+    ImportMetrics metrics = new ImportMetrics();
+    store.report(report2, "report2.xml", budget, metrics);
+    assertThat(metrics.bytesRead()).isEqualTo(report2.length());
+  }
+
+  @Test
+  public void errors_refer_to_the_lines_of_the_report() throws Exception {
+    InputFile file = moduleFile("src/main/java/com/example/ClassWithBranches.java", null);
+    try {
+      parse(file);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Line 10 of report coverage.xml refers to a file with an unknown language: src/main/java/com/example/ClassWithBranches.java");
+    }
+  }
+
+  @Test
+  public void mismatches_refer_to_the_lines_of_the_report() throws Exception {
+    InputFile file = moduleFile("file1", "bla");
+    File report1 = temp.newFile("report1.xml");
+    Files.write("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"true\" branchesToCover=\"2\"/></file></coverage>",
+      report1, Charsets.UTF_8);
+    File report2 = temp.newFile("report2.xml");
+    Files.write("<coverage version=\"1\">\n<file path=\"file1\">\n<lineToCover lineNumber=\"2\" covered=\"true\"/>\n"
+      + "<lineToCover lineNumber=\"1\" covered=\"true\" branchesToCover=\"3\"/></file></coverage>", report2, Charsets.UTF_8);
+    ReportParser parser = newParser(file);
+    parser.parse(report1, "report1.xml");
+    try {
+      parser.parse(report2, "report2.xml");
+      fail();
+    } catch (ReportParsingException e) {
+      assertThat(e.lineNumber()).isEqualTo(4);
+    }
+  }
+
+  private File smallReport(String name) throws Exception {
+    File smallReport = temp.newFile(name);
+    Files.write("<coverage version=\"1\"><file path=\"file1\"><lineToCover lineNumber=\"1\" covered=\"true\"/></file></coverage>", smallReport,
+      Charsets.UTF_8);
+    return smallReport;
+  }
+
+  private InputFile moduleFile(String path, String language) {
+    return new DefaultInputFile(path).setLanguage(language).setType(InputFile.Type.MAIN);
+  }
+
+  private ReportParser newParser(InputFile moduleFile) {
+    DefaultFileSystem fs = new DefaultFileSystem().setBaseDir(new File(""));
+    fs.add(moduleFile);
+    when(context.getResource(moduleFile)).thenReturn(mock(Resource.class));
+    ReportParser parser = new ReportParser(fs, context, perspectives, ReportParser.Mode.COVERAGE);
+    parser.enableSharedStore(store, SharedReportStore.DEFAULT_BUDGET);
+    return parser;
+  }
+
+  private ReportParser parse(InputFile moduleFile) throws Exception {
+    ReportParser parser = newParser(moduleFile);
+    parser.parse(report, "coverage.xml");
+    parser.saveMeasures();
+    return parser;
+  }
+
+  private Measure dataMeasure(Metric metric, Map<Integer, Integer> data) {
+    return refEq(new Measure(metric).setData(KeyValueFormat.format(data)), "persistenceMode");
+  }
+
+}
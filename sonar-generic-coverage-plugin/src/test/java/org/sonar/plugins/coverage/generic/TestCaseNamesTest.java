@@ -0,0 +1,60 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class TestCaseNamesTest {
+
+  @Test
+  public void keeps_distinct_names_in_order() {
+    TestCaseNames names = new TestCaseNames();
+    assertThat(names.add("org.foo.BarTest.test1")).isEqualTo(0);
+    assertThat(names.add("test1")).isEqualTo(1);
+    assertThat(names.add("org.foo.BarTest.test2")).isEqualTo(2);
+    assertThat(names.add("org.foo.BazTest.test1")).isEqualTo(3);
+    assertThat(names.add("org.foo.BarTest.")).isEqualTo(4);
+    assertThat(names.add("org.foo.BarTest.test1")).isEqualTo(-1);
+    assertThat(names.add("test1")).isEqualTo(-1);
+    assertThat(names.add("org.foo.BarTest.")).isEqualTo(-1);
+    assertThat(names.size()).isEqualTo(5);
+    assertThat(names.get(0)).isEqualTo("org.foo.BarTest.test1");
+    assertThat(names.get(1)).isEqualTo("test1");
+    assertThat(names.get(2)).isEqualTo("org.foo.BarTest.test2");
+    assertThat(names.get(3)).isEqualTo("org.foo.BazTest.test1");
+    assertThat(names.get(4)).isEqualTo("org.foo.BarTest.");
+  }
+
+  @Test
+  public void grows_beyond_initial_capacity() {
+    TestCaseNames names = new TestCaseNames();
+    for (int i = 0; i < 10000; i++) {
+      assertThat(names.add("org.foo.Test" + (i % 7) + ".someLongerTestName" + i)).isEqualTo(i);
+    }
+    for (int i = 0; i < 10000; i++) {
+      assertThat(names.add("org.foo.Test" + (i % 7) + ".someLongerTestName" + i)).isEqualTo(-1);
+      assertThat(names.get(i)).isEqualTo("org.foo.Test" + (i % 7) + ".someLongerTestName" + i);
+    }
+    assertThat(names.size()).isEqualTo(10000);
+  }
+
+}
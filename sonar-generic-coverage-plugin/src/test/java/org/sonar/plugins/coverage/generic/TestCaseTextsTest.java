@@ -0,0 +1,53 @@
+/*
+ * SonarQube Generic Coverage Plugin
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.coverage.generic;
+
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class TestCaseTextsTest {
+
+  private static final String STACK_TRACE = Strings.repeat("at com.example.Fixture.setUp(Fixture.java:42) \u00e9\n", 100);
+
+  @Test
+  public void texts_are_shared() {
+    TestCaseTexts texts = new TestCaseTexts(false);
+    TestCaseText text = texts.intern(STACK_TRACE);
+    assertThat(texts.intern(new String(STACK_TRACE))).isSameAs(text);
+    assertThat(text.toString()).isSameAs(STACK_TRACE);
+    assertThat(texts.intern("other").toString()).isEqualTo("other");
+    assertThat(texts.intern(null)).isNull();
+  }
+
+  @Test
+  public void compressed_texts_are_shared() {
+    TestCaseTexts texts = new TestCaseTexts(true);
+    TestCaseText text = texts.intern(STACK_TRACE);
+    assertThat(texts.intern(new String(STACK_TRACE))).isSameAs(text);
+    assertThat(text.toString()).isEqualTo(STACK_TRACE);
+    assertThat(texts.intern(STACK_TRACE + "x").toString()).isEqualTo(STACK_TRACE + "x");
+    assertThat(texts.intern("short")).isSameAs(texts.intern("short"));
+    assertThat(texts.intern("short").toString()).isEqualTo("short");
+    assertThat(texts.intern(null)).isNull();
+  }
+
+}
@@ -23,9 +23,12 @@ import org.junit.Test;
 import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.measures.Measure;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
 
 public class UnitTestMeasuresBuilderTest {
 
@@ -50,6 +53,62 @@ public class UnitTestMeasuresBuilderTest {
     assertThat(find(builder.createMeasures(), CoreMetrics.TEST_EXECUTION_TIME_KEY).getIntValue()).isEqualTo(610);
   }
 
+  @Test
+  public void shouldRejectUnknownStatus() {
+    try {
+      UnitTestMeasuresBuilder.create().setTestCase("foo", "passed", 10L, null, null);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Unknown test case status: passed");
+    }
+    try {
+      new TestCase().setStatus("passed");
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Unknown test case status: passed");
+    }
+    assertThat(new TestCase().setStatus(TestCase.SKIPPED).getStatusValue()).isEqualTo(TestCase.Status.SKIPPED);
+    assertThat(new TestCase().setStatus((String) null).getStatus()).isNull();
+  }
+
+  @Test
+  public void shouldMergeOtherBuilder() {
+    UnitTestMeasuresBuilder builder = UnitTestMeasuresBuilder.create();
+    builder.setTestCase("foo", "ok", 10L, null, null);
+    UnitTestMeasuresBuilder other = UnitTestMeasuresBuilder.create();
+    other.setTestCase("foo1", "failure", 20L, "failure", "failure");
+    assertThat(builder.merge(other)).isTrue();
+    assertThat(builder.getTestCases()).hasSize(2);
+    assertThat(find(builder.createMeasures(), CoreMetrics.TEST_FAILURES_KEY).getIntValue()).isEqualTo(1);
+    assertThat(find(builder.createMeasures(), CoreMetrics.TEST_EXECUTION_TIME_KEY).getIntValue()).isEqualTo(30);
+
+    UnitTestMeasuresBuilder duplicate = UnitTestMeasuresBuilder.create();
+    duplicate.setTestCase("foo", "ok", 10L, null, null);
+    assertThat(builder.merge(duplicate)).isFalse();
+  }
+
+  @Test
+  public void shouldKeepTestCases() {
+    UnitTestMeasuresBuilder builder = UnitTestMeasuresBuilder.create();
+    builder.setTestCase("org.foo.BarTest.test1", "ok", 10L, null, null);
+    builder.setTestCase("org.foo.BarTest.test2", "failure", 20L, "message", "stack");
+    List<TestCase> testCases = new ArrayList<>(builder.getTestCases());
+    assertThat(testCases).hasSize(2);
+    assertThat(testCases.get(0).getName()).isEqualTo("org.foo.BarTest.test1");
+    assertThat(testCases.get(0).getStatusValue()).isEqualTo(TestCase.Status.OK);
+    assertThat(testCases.get(0).getMessage()).isNull();
+    assertThat(testCases.get(1).getName()).isEqualTo("org.foo.BarTest.test2");
+    assertThat(testCases.get(1).getStatus()).isEqualTo("failure");
+    assertThat(testCases.get(1).getDuration()).isEqualTo(20L);
+    assertThat(testCases.get(1).getMessage()).isEqualTo("message");
+    assertThat(testCases.get(1).getStackTrace()).isEqualTo("stack");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldFailOnUnknownStatus() {
+    UnitTestMeasuresBuilder.create().setTestCase("foo", "unknown", 10L, null, null);
+  }
+
   private Measure find(Collection<Measure> measures, String metricKey) {
     for (Measure measure : measures) {
       if (metricKey.equals(measure.getMetricKey())) {